@@ -0,0 +1,60 @@
+package com.youramaryllis.simpleca;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Full and delta CRL generation with as many revoked entries in the certindex of the CA.
+ * <p>
+ * The entries are appended to the certindex directly, they don't need a cert to be listed in a CRL.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class CrlBenchmark extends SimpleCAState {
+    // beyond the serials the CA issued itself
+    private static final BigInteger FIRST_SERIAL = BigInteger.valueOf(0x10000000L);
+
+    @Param({"1000", "10000", "100000"})
+    public int revoked;
+
+    @Override
+    protected void setup() throws Exception {
+        Path certindex = directory.resolve("ca").resolve(issuingCA.relativePath).resolve("certindex");
+        String expiry = JcaSigningEngine.formatIndexDate(Instant.now().plus(Duration.ofDays(365)));
+        String revocationDate = JcaSigningEngine.formatIndexDate(Instant.now());
+        StringBuilder entries = new StringBuilder();
+        for (int i = 0; i < revoked; i++) {
+            String serial = FIRST_SERIAL.add(BigInteger.valueOf(i)).toString(16).toUpperCase();
+            entries.append(String.join("\t", "R", expiry, revocationDate, serial, "unknown", "/CN=revoked" + i)).append('\n');
+        }
+        Files.writeString(certindex, entries, StandardOpenOption.APPEND);
+        context.getBean(RevocationIndex.class).reload(issuingCA);
+    }
+
+    @Benchmark
+    public boolean generateCrl() {
+        return certAuthority.generateCrl(issuingCA, true);
+    }
+
+    @Benchmark
+    public void generateDeltaCrl() {
+        certAuthority.generateDeltaCrl(issuingCA);
+    }
+}
@@ -0,0 +1,60 @@
+package com.youramaryllis.simpleca;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.codec.ServerCodecConfigurer;
+import org.springframework.mock.http.server.reactive.MockServerHttpRequest;
+import org.springframework.mock.http.server.reactive.MockServerHttpResponse;
+import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.server.adapter.DefaultServerWebExchange;
+import org.springframework.web.server.i18n.AcceptHeaderLocaleContextResolver;
+import org.springframework.web.server.session.DefaultWebSessionManager;
+import reactor.core.publisher.Flux;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@code GET /ca/{caName}/{fileName}} as handled by {@link CAController}, from the artifact cache once the
+ * first request has read the file.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+@Threads(4)
+public class CrlDownloadBenchmark extends SimpleCAState {
+    @Param({"bench.crl", "bench-delta.crl", "bench.crt"})
+    public String fileName;
+
+    private CAController controller;
+    // MockServerWebExchange would create its codecs on every call
+    private final ServerCodecConfigurer codecConfigurer = ServerCodecConfigurer.create();
+    private final DefaultWebSessionManager sessionManager = new DefaultWebSessionManager();
+    private final AcceptHeaderLocaleContextResolver localeContextResolver = new AcceptHeaderLocaleContextResolver();
+
+    @Override
+    protected void setup() {
+        controller = context.getBean(CAController.class);
+    }
+
+    // the body is wrapped, not written out, as the server would hand it to netty
+    @Benchmark
+    public DataBuffer download() {
+        ServerWebExchange exchange = new DefaultServerWebExchange(
+                MockServerHttpRequest.get("/ca/{caName}/{fileName}", issuingCA.relativePath, fileName).build(),
+                new MockServerHttpResponse(), sessionManager, codecConfigurer, localeContextResolver);
+        ResponseEntity<Flux<DataBuffer>> response = controller.getCrl(issuingCA.relativePath, fileName, exchange).block();
+        assert response != null && response.getStatusCode().is2xxSuccessful() : fileName + " not served";
+        return response.getBody().blockFirst();
+    }
+}
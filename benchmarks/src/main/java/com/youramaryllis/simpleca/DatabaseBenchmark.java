@@ -0,0 +1,57 @@
+package com.youramaryllis.simpleca;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The database with an inventory of as many certs (records only, nothing is built): journaling a cert
+ * ({@code flush}), rewriting the whole db file ({@code compact}), and the {@code GET /api/ca} lookups.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class DatabaseBenchmark extends SimpleCAState {
+    @Param({"1000", "10000", "100000"})
+    public int certs;
+
+    private final AtomicLong certCount = new AtomicLong();
+
+    @Override
+    protected void setup() {
+        for (int i = 0; i < certs; i++) database.addCert(issuingCA, newCert("inventory" + i));
+        database.compact();
+    }
+
+    @Benchmark
+    public void flush() {
+        database.addCert(issuingCA, newCert("cert" + certCount.incrementAndGet()));
+        database.flush();
+    }
+
+    @Benchmark
+    public void compact() {
+        database.compact();
+    }
+
+    @Benchmark
+    public CA getCleanCA() {
+        return database.getCleanCA(ISSUING_CA);
+    }
+
+    @Benchmark
+    public List<CA> getAllCleanCA() {
+        return database.getAllCleanCA();
+    }
+}
@@ -0,0 +1,40 @@
+package com.youramaryllis.simpleca;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Issuing a cert end to end as {@code POST /api/cert/{signingCaName}} does: key (from the pool while it lasts),
+ * CSR, signing, chain, verification, then the database record.
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 10)
+@Measurement(iterations = 5, time = 10)
+@Fork(1)
+public class IssuanceBenchmark extends SimpleCAState {
+    // of the issued cert, the bench CA stays RSA
+    @Param({"RSA", "EC_P256", "ED25519"})
+    public String keyAlgorithm;
+
+    private final AtomicLong certCount = new AtomicLong();
+
+    @Benchmark
+    public Cert buildCert() {
+        Cert cert = newCert("cert" + certCount.incrementAndGet());
+        cert.keyAlgorithm = KeyAlgorithm.valueOf(keyAlgorithm);
+        certCABuilder.buildCert(issuingCA, cert);
+        database.addCert(issuingCA, cert);
+        database.flush();
+        return cert;
+    }
+}
@@ -0,0 +1,300 @@
+package com.youramaryllis.simpleca;
+
+import lombok.Data;
+import lombok.SneakyThrows;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+import org.bouncycastle.cert.jcajce.JcaX509CertificateHolder;
+import org.bouncycastle.cert.ocsp.CertificateID;
+import org.bouncycastle.cert.ocsp.OCSPReqBuilder;
+import org.bouncycastle.operator.jcajce.JcaDigestCalculatorProviderBuilder;
+import org.springframework.http.MediaType;
+import org.springframework.http.client.reactive.ReactorClientHttpConnector;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
+
+import java.io.PrintStream;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+/**
+ * Load generator for a running server: issuing, revoking, CRL downloads and OCSP requests mixed in the given
+ * proportions, by an increasing number of concurrent clients (one stage each).
+ * <p>
+ * Options are {@code --name=value}, see {@link Options}. For each stage it prints the throughput and latency
+ * percentiles of each operation, and writes their HdrHistogram percentile distribution ({@code <op>-c<n>.hgrm})
+ * and a {@code throughput.csv} line (the throughput curve) to the output directory.
+ */
+public class LoadTest {
+    private static final int MAX_CRL_SIZE = 64 * 1024 * 1024;
+
+    private final Options options;
+    private final WebClient webClient;
+    private final Map<String, Operation> operations = new LinkedHashMap<>();
+    private final Queue<String> issued = new ConcurrentLinkedQueue<>();
+    private final AtomicLong certCount = new AtomicLong();
+    private final String runId = Long.toString(System.currentTimeMillis(), 36);
+    private List<byte[]> ocspRequests;
+    private int totalWeight;
+
+    @Data
+    static class Options {
+        // the server and its OCSP responder
+        String url = "http://localhost:4000";
+        String ocspUrl = "http://localhost:5000";
+        // CA issuing the certs and answering the CRL/OCSP requests, and the relativePath its files are served from
+        String ca = "inter1a";
+        String caPath;
+        // relative weight of each operation
+        String mix = "issue=1,revoke=1,crl=10,ocsp=50";
+        // concurrent clients of each stage
+        String concurrency = "1,4,16,64";
+        int warmupSeconds = 5;
+        int durationSeconds = 30;
+        int keySize = 2048;
+        // RSA, EC_P256, EC_P384 or ED25519
+        String keyAlgorithm = "RSA";
+        String output = "target/load";
+    }
+
+    public static void main(String[] args) {
+        Options options = parse(args);
+        new LoadTest(options).run();
+        System.exit(0);
+    }
+
+    LoadTest(Options options) {
+        this.options = options;
+        if (options.caPath == null) options.caPath = options.ca;
+        int maxConcurrency = parseInts(options.concurrency).stream().max(Integer::compare).orElse(1);
+        ConnectionProvider connectionProvider = ConnectionProvider.builder("load")
+                .maxConnections(maxConcurrency)
+                .pendingAcquireMaxCount(-1)
+                .build();
+        webClient = WebClient.builder()
+                .clientConnector(new ReactorClientHttpConnector(HttpClient.create(connectionProvider)))
+                .codecs(codecs -> codecs.defaultCodecs().maxInMemorySize(MAX_CRL_SIZE))
+                .build();
+        for (String weighted : options.mix.split(",")) {
+            String[] nameWeight = weighted.trim().split("=");
+            int weight = Integer.parseInt(nameWeight[1]);
+            operations.put(nameWeight[0], new Operation(nameWeight[0], weight, requestOf(nameWeight[0])));
+            totalWeight += weight;
+        }
+        if (totalWeight <= 0) throw new IllegalArgumentException("empty mix " + options.mix);
+    }
+
+    @SneakyThrows
+    void run() {
+        if (operations.containsKey("ocsp")) ocspRequests = buildOcspRequests();
+        Path output = Paths.get(options.output);
+        Files.createDirectories(output);
+        try (PrintStream curve = new PrintStream(Files.newOutputStream(output.resolve("throughput.csv")))) {
+            curve.println("concurrency,operation,count,errors,throughput,p50_ms,p90_ms,p99_ms,p999_ms,max_ms");
+            for (int concurrency : parseInts(options.concurrency)) {
+                runStage(concurrency, options.warmupSeconds);
+                operations.values().forEach(Operation::reset);
+                long start = System.nanoTime();
+                runStage(concurrency, options.durationSeconds);
+                double seconds = (System.nanoTime() - start) / 1e9;
+                report(concurrency, seconds, output, curve);
+            }
+        }
+    }
+
+    // every client runs one operation after the other until the end of the stage
+    private void runStage(int concurrency, int seconds) {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+        Flux.range(0, concurrency)
+                .flatMap(client -> Mono.defer(() -> pick().execute()).repeat(() -> System.nanoTime() < deadline), concurrency)
+                .blockLast();
+    }
+
+    private Operation pick() {
+        int value = ThreadLocalRandom.current().nextInt(totalWeight);
+        for (Operation operation : operations.values()) {
+            value -= operation.weight;
+            if (value < 0) return operation;
+        }
+        throw new IllegalStateException();
+    }
+
+    @SneakyThrows
+    private void report(int concurrency, double seconds, Path output, PrintStream curve) {
+        System.out.printf("%n%d concurrent client(s), %.1f s%n", concurrency, seconds);
+        System.out.printf("%-8s %8s %6s %10s %9s %9s %9s %9s %9s%n", "op", "count", "errors", "ops/s", "p50 ms", "p90 ms", "p99 ms", "p99.9 ms", "max ms");
+        for (Operation operation : operations.values()) {
+            Histogram histogram = operation.recorder.getIntervalHistogram();
+            long errors = operation.errors.sum();
+            double throughput = histogram.getTotalCount() / seconds;
+            System.out.printf("%-8s %8d %6d %10.1f %9.2f %9.2f %9.2f %9.2f %9.2f%n", operation.name, histogram.getTotalCount(), errors, throughput,
+                    millis(histogram, 50), millis(histogram, 90), millis(histogram, 99), millis(histogram, 99.9), histogram.getMaxValue() / 1000.0);
+            curve.printf("%d,%s,%d,%d,%.1f,%.2f,%.2f,%.2f,%.2f,%.2f%n", concurrency, operation.name, histogram.getTotalCount(), errors, throughput,
+                    millis(histogram, 50), millis(histogram, 90), millis(histogram, 99), millis(histogram, 99.9), histogram.getMaxValue() / 1000.0);
+            try (PrintStream hgrm = new PrintStream(Files.newOutputStream(output.resolve(operation.name + "-c" + concurrency + ".hgrm")))) {
+                histogram.outputPercentileDistribution(hgrm, 1000.0); // in ms
+            }
+        }
+        curve.flush();
+    }
+
+    private static double millis(Histogram histogram, double percentile) {
+        return histogram.getValueAtPercentile(percentile) / 1000.0;
+    }
+
+    private Supplier<Mono<?>> requestOf(String operation) {
+        switch (operation) {
+            case "issue":
+                return this::issue;
+            case "revoke":
+                return this::revoke;
+            case "crl":
+                return () -> download(options.ca + ".crl");
+            case "ocsp":
+                return this::ocsp;
+            default:
+                throw new IllegalArgumentException("unknown operation " + operation + ", expected issue, revoke, crl or ocsp");
+        }
+    }
+
+    private Mono<?> issue() {
+        String name = "load-" + runId + "-" + certCount.incrementAndGet();
+        Map<String, Object> cert = Map.of(
+                "name", name,
+                "keySize", options.keySize,
+                "keyAlgorithm", options.keyAlgorithm,
+                "subject", "/C=US/ST=California/L=San Francisco/O=Youramaryllis/CN=" + name);
+        return webClient.post().uri(options.url + "/api/cert/{ca}", options.ca)
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue(cert)
+                .retrieve()
+                .toBodilessEntity()
+                .doOnSuccess(response -> issued.add(name));
+    }
+
+    // a cert issued by this run, skipped (not recorded) while there's none left to revoke
+    private Mono<?> revoke() {
+        String name = issued.poll();
+        if (name == null) return Mono.empty();
+        return webClient.delete().uri(options.url + "/api/cert/{ca}/{name}", options.ca, name)
+                .retrieve()
+                .toBodilessEntity();
+    }
+
+    private Mono<byte[]> download(String fileName) {
+        return webClient.get().uri(options.url + "/ca/{path}/{file}", options.caPath, fileName)
+                .retrieve()
+                .bodyToMono(byte[].class);
+    }
+
+    private Mono<?> ocsp() {
+        byte[] request = ocspRequests.get(ThreadLocalRandom.current().nextInt(ocspRequests.size()));
+        return webClient.post().uri(options.ocspUrl)
+                .contentType(MediaType.parseMediaType("application/ocsp-request"))
+                .bodyValue(request)
+                .retrieve()
+                .bodyToMono(byte[].class);
+    }
+
+    // one request (without nonce, like most clients) per cert of the CA, a random serial if it has none
+    @SneakyThrows
+    private List<byte[]> buildOcspRequests() {
+        X509Certificate issuer = PemFiles.readCertificates(download(options.ca + ".crt").block()).get(0);
+        List<BigInteger> serials = webClient.get().uri(options.url + "/api/cert?ca={ca}&limit=1000", options.ca)
+                .accept(MediaType.APPLICATION_JSON)
+                .retrieve()
+                .bodyToFlux(Map.class)
+                .map(entry -> new BigInteger((String) entry.get("serial"), 16))
+                .collectList()
+                .block();
+        if (serials == null || serials.isEmpty()) serials = List.of(BigInteger.valueOf(ThreadLocalRandom.current().nextLong(Long.MAX_VALUE)));
+        JcaX509CertificateHolder issuerHolder = new JcaX509CertificateHolder(issuer);
+        List<byte[]> requests = new ArrayList<>();
+        for (BigInteger serial : serials) {
+            CertificateID certificateId = new CertificateID(
+                    new JcaDigestCalculatorProviderBuilder().build().get(CertificateID.HASH_SHA1), issuerHolder, serial);
+            requests.add(new OCSPReqBuilder().addRequest(certificateId).build().getEncoded());
+        }
+        System.out.printf("%d OCSP request(s) for the certs of %s%n", requests.size(), options.ca);
+        return requests;
+    }
+
+    private static Options parse(String[] args) {
+        Options options = new Options();
+        for (String arg : args) {
+            if (!arg.startsWith("--") || !arg.contains("="))
+                throw new IllegalArgumentException("options are --name=value, got " + arg);
+            String name = arg.substring(2, arg.indexOf('='));
+            String value = arg.substring(arg.indexOf('=') + 1);
+            switch (name) {
+                case "url": options.url = value; break;
+                case "ocspUrl": options.ocspUrl = value; break;
+                case "ca": options.ca = value; break;
+                case "caPath": options.caPath = value; break;
+                case "mix": options.mix = value; break;
+                case "concurrency": options.concurrency = value; break;
+                case "warmupSeconds": options.warmupSeconds = Integer.parseInt(value); break;
+                case "durationSeconds": options.durationSeconds = Integer.parseInt(value); break;
+                case "keySize": options.keySize = Integer.parseInt(value); break;
+                case "keyAlgorithm": options.keyAlgorithm = value; break;
+                case "output": options.output = value; break;
+                default: throw new IllegalArgumentException("unknown option " + name);
+            }
+        }
+        return options;
+    }
+
+    private static List<Integer> parseInts(String values) {
+        return Arrays.stream(values.split(",")).map(String::trim).map(Integer::valueOf).collect(Collectors.toList());
+    }
+
+    // latency in microseconds, failed requests are only counted, skipped ones (empty) neither
+    private static class Operation {
+        final String name;
+        final int weight;
+        final Supplier<Mono<?>> request;
+        final Recorder recorder = new Recorder(3);
+        final LongAdder errors = new LongAdder();
+
+        Operation(String name, int weight, Supplier<Mono<?>> request) {
+            this.name = name;
+            this.weight = weight;
+            this.request = request;
+        }
+
+        Mono<Void> execute() {
+            long start = System.nanoTime();
+            return request.get()
+                    .doOnSuccess(result -> {
+                        if (result != null) recorder.recordValue((System.nanoTime() - start) / 1000);
+                    })
+                    .doOnError(throwable -> errors.increment())
+                    .onErrorResume(throwable -> Mono.empty())
+                    .then();
+        }
+
+        void reset() {
+            recorder.reset();
+            errors.reset();
+        }
+    }
+}
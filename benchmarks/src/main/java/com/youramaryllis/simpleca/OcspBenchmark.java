@@ -0,0 +1,84 @@
+package com.youramaryllis.simpleca;
+
+import org.bouncycastle.asn1.DEROctetString;
+import org.bouncycastle.asn1.ocsp.OCSPObjectIdentifiers;
+import org.bouncycastle.asn1.x509.Extension;
+import org.bouncycastle.asn1.x509.Extensions;
+import org.bouncycastle.cert.X509CertificateHolder;
+import org.bouncycastle.cert.jcajce.JcaX509CertificateHolder;
+import org.bouncycastle.cert.ocsp.CertificateID;
+import org.bouncycastle.cert.ocsp.OCSPReqBuilder;
+import org.bouncycastle.operator.DigestCalculator;
+import org.bouncycastle.operator.jcajce.JcaDigestCalculatorProviderBuilder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link NativeOcspResponder#respond} without the HTTP server: a single CertID answered from the cache
+ * ({@code cached}), a single CertID with a nonce ({@code nonce}) and ten CertIDs in one request ({@code multiple}),
+ * the last two signed on every call.
+ * <p>
+ * The responder signs in the JVM whatever the engine, so only on the jvm one.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class OcspBenchmark extends SimpleCAState {
+    private static final int CERTS = 10;
+
+    // hides the param of SimpleCAState
+    @Param({"jvm"})
+    public String signingEngine;
+
+    @Param({"cached", "nonce", "multiple"})
+    public String request;
+
+    NativeOcspResponder responder;
+    byte[] encodedRequest;
+
+    @Override
+    protected String signingEngine() {
+        return signingEngine;
+    }
+
+    @Override
+    protected void setup() throws Exception {
+        responder = context.getBean(NativeOcspResponder.class);
+        CAPaths caPaths = context.getBean(CAPaths.class);
+        X509CertificateHolder issuer = new JcaX509CertificateHolder(
+                PemFiles.readCertificate(caPaths.getWorkingDirectory(issuingCA).resolve(issuingCA.name + ".crt")));
+        DigestCalculator sha1 = new JcaDigestCalculatorProviderBuilder().build().get(CertificateID.HASH_SHA1);
+        OCSPReqBuilder builder = new OCSPReqBuilder();
+        for (int i = 0; i < (request.equals("multiple") ? CERTS : 1); i++) {
+            Cert cert = newCert("ocsp" + i);
+            cert.keyAlgorithm = KeyAlgorithm.EC_P256;
+            certCABuilder.buildCert(issuingCA, cert);
+            Path certPath = caPaths.getWorkingDirectory(cert).resolve(cert.name + ".crt");
+            builder.addRequest(new CertificateID(sha1, issuer, PemFiles.readCertificate(certPath).getSerialNumber()));
+        }
+        if (request.equals("nonce")) {
+            // the same nonce every time, it's only echoed back
+            Extension nonce = new Extension(OCSPObjectIdentifiers.id_pkix_ocsp_nonce, false, new DEROctetString(new byte[16]));
+            builder.setRequestExtensions(new Extensions(nonce));
+        }
+        encodedRequest = builder.build().getEncoded();
+        // the cached response is signed on the first call
+        responder.respond(encodedRequest);
+    }
+
+    @Benchmark
+    public byte[] respond() {
+        return responder.respond(encodedRequest);
+    }
+}
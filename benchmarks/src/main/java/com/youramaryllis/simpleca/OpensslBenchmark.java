@@ -0,0 +1,61 @@
+package com.youramaryllis.simpleca;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Short openssl commands, where the fork, exec and config loading of the process is most of the time,
+ * with a process per command ({@code processes=0}) or the interactive processes of {@link OpensslProcessPool}.
+ * <p>
+ * Always on the openssl engine. With OpenSSL 3.x, which has no interactive mode, both fork.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class OpensslBenchmark extends SimpleCAState {
+    // hides the param of SimpleCAState
+    @Param({"openssl"})
+    public String signingEngine;
+
+    @Param({"0", "1"})
+    public int processes;
+
+    Cert cert;
+
+    @Override
+    protected String signingEngine() {
+        return signingEngine;
+    }
+
+    @Override
+    protected List<String> arguments() {
+        return List.of("--simpleca.opensslPool.processesPerDirectory=" + processes);
+    }
+
+    @Override
+    protected void setup() {
+        cert = newCert("verified");
+        certCABuilder.buildCert(issuingCA, cert);
+    }
+
+    @Benchmark
+    public void verifyCert() {
+        certAuthority.verifyCert(issuingCA, cert);
+    }
+
+    @Benchmark
+    public boolean generateCrl() {
+        return certAuthority.generateCrl(issuingCA, true);
+    }
+}
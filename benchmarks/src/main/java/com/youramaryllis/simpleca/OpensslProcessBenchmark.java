@@ -0,0 +1,77 @@
+package com.youramaryllis.simpleca;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.util.FileSystemUtils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * What {@link OpensslProcessPool} saves on a command: {@code openssl version} forked ({@code fork}), which is the
+ * startup of an openssl process, against the round trip of a command to a pooled process ({@code pooled}).
+ * <p>
+ * OpenSSL 3.x has no interactive mode, the pooled process is a shell stub answering with the {@code OpenSSL>}
+ * prompt, so only the cost of the pool itself is measured; the command runs the same either way.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class OpensslProcessBenchmark {
+    private static final String STUB = "#!/bin/sh\n"
+            + "printf 'OpenSSL> '\n"
+            + "while read -r line; do echo \"$line\"; printf 'OpenSSL> '; done\n";
+
+    @Param({"fork", "pooled"})
+    public String mode;
+
+    Path directory;
+    String stub;
+    OpensslProcessPool pool = new OpensslProcessPool();
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        directory = Files.createTempDirectory("simpleca-bench");
+        Path stubFile = directory.resolve("openssl");
+        Files.writeString(stubFile, STUB);
+        stubFile.toFile().setExecutable(true);
+        stub = stubFile.toString();
+        pool.configuration = new SimpleCertAuthConfiguration();
+        pool.configuration.opensslPool.processesPerDirectory = 1;
+        pool.isEnabled(stub);
+    }
+
+    @Benchmark
+    public int version() throws Exception {
+        if (mode.equals("pooled")) return pool.execute(stub, directory, List.of("version"), new ByteArrayOutputStream());
+        Process process = new ProcessBuilder("openssl", "version").redirectErrorStream(true).start();
+        try (InputStream output = process.getInputStream()) {
+            output.readAllBytes();
+        }
+        return process.waitFor();
+    }
+
+    @TearDown(Level.Trial)
+    public void shutdown() throws Exception {
+        pool.shutdown();
+        FileSystemUtils.deleteRecursively(directory);
+    }
+}
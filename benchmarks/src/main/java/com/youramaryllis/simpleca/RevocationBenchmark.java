@@ -0,0 +1,78 @@
+package com.youramaryllis.simpleca;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Revoking a batch of certs the way {@code POST /api/cert/{signingCaName}/revoke} does, alone and followed
+ * by the delta CRL generation.
+ * <p>
+ * A revoked cert can't be revoked again, each iteration is {@link #CALLS} calls on certs issued (with EC keys,
+ * quick to generate) before it, the score is the time of the {@link #CALLS} calls. The delta CRL is generated
+ * in the benchmark thread, the background publication is pushed out of the iteration.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, batchSize = RevocationBenchmark.CALLS)
+@Measurement(iterations = 5, batchSize = RevocationBenchmark.CALLS)
+@Fork(1)
+public class RevocationBenchmark extends SimpleCAState {
+    static final int CALLS = 10;
+
+    // certs per call
+    @Param({"1", "100"})
+    public int batch;
+
+    private final Deque<Cert> issued = new ArrayDeque<>();
+    private int certCount;
+
+    @Override
+    protected List<String> arguments() {
+        return List.of("--simpleca.crl.publishDelaySeconds=3600", "--simpleca.crl.maxStalenessSeconds=3600");
+    }
+
+    @Setup(Level.Iteration)
+    public void issueCerts() {
+        issued.clear();
+        for (int i = 0; i < CALLS * batch; i++) {
+            Cert cert = newCert("revoked" + ++certCount);
+            cert.keyAlgorithm = KeyAlgorithm.EC_P256;
+            certCABuilder.buildCert(issuingCA, cert);
+            database.addCert(issuingCA, cert);
+            issued.add(cert);
+        }
+        database.flush();
+    }
+
+    @Benchmark
+    public void revokeCerts() {
+        revoke();
+    }
+
+    @Benchmark
+    public void revokeCertsAndGenerateDeltaCrl() {
+        revoke();
+        certAuthority.generateDeltaCrl(issuingCA);
+    }
+
+    private void revoke() {
+        List<Cert> certs = new ArrayList<>(batch);
+        for (int i = 0; i < batch; i++) certs.add(issued.remove());
+        certs.forEach(cert -> database.revokeCert(issuingCA, cert));
+        certCABuilder.revokeCerts(issuingCA, certs);
+    }
+}
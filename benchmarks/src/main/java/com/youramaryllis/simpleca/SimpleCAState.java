@@ -0,0 +1,97 @@
+package com.youramaryllis.simpleca;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.util.FileSystemUtils;
+
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The CA server started on a scratch directory once per trial, with the root CA and the {@code bench} CA
+ * of {@code benchmark.yaml}; the benchmarks call its beans directly.
+ */
+@State(Scope.Benchmark)
+public abstract class SimpleCAState {
+    static final String ISSUING_CA = "bench";
+
+    // jvm or openssl
+    @Param({"jvm", "openssl"})
+    public String signingEngine;
+
+    Path directory;
+    ConfigurableApplicationContext context;
+    CertAuthDatabase database;
+    CertCABuilder certCABuilder;
+    CertAuthority certAuthority;
+    CA issuingCA;
+
+    @Setup(Level.Trial)
+    public void startServer() throws Exception {
+        directory = Files.createTempDirectory("simpleca-bench");
+        Path databaseFile = directory.resolve("simpleca.yaml");
+        try (InputStream benchmarkYaml = SimpleCAState.class.getResourceAsStream("/benchmark.yaml")) {
+            Files.copy(benchmarkYaml, databaseFile);
+        }
+        context = run(directory, databaseFile, signingEngine(), arguments());
+        database = context.getBean(CertAuthDatabase.class);
+        certCABuilder = context.getBean(CertCABuilder.class);
+        certAuthority = context.getBean(CertAuthority.class);
+        issuingCA = database.getCA(ISSUING_CA);
+        setup();
+    }
+
+    // the server on the database file, its CA under directory/ca
+    static ConfigurableApplicationContext run(Path directory, Path databaseFile, String signingEngine, List<String> arguments) {
+        List<String> args = new ArrayList<>(List.of(
+                "--spring.config.location=classpath:/application.yaml," + databaseFile,
+                "--simpleca.caPath=" + directory.resolve("ca"),
+                "--simpleca.signingEngine=" + signingEngine,
+                "--simpleca.ocspPort=0",
+                "--logging.level.root=WARN"));
+        args.addAll(arguments);
+        return new SpringApplicationBuilder(SimpleCertAuthApplication.class)
+                .web(WebApplicationType.NONE)
+                .run(args.toArray(String[]::new));
+    }
+
+    // the signingEngine param, unless the benchmark is about one engine
+    protected String signingEngine() {
+        return signingEngine;
+    }
+
+    // more properties of the server, e.g. --simpleca.opensslPool.processesPerDirectory=1
+    protected List<String> arguments() {
+        return List.of();
+    }
+
+    // state of the benchmark, once the server is up
+    protected void setup() throws Exception {
+    }
+
+    @TearDown(Level.Trial)
+    public void stopServer() throws Exception {
+        context.close();
+        FileSystemUtils.deleteRecursively(directory);
+    }
+
+    Cert newCert(String name) {
+        Cert cert = new Cert();
+        cert.name = name;
+        cert.keySize = 2048;
+        cert.subject = "/C=US/ST=California/L=San Francisco/O=Youramaryllis/CN=" + name;
+        cert.relativePath = "certs/" + name;
+        cert.signingCA = issuingCA;
+        return cert;
+    }
+}
@@ -0,0 +1,109 @@
+package com.youramaryllis.simpleca;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.util.FileSystemUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Restart of the server on a CA hierarchy built beforehand, with the {@code bench} CA having as many certs in its
+ * config: skipped by their fingerprints ({@code kept}), or checked and rebuilt as before them ({@code deleted}).
+ * <p>
+ * Each start is timed up to the context being ready, it's closed outside the measurement. The startup line
+ * of {@link CertCABuilder} is logged, for the time of the build itself.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 10)
+@Fork(1)
+public class StartupBenchmark {
+    // jvm or openssl
+    @Param({"jvm", "openssl"})
+    public String signingEngine;
+
+    @Param({"10", "100"})
+    public int certs;
+
+    // kept or deleted before each start
+    @Param({"kept", "deleted"})
+    public String fingerprints;
+
+    Path directory;
+    Path databaseFile;
+    ConfigurableApplicationContext context;
+
+    @Setup(Level.Trial)
+    public void buildCA() throws Exception {
+        directory = Files.createTempDirectory("simpleca-bench");
+        databaseFile = directory.resolve("simpleca.yaml");
+        StringBuilder database = new StringBuilder();
+        try (InputStream benchmarkYaml = StartupBenchmark.class.getResourceAsStream("/benchmark.yaml")) {
+            database.append(new String(benchmarkYaml.readAllBytes(), StandardCharsets.UTF_8));
+        }
+        // under the bench CA, the last one of benchmark.yaml
+        database.append("      certs:\n");
+        for (int i = 0; i < certs; i++) {
+            database.append("      - name: \"cert").append(i).append("\"\n")
+                    .append("        keySize: 2048\n")
+                    .append("        subject: \"/C=US/ST=California/L=San Francisco/O=Youramaryllis/CN=cert").append(i).append("\"\n")
+                    .append("        password: \"changeit\"\n")
+                    .append("        relativePath: \"certs/cert").append(i).append("\"\n");
+        }
+        Files.writeString(databaseFile, database);
+        // the first start creates everything
+        run().close();
+    }
+
+    @Setup(Level.Invocation)
+    public void prepareStart() throws IOException {
+        if (fingerprints.equals("kept")) return;
+        List<Path> fingerprintFiles;
+        try (Stream<Path> files = Files.walk(directory.resolve("ca"))) {
+            fingerprintFiles = files.filter(file -> file.getFileName().toString().endsWith(".fingerprint")).collect(Collectors.toList());
+        }
+        for (Path fingerprintFile : fingerprintFiles) Files.delete(fingerprintFile);
+    }
+
+    @Benchmark
+    public void start() {
+        context = run();
+    }
+
+    @TearDown(Level.Invocation)
+    public void stop() {
+        context.close();
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteCA() throws Exception {
+        FileSystemUtils.deleteRecursively(directory);
+    }
+
+    private ConfigurableApplicationContext run() {
+        return SimpleCAState.run(directory, databaseFile, signingEngine,
+                List.of("--logging.level.com.youramaryllis.simpleca.CertCABuilder=INFO"));
+    }
+}
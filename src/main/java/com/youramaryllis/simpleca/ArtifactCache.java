@@ -0,0 +1,106 @@
+package com.youramaryllis.simpleca;
+
+import lombok.AllArgsConstructor;
+import lombok.SneakyThrows;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.io.ByteArrayInputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509CRL;
+import java.time.Instant;
+import java.util.Base64;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Content of the CRL and cert files served by {@link CAController}, so a poll doesn't touch the disk.
+ * <p>
+ * A file is read once with its ETag (sha-256 of the content) and, for CRLs, its nextUpdate, into a read-only direct
+ * buffer that responses wrap without copying. {@link CertAuthority} invalidates the files of a CA whenever it
+ * regenerates its cert or full CRL, only the delta CRL files when it publishes one.
+ */
+@Component
+@Slf4j
+public class ArtifactCache {
+    @Autowired
+    CAPaths caPaths;
+
+    private final Map<Path, Artifact> artifacts = new ConcurrentHashMap<>();
+    private final AtomicLong generation = new AtomicLong();
+
+    public Optional<Artifact> getIfCached(Path path) {
+        return Optional.ofNullable(artifacts.get(path));
+    }
+
+    // reads the file if it isn't cached yet, empty if it doesn't exist
+    public Optional<Artifact> get(Path path) {
+        Artifact artifact = artifacts.get(path);
+        if (artifact != null) return Optional.of(artifact);
+        // a file read while it was being regenerated is served once but not cached
+        long loadGeneration = generation.get();
+        artifact = load(path);
+        if (artifact != null) {
+            synchronized (this) {
+                if (generation.get() == loadGeneration) artifacts.putIfAbsent(path, artifact);
+            }
+        }
+        return Optional.ofNullable(artifact);
+    }
+
+    public synchronized void invalidate(CertCA certCA) {
+        Path workingDirectory = caPaths.getWorkingDirectory(certCA);
+        generation.incrementAndGet();
+        artifacts.keySet().removeIf(path -> path.startsWith(workingDirectory));
+    }
+
+    public synchronized void invalidate(CertCA certCA, String... fileNames) {
+        Path workingDirectory = caPaths.getWorkingDirectory(certCA);
+        generation.incrementAndGet();
+        for (String fileName : fileNames) artifacts.remove(workingDirectory.resolve(fileName));
+    }
+
+    public int size() {
+        return artifacts.size();
+    }
+
+    @SneakyThrows
+    private Artifact load(Path path) {
+        if (Files.notExists(path)) return null;
+        Instant lastModified = Files.getLastModifiedTime(path).toInstant();
+        byte[] content = Files.readAllBytes(path);
+        String etag = "\"" + Base64.getUrlEncoder().withoutPadding().encodeToString(MessageDigest.getInstance("SHA-256").digest(content)) + "\"";
+        Instant nextUpdate = null;
+        if (path.getFileName().toString().endsWith(".crl")) {
+            X509CRL crl = (X509CRL) CertificateFactory.getInstance("X.509").generateCRL(new ByteArrayInputStream(content));
+            if (crl.getNextUpdate() != null) nextUpdate = crl.getNextUpdate().toInstant();
+        }
+        log.info("{} loaded into the artifact cache", path);
+        ByteBuffer buffer = ByteBuffer.allocateDirect(content.length).put(content).flip().asReadOnlyBuffer();
+        return new Artifact(buffer, etag, lastModified, nextUpdate);
+    }
+
+    @AllArgsConstructor
+    static class Artifact {
+        // read-only, served through duplicates
+        final ByteBuffer content;
+        final String etag;
+        final Instant lastModified;
+        // only for CRLs
+        final Instant nextUpdate;
+
+        // a heap copy of the content
+        byte[] getBytes() {
+            byte[] bytes = new byte[content.remaining()];
+            content.duplicate().get(bytes);
+            return bytes;
+        }
+    }
+}
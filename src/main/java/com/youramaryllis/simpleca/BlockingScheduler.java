@@ -0,0 +1,95 @@
+package com.youramaryllis.simpleca;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Bounded pool for the blocking work (process execution, file I/O, signing) behind the reactive endpoints,
+ * so none of it runs on the netty event loop.
+ * <p>
+ * At most {@code simpleca.blocking.threads} tasks run and {@code simpleca.blocking.queueSize} wait,
+ * anything beyond that is rejected with a {@link java.util.concurrent.RejectedExecutionException},
+ * which the controllers turn into a 503.
+ */
+@Component
+@Slf4j
+public class BlockingScheduler {
+    @Autowired
+    SimpleCertAuthConfiguration configuration;
+
+    private ThreadPoolExecutor executor;
+    private Scheduler scheduler;
+
+    @PostConstruct
+    public void setup() {
+        Blocking blocking = configuration.blocking;
+        int threads = Math.max(1, blocking.threads);
+        executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(Math.max(1, blocking.queueSize)),
+                threadFactory(blocking.virtualThreads),
+                new ThreadPoolExecutor.AbortPolicy());
+        executor.allowCoreThreadTimeOut(true);
+        scheduler = Schedulers.fromExecutorService(executor, "blocking");
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        scheduler.dispose();
+        executor.shutdownNow();
+    }
+
+    public Scheduler getScheduler() {
+        return scheduler;
+    }
+
+    public <T> Mono<T> call(Callable<T> callable) {
+        return Mono.fromCallable(callable).subscribeOn(scheduler);
+    }
+
+    public Mono<Void> run(Runnable runnable) {
+        return Mono.<Void>fromRunnable(runnable).subscribeOn(scheduler);
+    }
+
+    public int getQueueDepth() {
+        return executor.getQueue().size();
+    }
+
+    public int getActiveCount() {
+        return executor.getActiveCount();
+    }
+
+    // virtual threads only exist from java 21, fall back to platform threads on older runtimes
+    private ThreadFactory threadFactory(boolean virtualThreads) {
+        if (virtualThreads) {
+            try {
+                Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+                Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+                builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, "blocking-", 1L);
+                ThreadFactory threadFactory = (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+                log.info("blocking work runs on virtual threads");
+                return threadFactory;
+            } catch (ReflectiveOperationException | RuntimeException e) {
+                log.info("virtual threads are not available, using platform threads");
+            }
+        }
+        AtomicInteger threadCount = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, "blocking-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
@@ -0,0 +1,157 @@
+package com.youramaryllis.simpleca;
+
+import lombok.SneakyThrows;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.io.ResourceLoader;
+import org.springframework.stereotype.Component;
+
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Fingerprint of what a CA or cert was last built from, so {@link CertCABuilder} can skip it on restart.
+ * <p>
+ * The fingerprint hashes the config fields, the fingerprint of the signing CA and the content of the artifacts
+ * built from them; it's kept in {@code <name>.fingerprint} next to them. Files the CA keeps updating while
+ * running (certindex, CRLs) only count by their existence.
+ */
+@Component
+@Slf4j
+public class BuildFingerprints {
+    @Autowired
+    CAPaths caPaths;
+    @Autowired
+    ResourceLoader resourceLoader;
+    @Autowired
+    SimpleCertAuthConfiguration configuration;
+
+    // fingerprints of the CA built (or skipped) in this run, their certs and sub-CA depend on them
+    private final Map<String, String> caFingerprints = new ConcurrentHashMap<>();
+    private final Map<String, byte[]> templates = new ConcurrentHashMap<>();
+
+    public boolean isUnchanged(CA ca) {
+        String fingerprint = fingerprint(ca);
+        if (!fingerprint.equals(readFingerprint(ca, ca.name))) return false;
+        caFingerprints.put(ca.name, fingerprint);
+        return true;
+    }
+
+    public boolean isUnchanged(Cert cert) {
+        return fingerprint(cert).equals(readFingerprint(cert, cert.name));
+    }
+
+    public void record(CA ca) {
+        String fingerprint = fingerprint(ca);
+        caFingerprints.put(ca.name, fingerprint);
+        writeFingerprint(ca, ca.name, fingerprint);
+    }
+
+    public void record(Cert cert) {
+        writeFingerprint(cert, cert.name, fingerprint(cert));
+    }
+
+    private String fingerprint(CA ca) {
+        Fingerprint fingerprint = new Fingerprint();
+        fingerprint.add("parent", (ca.signingCA == null) ? "" : caFingerprints.getOrDefault(ca.signingCA.name, "?"));
+        fingerprint.add("keySize", ca.keySize);
+        fingerprint.add("keyAlgorithm", KeyAlgorithm.of(ca));
+        fingerprint.add("days", ca.days);
+        fingerprint.add("subject", ca.subject);
+        fingerprint.add("password", ca.password);
+        fingerprint.add("engine", configuration.signingEngine);
+        fingerprint.add("config", new TreeMap<>(ca.toCAConfigMap()));
+        fingerprint.addBytes("template", getTemplate(ca));
+        Path workingDirectory = caPaths.getWorkingDirectory(ca);
+        for (String file : List.of(ca.name + ".key", ca.name + ".crt", "ca.conf", "certs/chain.crt",
+                ca.name + "-ocsp-signer.key", ca.name + "-ocsp-signer.crt")) {
+            fingerprint.addFile(workingDirectory.resolve(file));
+        }
+        if (ca.signingCA == null) fingerprint.addFile(workingDirectory.resolve("certs/truststore.p12"));
+        for (String file : List.of("certindex", "certserial", "crlnumber", ca.name + ".crl.pem", "certs/crl-chain.crt")) {
+            fingerprint.add(file, Files.exists(workingDirectory.resolve(file)));
+        }
+        return fingerprint.toString();
+    }
+
+    private String fingerprint(Cert cert) {
+        Fingerprint fingerprint = new Fingerprint();
+        fingerprint.add("ca", caFingerprints.getOrDefault(cert.signingCA.name, "?"));
+        fingerprint.add("keySize", cert.keySize);
+        fingerprint.add("keyAlgorithm", KeyAlgorithm.of(cert));
+        fingerprint.add("subject", cert.subject);
+        fingerprint.add("password", cert.password);
+        fingerprint.add("revoked", cert.revoked);
+        fingerprint.add("path", cert.relativePath);
+        Path workingDirectory = caPaths.getWorkingDirectory(cert);
+        for (String file : List.of(cert.name + ".key", cert.name + ".crt", "chain.crt")) {
+            fingerprint.addFile(workingDirectory.resolve(file));
+        }
+        return fingerprint.toString();
+    }
+
+    @SneakyThrows
+    private byte[] getTemplate(CA ca) {
+        String template = (ca.signingCA == null) ? "classpath:templates/rootca.conf.tpl" : "classpath:templates/intermediateca.conf.tpl";
+        byte[] content = templates.get(template);
+        if (content == null) {
+            content = resourceLoader.getResource(template).getInputStream().readAllBytes();
+            templates.put(template, content);
+        }
+        return content;
+    }
+
+    @SneakyThrows
+    private String readFingerprint(CertCA certCA, String name) {
+        Path file = caPaths.getWorkingDirectory(certCA).resolve(name + ".fingerprint");
+        return Files.exists(file) ? Files.readString(file).trim() : null;
+    }
+
+    @SneakyThrows
+    private void writeFingerprint(CertCA certCA, String name, String fingerprint) {
+        Path file = caPaths.getWorkingDirectory(certCA).resolve(name + ".fingerprint");
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        Files.writeString(temp, fingerprint);
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static class Fingerprint {
+        private final MessageDigest digest;
+
+        @SneakyThrows
+        Fingerprint() {
+            digest = MessageDigest.getInstance("SHA-256");
+        }
+
+        void add(String name, Object value) {
+            addBytes(name, String.valueOf(value).getBytes(StandardCharsets.UTF_8));
+        }
+
+        void addBytes(String name, byte[] value) {
+            digest.update(name.getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            digest.update(Integer.toString(value.length).getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            digest.update(value);
+        }
+
+        @SneakyThrows
+        void addFile(Path file) {
+            addBytes(file.getFileName().toString(), Files.exists(file) ? Files.readAllBytes(file) : new byte[0]);
+            digest.update((byte) (Files.exists(file) ? 1 : 0));
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%064x", new BigInteger(1, digest.digest()));
+        }
+    }
+}
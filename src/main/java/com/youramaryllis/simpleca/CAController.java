@@ -1,10 +1,12 @@
 package com.youramaryllis.simpleca;
 
-import lombok.SneakyThrows;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.core.io.InputStreamResource;
-import org.springframework.core.io.Resource;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.http.CacheControl;
 import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRange;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
@@ -12,33 +14,130 @@ import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.ResponseBody;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ServerWebExchange;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
-import java.nio.file.Files;
+import java.nio.ByteBuffer;
 import java.nio.file.Path;
-import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
 
+/**
+ * Serves the cert and CRL files of the CA from the {@link ArtifactCache}.
+ * <p>
+ * The body wraps the cached direct buffer, it isn't copied per request. The response has an ETag and Last-Modified,
+ * a conditional request gets a 304 and a single byte range a 206, other Range requests get the whole file.
+ */
 @RestController
 @RequestMapping("/ca")
 public class CAController {
+    private static final Duration CERT_MAX_AGE = Duration.ofDays(1);
+
     @Autowired
     SimpleCertAuthConfiguration configuration;
+    @Autowired
+    CAPaths caPaths;
+    @Autowired
+    ArtifactCache artifactCache;
+    @Autowired
+    BlockingScheduler blockingScheduler;
+    @Autowired
+    CAMetrics caMetrics;
 
-    @SneakyThrows
     @GetMapping(value = "/{caName}/{fileName}")
     @ResponseBody
-    public ResponseEntity<Mono<Resource>> getCrl(@PathVariable String caName, @PathVariable String fileName) {
-        if( !fileName.endsWith(".crt") && !fileName.endsWith(".crl"))
-            return ResponseEntity.notFound().build();
-        Path file = Paths.get(configuration.caPath).resolve(caName).resolve(fileName);
-        if (Files.notExists(file))
-            return ResponseEntity.notFound().build();
-        return ResponseEntity.ok()
+    public Mono<ResponseEntity<Flux<DataBuffer>>> getCrl(@PathVariable String caName, @PathVariable String fileName, ServerWebExchange exchange) {
+        if (!fileName.endsWith(".crt") && !fileName.endsWith(".crl"))
+            return Mono.just(notFound(fileName));
+        Path file = caPaths.getBasePath().resolve(caName).resolve(fileName).normalize();
+        if (!file.startsWith(caPaths.getBasePath()))
+            return Mono.just(notFound(fileName));
+        // only the first request after a regeneration reads the file, off the event loop
+        Optional<ArtifactCache.Artifact> cached = artifactCache.getIfCached(file);
+        Mono<Optional<ArtifactCache.Artifact>> artifact = cached.isPresent() ?
+                Mono.just(cached) :
+                blockingScheduler.call(() -> artifactCache.get(file));
+        return artifact.map(a -> a.map(found -> toResponse(fileName, found, exchange)).orElseGet(() -> notFound(fileName)));
+    }
+
+    private ResponseEntity<Flux<DataBuffer>> notFound(String fileName) {
+        caMetrics.download(getFileType(fileName), 404);
+        return ResponseEntity.notFound().build();
+    }
+
+    private ResponseEntity<Flux<DataBuffer>> toResponse(String fileName, ArtifactCache.Artifact artifact, ServerWebExchange exchange) {
+        String fileType = getFileType(fileName);
+        if (exchange.checkNotModified(artifact.etag, artifact.lastModified)) {
+            caMetrics.download(fileType, 304);
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED)
+                    .eTag(artifact.etag)
+                    .lastModified(artifact.lastModified)
+                    .cacheControl(getCacheControl(fileName, artifact))
+                    .build();
+        }
+        ByteBuffer content = artifact.content.duplicate();
+        int length = content.remaining();
+        HttpStatus status = HttpStatus.OK;
+        HttpHeaders headers = new HttpHeaders();
+        List<HttpRange> ranges = getRanges(exchange);
+        if (ranges.size() == 1) {
+            HttpRange range = ranges.get(0);
+            long start = range.getRangeStart(length);
+            long end = range.getRangeEnd(length);
+            if (length == 0 || start >= length) {
+                caMetrics.download(fileType, 416);
+                return ResponseEntity.status(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE)
+                        .header(HttpHeaders.CONTENT_RANGE, "bytes */" + length)
+                        .build();
+            }
+            content.position((int) start).limit((int) end + 1);
+            headers.set(HttpHeaders.CONTENT_RANGE, "bytes " + start + "-" + end + "/" + length);
+            status = HttpStatus.PARTIAL_CONTENT;
+        }
+        caMetrics.download(fileType, status.value());
+        DataBufferFactory bufferFactory = exchange.getResponse().bufferFactory();
+        return ResponseEntity.status(status)
+                .headers(headers)
                 .contentType(MediaType.APPLICATION_OCTET_STREAM)
+                .contentLength(content.remaining())
+                .header(HttpHeaders.ACCEPT_RANGES, "bytes")
                 .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + fileName + "\"")
-                .body(
-                        Mono.just(new InputStreamResource(Files.newInputStream(file)))
-                );
+                .eTag(artifact.etag)
+                .lastModified(artifact.lastModified)
+                .cacheControl(getCacheControl(fileName, artifact))
+                .body(Flux.defer(() -> Flux.just(bufferFactory.wrap(content.duplicate()))));
+    }
+
+    // a malformed Range is ignored, as RFC 7233 allows
+    private static List<HttpRange> getRanges(ServerWebExchange exchange) {
+        try {
+            return exchange.getRequest().getHeaders().getRange();
+        } catch (IllegalArgumentException e) {
+            return List.of();
+        }
     }
 
+    private static String getFileType(String fileName) {
+        if (fileName.endsWith("-delta.crl")) return "delta-crl";
+        if (fileName.endsWith(".crl")) return "crl";
+        if (fileName.endsWith(".crt")) return "crt";
+        return "other";
+    }
+
+    /*
+     * a delta CRL changes with every revocation, it's always revalidated;
+     * the full CRL is regenerated every crl.fullIntervalMinutes (or earlier at its nextUpdate);
+     * CA certs hardly ever change
+     */
+    private CacheControl getCacheControl(String fileName, ArtifactCache.Artifact artifact) {
+        if (fileName.endsWith("-delta.crl")) return CacheControl.noCache().cachePublic();
+        if (artifact.nextUpdate == null) return CacheControl.maxAge(CERT_MAX_AGE).cachePublic();
+        long untilNextUpdate = Math.max(0, Duration.between(Instant.now(), artifact.nextUpdate).getSeconds());
+        long maxAge = Math.min(untilNextUpdate, TimeUnit.MINUTES.toSeconds(Math.max(0, configuration.crl.fullIntervalMinutes)));
+        return CacheControl.maxAge(Duration.ofSeconds(maxAge)).cachePublic().mustRevalidate();
+    }
 }
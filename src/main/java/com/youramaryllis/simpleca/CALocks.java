@@ -0,0 +1,81 @@
+package com.youramaryllis.simpleca;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+/**
+ * Striped locks serializing the work on one CA.
+ * <p>
+ * Everything touching the openssl database of a CA (certindex, certserial, crlnumber, crl)
+ * or its cert/CA lists runs under the lock of that CA, so different CAs can sign in parallel
+ * while two {@code openssl ca} runs never overlap on the same index.
+ * Only one CA lock may be held at a time, locks of different CAs are never nested.
+ * <p>
+ * The outermost lock of a CA also takes its lease in the {@link StateStore}, so nodes sharing the CA directory
+ * don't sign under the same CA at the same time; what this node cached about a CA modified by another node is reloaded.
+ */
+@Component
+@Slf4j
+public class CALocks {
+    @Autowired
+    SimpleCertAuthConfiguration configuration;
+    @Autowired
+    StateStore stateStore;
+    @Autowired
+    RevocationIndex revocationIndex;
+    @Autowired
+    OcspResponseCache ocspResponseCache;
+    @Autowired
+    ArtifactCache artifactCache;
+
+    private ReentrantLock[] stripes;
+
+    @PostConstruct
+    public void setup() {
+        stripes = new ReentrantLock[Math.max(1, configuration.lockStripes)];
+        for (int i = 0; i < stripes.length; i++) stripes[i] = new ReentrantLock();
+    }
+
+    public void withLock(CA ca, Runnable runnable) {
+        withLock(ca, () -> {
+            runnable.run();
+            return null;
+        });
+    }
+
+    public <T> T withLock(CA ca, Supplier<T> supplier) {
+        ReentrantLock lock = getLock(ca);
+        lock.lock();
+        StateStore.Lease lease = null;
+        try {
+            if (lock.getHoldCount() == 1) {
+                lease = stateStore.lease(ca.name);
+                if (lease.isModifiedElsewhere()) reload(ca);
+            }
+            return supplier.get();
+        } finally {
+            try {
+                // throws if the lease was lost meanwhile, the work done under it fails
+                if (lease != null) lease.close();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private void reload(CA ca) {
+        log.info("{} was modified by another node, reloading it", ca.name);
+        revocationIndex.reload(ca);
+        ocspResponseCache.invalidate(ca);
+        artifactCache.invalidate(ca);
+    }
+
+    ReentrantLock getLock(CA ca) {
+        return stripes[Math.floorMod(ca.name.hashCode(), stripes.length)];
+    }
+}
@@ -0,0 +1,80 @@
+package com.youramaryllis.simpleca;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.function.ToDoubleFunction;
+
+/**
+ * Gauges of the queues, pools and caches, read when the registry is scraped.
+ */
+@Component
+public class CAMeterBinder implements MeterBinder {
+    @Autowired
+    SimpleCertAuthConfiguration configuration;
+    @Autowired
+    BlockingScheduler blockingScheduler;
+    @Autowired
+    KeyPairPool keyPairPool;
+    @Autowired
+    SigningKeyCache signingKeyCache;
+    @Autowired
+    OcspResponseCache ocspResponseCache;
+    @Autowired
+    ArtifactCache artifactCache;
+    @Autowired
+    DatabaseJournal journal;
+    @Autowired
+    CertInventory certInventory;
+    @Autowired
+    OpensslProcessPool opensslProcessPool;
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("simpleca.blocking.queued", blockingScheduler, BlockingScheduler::getQueueDepth)
+                .description("tasks waiting for a blocking thread").register(registry);
+        Gauge.builder("simpleca.blocking.active", blockingScheduler, BlockingScheduler::getActiveCount)
+                .description("blocking threads running a task").register(registry);
+
+        for (int keySize : configuration.keyPool.keySizes) {
+            bindKeyPoolDepth(registry, KeyAlgorithm.RSA, keySize);
+        }
+        for (KeyAlgorithm keyAlgorithm : configuration.keyPool.keyAlgorithms) {
+            bindKeyPoolDepth(registry, keyAlgorithm, 0);
+        }
+        FunctionCounter.builder("simpleca.keypool.requests", keyPairPool, KeyPairPool::getHits)
+                .tag("result", "hit").register(registry);
+        FunctionCounter.builder("simpleca.keypool.requests", keyPairPool, KeyPairPool::getMisses)
+                .tag("result", "miss").register(registry);
+        FunctionCounter.builder("simpleca.keypool.generated", keyPairPool, KeyPairPool::getGenerated)
+                .register(registry);
+
+        bindCache(registry, "signing-key", signingKeyCache, SigningKeyCache::size, SigningKeyCache::getHits, SigningKeyCache::getMisses);
+        bindCache(registry, "ocsp-response", ocspResponseCache, OcspResponseCache::size, OcspResponseCache::getHits, OcspResponseCache::getMisses);
+        Gauge.builder("simpleca.cache.size", artifactCache, ArtifactCache::size)
+                .tag("cache", "artifact").register(registry);
+
+        Gauge.builder("simpleca.journal.records", journal, DatabaseJournal::getRecordsSinceSnapshot)
+                .description("journal records since the last snapshot of the db file").register(registry);
+        Gauge.builder("simpleca.certs", certInventory, CertInventory::size).register(registry);
+        Gauge.builder("simpleca.openssl.processes", opensslProcessPool, OpensslProcessPool::getProcessCount)
+                .description("interactive openssl processes running").register(registry);
+    }
+
+    private void bindKeyPoolDepth(MeterRegistry registry, KeyAlgorithm keyAlgorithm, int keySize) {
+        Gauge.builder("simpleca.keypool.depth", keyPairPool, pool -> pool.getDepth(keyAlgorithm, keySize))
+                .tag("keyAlgorithm", keyAlgorithm.name())
+                .tag("keySize", Integer.toString(keyAlgorithm.getKeySize(keySize))).register(registry);
+    }
+
+    private static <T> void bindCache(MeterRegistry registry, String name, T cache,
+                                      ToDoubleFunction<T> size, ToDoubleFunction<T> hits, ToDoubleFunction<T> misses) {
+        Gauge.builder("simpleca.cache.size", cache, size).tag("cache", name).register(registry);
+        FunctionCounter.builder("simpleca.cache.requests", cache, hits).tag("cache", name).tag("result", "hit").register(registry);
+        FunctionCounter.builder("simpleca.cache.requests", cache, misses).tag("cache", name).tag("result", "miss").register(registry);
+    }
+}
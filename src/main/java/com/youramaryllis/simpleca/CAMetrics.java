@@ -0,0 +1,91 @@
+package com.youramaryllis.simpleca;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.SneakyThrows;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+/**
+ * Timers and counters of the CA operations, exposed on {@code /actuator/prometheus}.
+ * <p>
+ * Operations are tagged with the CA they run on (the signing CA for a cert, so the number of series
+ * doesn't grow with the certs) and their outcome; openssl/keytool processes with their command.
+ */
+@Component
+public class CAMetrics {
+    static final String OPERATION = "simpleca.operation";
+    static final String PROCESS = "simpleca.process";
+    static final String FLUSH = "simpleca.db.flush";
+    static final String OCSP_REQUESTS = "simpleca.ocsp.requests";
+    static final String DOWNLOADS = "simpleca.downloads";
+
+    @Autowired
+    MeterRegistry meterRegistry;
+
+    public interface Operation<T> {
+        T call() throws Exception;
+    }
+
+    public interface VoidOperation {
+        void run() throws Exception;
+    }
+
+    public <T> T call(String operation, CertCA certCA, Operation<T> body) {
+        return time(Timer.builder(OPERATION).tag("operation", operation).tag("ca", caOf(certCA)), body, result -> true);
+    }
+
+    public void run(String operation, CertCA certCA, VoidOperation body) {
+        call(operation, certCA, () -> {
+            body.run();
+            return null;
+        });
+    }
+
+    // a process exiting with non zero is a failure too, the count of the timer is the number of spawns
+    public int process(String command, Operation<Integer> body) {
+        return time(Timer.builder(PROCESS).tag("command", command), body, exitValue -> exitValue == 0);
+    }
+
+    public void flush(VoidOperation body) {
+        time(Timer.builder(FLUSH), () -> {
+            body.run();
+            return null;
+        }, result -> true);
+    }
+
+    // status of the OCSP response: successful, malformedRequest, unauthorized, ...
+    public void ocspRequest(String status) {
+        Counter.builder(OCSP_REQUESTS).tag("status", status).register(meterRegistry).increment();
+    }
+
+    // file type served by CAController (crl, delta-crl, crt, ...) and HTTP status
+    public void download(String type, int status) {
+        Counter.builder(DOWNLOADS).tag("type", type).tag("status", Integer.toString(status)).register(meterRegistry).increment();
+    }
+
+    @SneakyThrows
+    private <T> T time(Timer.Builder timer, Operation<T> body, Predicate<T> succeeded) {
+        long start = System.nanoTime();
+        String outcome = "failure";
+        try {
+            T result = body.call();
+            if (succeeded.test(result)) outcome = "success";
+            return result;
+        } finally {
+            timer.tag("outcome", outcome)
+                    .publishPercentileHistogram()
+                    .register(meterRegistry)
+                    .record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private static String caOf(CertCA certCA) {
+        if (certCA instanceof CA || certCA.getSigningCA() == null) return certCA.getName();
+        return certCA.getSigningCA().getName();
+    }
+}
@@ -0,0 +1,34 @@
+package com.youramaryllis.simpleca;
+
+import lombok.SneakyThrows;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+@Component
+public class CAPaths {
+    @Autowired
+    SimpleCertAuthConfiguration configuration;
+
+    Path basePath;
+
+    @PostConstruct
+    public void setup() {
+        basePath = Paths.get(configuration.caPath).normalize().toAbsolutePath();
+    }
+
+    public Path getBasePath() {
+        return basePath;
+    }
+
+    @SneakyThrows
+    public Path getWorkingDirectory(CertCA certCA) {
+        Path workingDirectory = basePath.resolve(certCA.getRelativePath());
+        Files.createDirectories(workingDirectory);
+        return workingDirectory;
+    }
+}
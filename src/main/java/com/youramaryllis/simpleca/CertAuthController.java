@@ -1,11 +1,14 @@
 package com.youramaryllis.simpleca;
 
-import lombok.SneakyThrows;
+import lombok.AllArgsConstructor;
+import lombok.Data;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.core.io.InputStreamResource;
+import org.springframework.core.io.ByteArrayResource;
 import org.springframework.core.io.Resource;
+import org.springframework.http.CacheControl;
 import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.DeleteMapping;
@@ -14,21 +17,32 @@ import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
-import org.springframework.web.bind.annotation.ResponseBody;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
 
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.Paths;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.RejectedExecutionException;
 
 @Slf4j
 @RestController
 @RequestMapping("/api")
 public class CertAuthController {
+    private static final int MAX_PAGE_SIZE = 1000;
+    private static final String NEXT_CURSOR = "X-Next-Cursor";
 
     @Autowired
     CertAuthDatabase database;
@@ -36,6 +50,12 @@ public class CertAuthController {
     CertCABuilder certCABuilder;
     @Autowired
     SimpleCertAuthConfiguration configuration;
+    @Autowired
+    BlockingScheduler blockingScheduler;
+    @Autowired
+    CertInventory inventory;
+    @Autowired
+    KeyStoreAssembler keyStoreAssembler;
 
     @GetMapping(value = "/ca", produces = MediaType.APPLICATION_JSON_VALUE)
     public Flux<CA> getAllCA() {
@@ -58,8 +78,8 @@ public class CertAuthController {
             consumes = MediaType.APPLICATION_JSON_VALUE
     )
     public Mono<Void> createCA(@PathVariable String signingCaName, @RequestBody CA ca) {
-        if (ca.relativePath == null) ca.relativePath = ca.name;
-        try {
+        return blockingScheduler.run(() -> {
+            if (ca.relativePath == null) ca.relativePath = ca.name;
             assert ca.ca.size() == 0;
             assert ca.certs.size() == 0;
             CA signingCA = database.getCA(signingCaName);
@@ -69,10 +89,7 @@ public class CertAuthController {
             certCABuilder.buildCA(signingCA, ca);
             database.addCA(signingCA, ca);
             database.flush();
-        } catch (Throwable throwable) {
-            return Mono.error(throwable);
-        }
-        return Mono.empty();
+        });
     }
 
     @PostMapping(value = "/cert/{signingCaName}",
@@ -80,62 +97,205 @@ public class CertAuthController {
             consumes = MediaType.APPLICATION_JSON_VALUE
     )
     public Mono<Void> createCert(@PathVariable String signingCaName, @RequestBody Cert cert) {
-        try {
+        return blockingScheduler.run(() -> {
             if (cert.relativePath == null) cert.relativePath = cert.name;
             cert.signingCA = database.getCA(signingCaName);
             assert Objects.nonNull(cert.signingCA);
             certCABuilder.buildCert(cert.signingCA, cert);
             database.addCert(cert.signingCA, cert);
             database.flush();
-        } catch (Throwable e) {
-            return Mono.error(e);
+        });
+    }
+
+    @PostMapping(value = "/cert/{signingCaName}/batch",
+            produces = MediaType.APPLICATION_NDJSON_VALUE,
+            consumes = MediaType.APPLICATION_JSON_VALUE
+    )
+    public Flux<CertResult> createCerts(@PathVariable String signingCaName, @RequestBody List<Cert> certs) {
+        CA signingCA = database.getCA(signingCaName);
+        if (signingCA == null)
+            return Flux.error(new AssertionError("CA " + signingCaName + " not found"));
+        Set<String> names = new HashSet<>();
+        // one flush for the whole batch, also when it fails or the client goes away
+        return Flux.usingWhen(Mono.just(signingCA),
+                ca -> Flux.fromIterable(certs)
+                        .flatMap(cert -> names.add(cert.name) ?
+                                        blockingScheduler.call(() -> issueCert(ca, cert))
+                                                .onErrorResume(RejectedExecutionException.class,
+                                                        e -> Mono.just(CertResult.failed(cert.name, "too many requests"))) :
+                                        Mono.just(CertResult.failed(cert.name, "duplicated cert name in batch")),
+                                configuration.batchParallelism),
+                ca -> flushBatch());
+    }
+
+    // what was issued has to be flushed even if the blocking pool is full
+    private Mono<Void> flushBatch() {
+        return blockingScheduler.run(database::flush)
+                .onErrorResume(RejectedExecutionException.class,
+                        e -> Mono.<Void>fromRunnable(database::flush).subscribeOn(Schedulers.boundedElastic()));
+    }
+
+    private CertResult issueCert(CA signingCA, Cert cert) {
+        try {
+            if (cert.relativePath == null) cert.relativePath = cert.name;
+            cert.signingCA = signingCA;
+            certCABuilder.buildCert(signingCA, cert);
+            database.addCert(signingCA, cert);
+            return CertResult.issued(cert.name);
+        } catch (Throwable throwable) {
+            log.info("failed to issue {}", cert.name, throwable);
+            return CertResult.failed(cert.name, throwable.getMessage());
         }
-        return Mono.empty();
     }
 
     @DeleteMapping(value = "/cert/{signingCA}/{certName}")
     public Mono<Void> revokeCert(@PathVariable String signingCA, @PathVariable String certName) {
-        try {
+        return blockingScheduler.run(() -> {
             CA ca = database.getCA(signingCA);
             assert Objects.nonNull(ca);
-            Cert cert = ca.certs.stream().filter(c->c.name.equals(certName)).findFirst().orElseThrow(()->new AssertionError("Cert name " + certName + " not found in CA " + signingCA ));
-            cert.revoked = true;
+            Cert cert = database.getCert(ca, certName).orElseThrow(()->new AssertionError("Cert name " + certName + " not found in CA " + signingCA ));
+            database.revokeCert(ca, cert);
             certCABuilder.buildCert(ca, cert);
             database.flush();
-        } catch (Throwable t) {
-            return Mono.error(t);
+        });
+    }
+
+    @PostMapping(value = "/cert/{signingCaName}/revoke",
+            produces = MediaType.APPLICATION_NDJSON_VALUE,
+            consumes = MediaType.APPLICATION_JSON_VALUE
+    )
+    public Flux<RevokeResult> revokeCerts(@PathVariable String signingCaName, @RequestBody List<String> certNames) {
+        return blockingScheduler.call(() -> {
+            CA ca = database.getCA(signingCaName);
+            assert Objects.nonNull(ca) : "CA " + signingCaName + " not found";
+            List<RevokeResult> results = new ArrayList<>();
+            List<Cert> certs = new ArrayList<>();
+            for (String certName : new LinkedHashSet<>(certNames)) {
+                Optional<Cert> cert = database.getCert(ca, certName);
+                if (cert.isPresent()) {
+                    certs.add(cert.get());
+                    results.add(RevokeResult.revoked(certName));
+                } else {
+                    results.add(RevokeResult.failed(certName, "Cert name " + certName + " not found in CA " + signingCaName));
+                }
+            }
+            certs.forEach(cert -> database.revokeCert(ca, cert));
+            certCABuilder.revokeCerts(ca, certs); // one CRL publication for all of them
+            database.flush();
+            return results;
+        }).flatMapMany(Flux::fromIterable);
+    }
+
+    /*
+     * one page of the certs matching all the given filters, in ca/name order;
+     * X-Next-Cursor is set when there may be more, pass it as cursor to get the next page
+     */
+    @GetMapping(value = "/cert", produces = {MediaType.APPLICATION_NDJSON_VALUE, MediaType.APPLICATION_JSON_VALUE})
+    public ResponseEntity<Flux<CertInventory.Entry>> searchCerts(@RequestParam(required = false) String ca,
+                                                                 @RequestParam(required = false) String name,
+                                                                 @RequestParam(required = false) String serial,
+                                                                 @RequestParam(required = false) String subject,
+                                                                 @RequestParam(required = false) CertInventory.Status status,
+                                                                 @RequestParam(required = false) Instant expiresBefore,
+                                                                 @RequestParam(required = false) Instant expiresAfter,
+                                                                 @RequestParam(required = false) String cursor,
+                                                                 @RequestParam(defaultValue = "100") int limit) {
+        assert limit > 0 && limit <= MAX_PAGE_SIZE : "limit must be between 1 and " + MAX_PAGE_SIZE;
+        CertInventory.Query query = new CertInventory.Query();
+        query.setCa(ca);
+        query.setName(name);
+        query.setSerial(serial);
+        query.setSubject(subject);
+        query.setStatus(status);
+        query.setExpiresBefore(expiresBefore);
+        query.setExpiresAfter(expiresAfter);
+        String after = (cursor == null) ? null : new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+        List<CertInventory.Entry> page = inventory.search(query, after, limit);
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok();
+        if (page.size() == limit) {
+            String last = page.get(page.size() - 1).getKey();
+            response.header(NEXT_CURSOR, Base64.getUrlEncoder().withoutPadding().encodeToString(last.getBytes(StandardCharsets.UTF_8)));
         }
-        return Mono.empty();
+        return response.body(Flux.fromIterable(page));
     }
 
-    @SneakyThrows
-    @GetMapping(value = "/cert/{caName}/keystore")
-    @ResponseBody
-    public ResponseEntity<Mono<Resource>> getKeystore(@PathVariable String caName) {
-        Path keyStoreFile = Paths.get(configuration.caPath).resolve(caName).resolve("keystore.p12");
-        if (Files.notExists(keyStoreFile))
-            return ResponseEntity.notFound().build();
-        return ResponseEntity.ok()
-                .contentType(MediaType.APPLICATION_OCTET_STREAM)
-                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=keystore.p12")
-                .body(
-                        Mono.just(new InputStreamResource(Files.newInputStream(keyStoreFile)))
-                );
-    }
-
-    @SneakyThrows
-    @GetMapping(value = "/cert/{caName}/truststore")
-    @ResponseBody
-    public ResponseEntity<Mono<Resource>> getTruststore(@PathVariable String caName) {
-        Path trustStoreFile = Paths.get(configuration.caPath).resolve(caName).resolve("truststore.p12");
-        if (Files.notExists(trustStoreFile))
-            return ResponseEntity.notFound().build();
+    // ?format=p12|jks|pem, or the matching Accept media type, PKCS#12 by default
+    @GetMapping(value = "/cert/{signingCaName}/{certName}/keystore")
+    public Mono<ResponseEntity<Resource>> getKeystore(@PathVariable String signingCaName,
+                                                      @PathVariable String certName,
+                                                      @RequestParam(required = false) String format,
+                                                      @RequestHeader HttpHeaders headers) {
+        return keystore(getCert(signingCaName, certName), getStoreFormat(format, headers));
+    }
+
+    @GetMapping(value = "/cert/{signingCaName}/{certName}/truststore")
+    public Mono<ResponseEntity<Resource>> getTruststore(@PathVariable String signingCaName,
+                                                        @PathVariable String certName,
+                                                        @RequestParam(required = false) String format,
+                                                        @RequestHeader HttpHeaders headers) {
+        return truststore(getCert(signingCaName, certName), getStoreFormat(format, headers));
+    }
+
+    // deprecated form, the cert by the relativePath its files are in, as the stores used to be read from there
+    @GetMapping(value = "/cert/{certPath}/keystore")
+    public Mono<ResponseEntity<Resource>> getKeystoreByPath(@PathVariable String certPath,
+                                                            @RequestParam(required = false) String format,
+                                                            @RequestHeader HttpHeaders headers) {
+        return keystore(database.findCertByRelativePath(certPath), getStoreFormat(format, headers));
+    }
+
+    @GetMapping(value = "/cert/{certPath}/truststore")
+    public Mono<ResponseEntity<Resource>> getTruststoreByPath(@PathVariable String certPath,
+                                                              @RequestParam(required = false) String format,
+                                                              @RequestHeader HttpHeaders headers) {
+        return truststore(database.findCertByRelativePath(certPath), getStoreFormat(format, headers));
+    }
+
+    private Optional<Cert> getCert(String signingCaName, String certName) {
+        CA signingCA = database.getCA(signingCaName);
+        return (signingCA == null) ? Optional.empty() : database.getCert(signingCA, certName);
+    }
+
+    private Mono<ResponseEntity<Resource>> keystore(Optional<Cert> cert, KeyStoreAssembler.Format storeFormat) {
+        if (cert.isEmpty()) return Mono.just(ResponseEntity.notFound().build());
+        return blockingScheduler.call(() -> download("keystore", storeFormat, keyStoreAssembler.keyStore(cert.get(), storeFormat)));
+    }
+
+    private Mono<ResponseEntity<Resource>> truststore(Optional<Cert> cert, KeyStoreAssembler.Format storeFormat) {
+        if (cert.isEmpty()) return Mono.just(ResponseEntity.notFound().build());
+        CA rootCA = cert.get().signingCA;
+        while (rootCA.signingCA != null) {
+            rootCA = rootCA.signingCA;
+        }
+        CA trustedCA = rootCA;
+        return blockingScheduler.call(() -> download("truststore", storeFormat, keyStoreAssembler.trustStore(trustedCA, storeFormat)));
+    }
+
+    private static KeyStoreAssembler.Format getStoreFormat(String format, HttpHeaders headers) {
+        if (format != null) {
+            KeyStoreAssembler.Format storeFormat = KeyStoreAssembler.Format.of(format);
+            assert storeFormat != null : "unsupported format " + format;
+            return storeFormat;
+        }
+        for (MediaType mediaType : headers.getAccept()) {
+            KeyStoreAssembler.Format storeFormat = KeyStoreAssembler.Format.of(mediaType.getType() + "/" + mediaType.getSubtype());
+            if (storeFormat != null) return storeFormat;
+        }
+        return KeyStoreAssembler.Format.PKCS12;
+    }
+
+    private static ResponseEntity<Resource> download(String name, KeyStoreAssembler.Format format, byte[] content) {
         return ResponseEntity.ok()
-                .contentType(MediaType.APPLICATION_OCTET_STREAM)
-                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=truststore.p12")
-                .body(
-                        Mono.just(new InputStreamResource(Files.newInputStream(trustStoreFile)))
-                );
+                .contentType(MediaType.parseMediaType(format.mediaType))
+                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=" + name + "." + format.extension)
+                .cacheControl(CacheControl.noStore())
+                .body(new ByteArrayResource(content));
+    }
+
+    @ExceptionHandler(RejectedExecutionException.class)
+    ResponseEntity rejectedExecution(RejectedExecutionException rejectedExecutionException) {
+        log.info("too many requests queued, rejecting");
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).body("too many requests, try again later");
     }
 
     @ExceptionHandler(AssertionError.class)
@@ -150,3 +310,35 @@ public class CertAuthController {
         return ResponseEntity.badRequest().body(throwable.getMessage());
     }
 }
+
+@Data
+@AllArgsConstructor
+class CertResult {
+    String name;
+    boolean issued;
+    String error;
+
+    static CertResult issued(String name) {
+        return new CertResult(name, true, null);
+    }
+
+    static CertResult failed(String name, String error) {
+        return new CertResult(name, false, error);
+    }
+}
+
+@Data
+@AllArgsConstructor
+class RevokeResult {
+    String name;
+    boolean revoked;
+    String error;
+
+    static RevokeResult revoked(String name) {
+        return new RevokeResult(name, true, null);
+    }
+
+    static RevokeResult failed(String name, String error) {
+        return new RevokeResult(name, false, error);
+    }
+}
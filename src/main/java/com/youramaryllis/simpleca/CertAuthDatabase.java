@@ -9,18 +9,21 @@ import lombok.Data;
 import lombok.SneakyThrows;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
 import javax.annotation.PostConstruct;
-import java.nio.file.Files;
-import java.nio.file.Paths;
-import java.nio.file.StandardOpenOption;
+import javax.annotation.PreDestroy;
 import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.stream.Collectors;
 
 @Component
@@ -30,12 +33,26 @@ public class CertAuthDatabase {
     SimpleCertAuthConfiguration configuration;
     @Autowired
     CertCABuilder certCABuilder; // just to make it run after certBuilder
+    @Autowired
+    DatabaseJournal journal;
+    @Autowired
+    CALocks caLocks;
+    @Autowired
+    StateStore stateStore;
+    @Autowired
+    CAMetrics caMetrics;
     Database database = new Database();
     ObjectMapper mapper;
-    @Value("${spring.config.location}")
-    String location;
-    String dbPath;
-    Map<String, CA> caMap = new HashMap<>();
+    Map<String, CA> caMap = new ConcurrentHashMap<>();
+    // certs of each CA by name
+    Map<String, Map<String, Cert>> certMap = new ConcurrentHashMap<>();
+    // what GET /api/ca returns, rebuilt once a CA was added since it was built
+    private volatile CleanCAs cleanCAs;
+    // incremented after a CA is added
+    private final AtomicLong caGeneration = new AtomicLong();
+    // mutations are journaled under the read lock, the snapshot is taken under the write lock
+    private final ReadWriteLock snapshotLock = new ReentrantReadWriteLock();
+    private ScheduledExecutorService compactor;
 
     @SneakyThrows
     @PostConstruct
@@ -43,15 +60,33 @@ public class CertAuthDatabase {
         database.simpleCA.rootCA = configuration.rootca;
         mapper = new ObjectMapper(new YAMLFactory().disable(YAMLGenerator.Feature.WRITE_DOC_START_MARKER));
         mapper.setSerializationInclusion(JsonInclude.Include.NON_EMPTY);
-        dbPath = Arrays.stream(location.split(","))
-                .filter(s -> !s.startsWith("classpath"))
-                .findFirst()
-                .orElse(Paths.get(".").resolve("simpleca.yaml").normalize().toString());
         addCA2MapRecursively(database.simpleCA.rootCA);
+        compact(); // fold in whatever the journal replayed
+        int interval = configuration.journal.compactIntervalSeconds;
+        compactor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "db-compactor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        compactor.scheduleWithFixedDelay(() -> {
+            if (journal.getRecordsSinceSnapshot() > 0) compact();
+        }, interval, interval, TimeUnit.SECONDS);
+        if (!(stateStore instanceof LocalStateStore)) {
+            int pollInterval = Math.max(1, configuration.store.pollIntervalSeconds);
+            compactor.scheduleWithFixedDelay(this::applyRecordsOfOtherNodes, 0, pollInterval, TimeUnit.SECONDS);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        compactor.shutdownNow();
+        compact();
     }
 
     private void addCA2MapRecursively(CA ca) {
         caMap.put(ca.name, ca);
+        Map<String, Cert> certs = getCertsOf(ca);
+        ca.certs.forEach(cert -> certs.put(cert.name, cert));
         for (CA downstreamCA : ca.ca) {
             addCA2MapRecursively(downstreamCA);
         }
@@ -84,27 +119,175 @@ public class CertAuthDatabase {
     }
 
     public List<CA> getAllCleanCA() {
-        return caMap.values().stream().map(this::cleanCA).collect(Collectors.toList());
+        // read before building, a CA added meanwhile leaves the list out of date for the next call
+        long generation = caGeneration.get();
+        CleanCAs all = cleanCAs;
+        if (all == null || all.generation != generation) {
+            all = new CleanCAs(generation, caMap.values().stream().map(this::cleanCA).collect(Collectors.toUnmodifiableList()));
+            cleanCAs = all;
+        }
+        return all.list;
     }
 
     public void addCA(CA signingCA, CA ca) {
-        if (caMap.putIfAbsent(ca.name, ca) == null)
-            signingCA.ca.add(ca);
+        addCA(signingCA, ca, true);
+    }
+
+    private void addCA(CA signingCA, CA ca, boolean publish) {
+        snapshotLock.readLock().lock();
+        try {
+            caLocks.withLock(signingCA, () -> {
+                if (caMap.putIfAbsent(ca.name, ca) == null) {
+                    signingCA.ca.add(ca);
+                    caGeneration.incrementAndGet();
+                    record(JournalRecord.addCA(signingCA, ca), publish);
+                }
+            });
+        } finally {
+            snapshotLock.readLock().unlock();
+        }
+    }
+
+    public Optional<Cert> getCert(CA ca, String certName) {
+        return Optional.ofNullable(getCertsOf(ca).get(certName));
+    }
+
+    // cert of any CA, by the directory of its files, which is unique under caPath
+    public Optional<Cert> findCertByRelativePath(String relativePath) {
+        return certMap.values().stream()
+                .flatMap(certs -> certs.values().stream())
+                .filter(cert -> relativePath.equals(cert.relativePath))
+                .findFirst();
+    }
+
+    private Map<String, Cert> getCertsOf(CA ca) {
+        return certMap.computeIfAbsent(ca.name, name -> new ConcurrentHashMap<>());
     }
 
     public void addCert(CA ca, Cert cert) {
-        if (ca.certs.stream().noneMatch(c -> c.name.equals(cert.name)))
-            ca.certs.add(cert);
+        addCert(ca, cert, true);
     }
 
-    @SneakyThrows
+    private void addCert(CA ca, Cert cert, boolean publish) {
+        snapshotLock.readLock().lock();
+        try {
+            caLocks.withLock(ca, () -> {
+                if (getCertsOf(ca).putIfAbsent(cert.name, cert) == null) {
+                    ca.certs.add(cert);
+                    record(JournalRecord.addCert(ca, cert), publish);
+                }
+            });
+        } finally {
+            snapshotLock.readLock().unlock();
+        }
+    }
+
+    public void revokeCert(CA ca, Cert cert) {
+        revokeCert(ca, cert, true);
+    }
+
+    private void revokeCert(CA ca, Cert cert, boolean publish) {
+        snapshotLock.readLock().lock();
+        try {
+            caLocks.withLock(ca, () -> {
+                if (!cert.revoked) {
+                    cert.revoked = true;
+                    record(JournalRecord.revoke(ca, cert), publish);
+                }
+            });
+        } finally {
+            snapshotLock.readLock().unlock();
+        }
+    }
+
+    // records of this node are shared with the others, theirs are only journaled
+    private void record(JournalRecord record, boolean publish) {
+        journal.append(record);
+        if (publish) stateStore.publish(journal.toJson(record));
+    }
+
+    // mutations of the other nodes, the files they built are already in the shared CA directory
+    private void applyRecordsOfOtherNodes() {
+        List<String> records;
+        try {
+            records = stateStore.poll();
+        } catch (Throwable throwable) {
+            log.info("failed to read the records of the other nodes", throwable);
+            return;
+        }
+        for (String json : records) {
+            try {
+                applyRecordOfOtherNode(journal.fromJson(json));
+            } catch (Throwable throwable) {
+                log.info("failed to apply record {} of another node", json, throwable);
+            }
+        }
+        if (!records.isEmpty()) flush();
+        try {
+            stateStore.acknowledge();
+        } catch (Throwable throwable) {
+            log.info("failed to acknowledge the records of the other nodes", throwable);
+        }
+    }
+
+    private void applyRecordOfOtherNode(JournalRecord record) {
+        CA ca = caMap.get(record.caName);
+        if (ca == null) {
+            log.info("skipping record {} of unknown CA {}", record.type, record.caName);
+            return;
+        }
+        switch (record.type) {
+            case ADD_CA:
+                if (caMap.containsKey(record.ca.name)) return;
+                record.ca.signingCA = ca;
+                certCABuilder.buildCA(ca, record.ca); // only picks up what the other node built
+                addCA(ca, record.ca, false);
+                break;
+            case ADD_CERT:
+                if (getCert(ca, record.cert.name).isPresent()) return;
+                record.cert.signingCA = ca;
+                certCABuilder.buildCert(ca, record.cert);
+                addCert(ca, record.cert, false);
+                break;
+            case REVOKE:
+                getCert(ca, record.certName).filter(cert -> !cert.revoked).ifPresent(cert -> {
+                    revokeCert(ca, cert, false);
+                    certCABuilder.revokeCerts(ca, List.of(cert));
+                });
+                break;
+        }
+    }
+
+    // make the mutations so far durable, the full yaml is only rewritten once the journal is long enough
     public void flush() {
-        String yml = mapper.writeValueAsString(database);
-        Files.deleteIfExists(Paths.get(dbPath));
-        Files.writeString(Paths.get(dbPath), yml, StandardOpenOption.CREATE_NEW);
-        log.info("Done flushing database file");
+        caMetrics.flush(() -> {
+            journal.sync();
+            if (journal.getRecordsSinceSnapshot() >= configuration.journal.compactThreshold)
+                compact();
+        });
     }
 
+    @SneakyThrows
+    public void compact() {
+        snapshotLock.writeLock().lock();
+        try {
+            String yml = mapper.writeValueAsString(database);
+            journal.compact(yml);
+            log.info("Done flushing database file");
+        } finally {
+            snapshotLock.writeLock().unlock();
+        }
+    }
+
+    private static class CleanCAs {
+        final long generation;
+        final List<CA> list;
+
+        CleanCAs(long generation, List<CA> list) {
+            this.generation = generation;
+            this.list = list;
+        }
+    }
 }
 
 @Data
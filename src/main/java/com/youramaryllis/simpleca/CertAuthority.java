@@ -1,31 +1,31 @@
 package com.youramaryllis.simpleca;
 
 import groovy.text.SimpleTemplateEngine;
+import groovy.text.Template;
 import lombok.SneakyThrows;
 import lombok.extern.slf4j.Slf4j;
-import org.apache.logging.log4j.util.Strings;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.core.io.ClassPathResource;
 import org.springframework.core.io.Resource;
 import org.springframework.core.io.ResourceLoader;
 import org.springframework.stereotype.Component;
 import org.springframework.util.FileCopyUtils;
-import org.springframework.util.ResourceUtils;
-import org.zeroturnaround.exec.ProcessExecutor;
-import org.zeroturnaround.exec.ProcessResult;
-import org.zeroturnaround.exec.stream.slf4j.Slf4jStream;
 
 import javax.annotation.PostConstruct;
 import java.io.*;
+import java.math.BigInteger;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.nio.file.StandardOpenOption;
-import java.util.Arrays;
+import java.security.KeyPair;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
-import java.util.stream.Collectors;
+import java.util.concurrent.ConcurrentHashMap;
 
 /* TODO: make into a prototype bean for each CA */
 
@@ -39,19 +39,43 @@ public class CertAuthority {
     SimpleCertAuthConfiguration configuration;
     @Autowired
     ResourceLoader resourceLoader;
+    @Autowired
+    CAPaths caPaths;
+    @Autowired
+    OpensslSigningEngine opensslSigningEngine;
+    @Autowired
+    JcaSigningEngine jcaSigningEngine;
+    @Autowired
+    KeyPairPool keyPairPool;
+    @Autowired
+    CALocks caLocks;
+    @Autowired
+    SigningKeyCache signingKeyCache;
+    @Autowired
+    RevocationIndex revocationIndex;
+    @Autowired
+    OcspResponseCache ocspResponseCache;
+    @Autowired
+    CrlPublisher crlPublisher;
+    @Autowired
+    ArtifactCache artifactCache;
+    @Autowired
+    SerialAllocator serialAllocator;
+    @Autowired
+    CAMetrics caMetrics;
 
-    Path basePath;
-    String opensslBin;
+    SigningEngine signingEngine;
+    private final Map<String, Template> templates = new ConcurrentHashMap<>();
 
     @PostConstruct
     public void setup() {
-        basePath = Paths.get(configuration.caPath).normalize().toAbsolutePath();
-        opensslBin = Paths.get(configuration.opensslPath).resolve("openssl").toString();
+        signingEngine = "openssl".equalsIgnoreCase(configuration.signingEngine) ? opensslSigningEngine : jcaSigningEngine;
+        log.info("using {} signing engine", signingEngine.getClass().getSimpleName());
     }
 
     @SneakyThrows
     public void cleanUp(CA ca) {
-        Path workingDirectory = basePath.resolve(ca.relativePath);
+        Path workingDirectory = caPaths.getBasePath().resolve(ca.relativePath);
         Files.walk(workingDirectory)
                 .filter(Files::isRegularFile)
                 .filter(file -> !file.toString().endsWith(".key"))
@@ -60,33 +84,34 @@ public class CertAuthority {
                 .forEach(File::delete);
     }
 
-    //openssl genrsa -aes256 -passout pass:changeit -out rootca.key 8192
     public boolean generatePrivateKey(CertCA certCA) {
-        assert Objects.nonNull(certCA.getPassword());
-        List<String> cmd = List.of(
-                opensslBin,
-                "genrsa", "-aes256",
-                "-passout", "pass:" + certCA.getPassword(),
-                "-out", certCA.getName() + ".key",
-                String.valueOf(certCA.getKeySize())
-        );
-        return executeAndExpectOutputFile(certCA, cmd, certCA.getName() + ".key");
+        return caMetrics.call("generate-private-key", certCA, () -> signingEngine.generatePrivateKey(certCA));
+    }
+
+    // take a pre-generated key pair if the pool has one, otherwise generate it inline
+    public boolean generatePrivateKeyFromPool(Cert cert) {
+        return caMetrics.call("generate-private-key-from-pool", cert, () -> {
+            Path keyFile = getWorkingDirectory(cert).resolve(cert.name + ".key");
+            if (Files.notExists(keyFile)) {
+                Optional<KeyPair> keyPair = keyPairPool.poll(KeyAlgorithm.of(cert), cert.keySize);
+                if (keyPair.isPresent()) {
+                    assert Objects.nonNull(cert.password);
+                    PemFiles.writePrivateKey(keyFile, keyPair.get().getPrivate(), cert.password);
+                    log.info("{}.key created from key pool", cert.name);
+                    return true;
+                }
+            }
+            return signingEngine.generatePrivateKey(cert);
+        });
     }
 
-    //openssl req -sha256 -new -x509 -days 1826 -key rootca.key -out rootca.crt -subj '/C=US/ST=California/L=San Francisco/O=Test/CN=Root CA' -passin pass:changeit
     public boolean generateCert(CA ca, boolean forceRecreate) {
-        assert Objects.nonNull(ca.password);
-        if (forceRecreate) deleteOldFiles(ca, ca.name + ".crt");
-        List<String> cmd = List.of(
-                opensslBin,
-                "req", "-sha256", "-new", "-x509",
-                "-days", String.valueOf(ca.days),
-                "-key", ca.name + ".key",
-                "-out", ca.name + ".crt",
-                "-subj", ca.subject,
-                "-passin", "pass:" + ca.password
-        );
-        return executeAndExpectOutputFile(ca, cmd, ca.name + ".crt");
+        return caMetrics.call("generate-cert", ca, () -> {
+            if (forceRecreate) deleteOldFiles(ca, ca.name + ".crt");
+            boolean created = signingEngine.generateCert(ca);
+            if (created) artifactCache.invalidate(ca);
+            return created;
+        });
     }
 
     /*
@@ -96,10 +121,16 @@ public class CertAuthority {
     echo 1000 > crlnumber
      */
     public void createIndexFiles(CA ca, boolean forceRecreate) {
-        Path workingDirectory = getWorkingDirectory(ca);
-        createIndexFile("certindex", ca, workingDirectory, null, forceRecreate);
-        createIndexFile("certserial", ca, workingDirectory, "1000", forceRecreate);
-        createIndexFile("crlnumber", ca, workingDirectory, "1000", forceRecreate);
+        caMetrics.run("create-index-files", ca, () -> {
+            Path workingDirectory = getWorkingDirectory(ca);
+            createIndexFile("certindex", ca, workingDirectory, null, forceRecreate);
+            createIndexFile("certserial", ca, workingDirectory, "1000", forceRecreate);
+            createIndexFile("crlnumber", ca, workingDirectory, "1000", forceRecreate);
+            if (forceRecreate) {
+                revocationIndex.reload(ca);
+                serialAllocator.reset(ca);
+            }
+        });
     }
 
     @SneakyThrows
@@ -116,248 +147,196 @@ public class CertAuthority {
         }
     }
 
+    /*
+     * only openssl reads ca.conf, the JCA engine takes the same extensions from ExtensionProfile;
+     * templates are compiled once and the file is only rewritten when the rendered config differs
+     */
+    public boolean generateCAConfig(CA ca) {
+        return caMetrics.call("generate-ca-config", ca, () -> {
+            if (signingEngine == jcaSigningEngine) {
+                deleteOldFiles(ca, "ca.conf"); // would be stale
+                return false;
+            }
+            Path caconfigFile = getWorkingDirectory(ca).resolve("ca.conf");
+            String templateName = (ca.signingCA == null) ? //root CA don't have signing CA
+                    "classpath:templates/rootca.conf.tpl" :
+                    "classpath:templates/intermediateca.conf.tpl";
+            String caconfig = getTemplate(templateName).make(ca.toCAConfigMap()).toString();
+            if (Files.exists(caconfigFile) && caconfig.equals(Files.readString(caconfigFile))) {
+                log.info("ca.conf for {} is up to date", ca.name);
+                return false;
+            }
+            Files.writeString(caconfigFile, caconfig);
+            log.info("ca.conf for {} created", ca.name);
+            return true;
+        });
+    }
+
+    private Template getTemplate(String templateName) {
+        return templates.computeIfAbsent(templateName, this::compileTemplate);
+    }
+
     @SneakyThrows
-    public void generateCAConfig(CA ca) {
-        Path workingDirectory = getWorkingDirectory(ca);
-        Path caconfigFile = workingDirectory.resolve("ca.conf");
-        if (Files.exists(caconfigFile))
-            log.info("ca.conf for {} already existed, regenerate it anyway", ca.name);
-        Resource templateResource = (ca.signingCA == null) ? //root CA don't have signing CA
-                resourceLoader.getResource("classpath:templates/rootca.conf.tpl") :
-                resourceLoader.getResource("classpath:templates/intermediateca.conf.tpl");
+    private Template compileTemplate(String templateName) {
+        Resource templateResource = resourceLoader.getResource(templateName);
         ByteArrayOutputStream template = new ByteArrayOutputStream();
         templateResource.getInputStream().transferTo(template);
-        String caconfig = simpleTemplateEngine.createTemplate(template.toString()).make(ca.toCAConfigMap()).toString();
-        Files.writeString(caconfigFile, caconfig);
-        log.info("ca.conf for {} created", ca.name);
+        return simpleTemplateEngine.createTemplate(template.toString());
     }
 
-    //openssl req -sha256 -new -key intermediate.key -out intermediate.csr -subj '/C=US/ST=California/L=San Francisco/O=Test/CN=Intermediate CA' -passin pass:changeit
     public boolean generateCSR(CertCA certCA, boolean forceRecreate) {
-        assert Objects.nonNull(certCA.getPassword());
-        if (forceRecreate)
-            deleteOldFiles(certCA, certCA.getName() + ".csr");
-        List<String> cmd = List.of(
-                opensslBin,
-                "req", "-sha256", "-new",
-                "-key", certCA.getName() + ".key",
-                "-out", certCA.getName() + ".csr",
-                "-subj", certCA.getSubject(),
-                "-passin", "pass:" + certCA.getPassword()
-        );
-        return executeAndExpectOutputFile(certCA, cmd, certCA.getName() + ".csr");
+        return caMetrics.call("generate-csr", certCA, () -> {
+            if (forceRecreate)
+                deleteOldFiles(certCA, certCA.getName() + ".csr");
+            return signingEngine.generateCSR(certCA);
+        });
     }
 
-    //openssl ca -batch -config ca.conf -notext -in intermediate.csr -out intermediate.crt -passin pass:changeit
-    @SneakyThrows
     public boolean signCert(CertCA certCA, boolean forceRecreate) {
-        CA parent = certCA.getSigningCA();
-        assert Objects.nonNull(certCA.getPassword());
-        Path workingDirectory = getWorkingDirectory(parent);
-        Path certsDirectory = workingDirectory.resolve("certs");
-        Files.createDirectories(certsDirectory);
-        Path certFilename = certsDirectory.resolve(certCA.getName() + ".crt");
-        Path caWorkingDirectory = getWorkingDirectory(certCA);
-        Path caCertFilename = caWorkingDirectory.resolve(certCA.getName() + ".crt");
-        if (forceRecreate) {
-            Files.deleteIfExists(certFilename);
-            Files.deleteIfExists(caCertFilename);
-        }
-        List<String> cmd = List.of(
-                opensslBin,
-                "ca", "-batch",
-                "-config", "ca.conf",
-                "-notext",
-                "-in", caWorkingDirectory.resolve(certCA.getName() + ".csr").toString(),
-                "-out", certFilename.toString(),
-                "-passin", "pass:" + certCA.getPassword()
-        );
-        boolean result = executeAndExpectOutputFile(parent, cmd, "certs/" + certCA.getName() + ".crt");
-        FileCopyUtils.copy(certFilename.toFile(), caCertFilename.toFile());
-        return result;
+        return caMetrics.call("sign-cert", certCA, () -> {
+            CA parent = certCA.getSigningCA();
+            Path workingDirectory = getWorkingDirectory(parent);
+            Path certsDirectory = workingDirectory.resolve("certs");
+            Files.createDirectories(certsDirectory);
+            Path certFilename = certsDirectory.resolve(certCA.getName() + ".crt");
+            Path caWorkingDirectory = getWorkingDirectory(certCA);
+            Path caCertFilename = caWorkingDirectory.resolve(certCA.getName() + ".crt");
+            if (forceRecreate) {
+                Files.deleteIfExists(certFilename);
+                Files.deleteIfExists(caCertFilename);
+            }
+            boolean result = caLocks.withLock(parent, () -> { // certindex/certserial of the signing CA
+                boolean signed = signingEngine.signCert(certCA);
+                if (signed) revocationIndex.add(parent, certCA.getName(), PemFiles.readCertificate(certFilename));
+                return signed;
+            });
+            FileCopyUtils.copy(certFilename.toFile(), caCertFilename.toFile());
+            if (result) artifactCache.invalidate(certCA);
+            return result;
+        });
     }
 
-    /*
-    openssl ca -config ca.conf -gencrl -keyfile rootca.key -cert rootca.crt -out rootca.crl.pem -passin pass:changeit
-    openssl crl -inform PEM -in rootca.crl.pem -outform DER -out rootca.crl
-     */
+    // full CRL, the delta CRL is regenerated along with it in case revocations weren't published before a restart
     public boolean generateCrl(CA ca, boolean forceRecreate) {
-        assert Objects.nonNull(ca.password);
-        if (forceRecreate) deleteOldFiles(ca, ca.name + ".crl.pem", ca.name + ".crl");
-        List<String> cmd = List.of(
-                opensslBin, "ca",
-                "-config", "ca.conf",
-                "-gencrl",
-                "-keyfile", ca.name + ".key",
-                "-cert", ca.name + ".crt",
-                "-out", ca.name + ".crl.pem",
-                "-passin", "pass:" + ca.password
-        );
-        boolean result = executeAndExpectOutputFile(ca, cmd, ca.name + ".crl.pem");
-        if (result) deleteOldFiles(ca, ca.name + ".crl");
-        List<String> cmd2 = List.of(
-                opensslBin, "crl",
-                "-inform", "PEM",
-                "-in", ca.name + ".crl.pem",
-                "-outform", "DER",
-                "-out", ca.name + ".crl"
-        );
-        return executeAndExpectOutputFile(ca, cmd2, ca.name + ".crl");
+        boolean created = caMetrics.call("generate-crl", ca, () -> caLocks.withLock(ca, () -> {
+            boolean crlCreated = true;
+            if (forceRecreate) signingEngine.replaceCrl(ca);
+            else crlCreated = signingEngine.generateCrl(ca);
+            generateDeltaCrl(ca);
+            artifactCache.invalidate(ca);
+            return crlCreated;
+        }));
+        crlPublisher.scheduleFullCrl(ca, () -> {
+            generateCrl(ca, true);
+            generateCrlChainCert(ca, true);
+        });
+        return created;
+    }
+
+    public void generateDeltaCrl(CA ca) {
+        caMetrics.run("generate-delta-crl", ca, () -> caLocks.withLock(ca, () -> {
+            jcaSigningEngine.generateDeltaCrl(ca, Math.max(1, configuration.crl.fullIntervalMinutes));
+            // the CA cert and full CRL stay cached across revocations
+            artifactCache.invalidate(ca, ca.name + "-delta.crl", ca.name + "-delta.crl.pem");
+        }));
     }
 
-    @SneakyThrows
     public void generateChainCert(CA ca, boolean forceRecreate) {
-        CA parent = ca.signingCA;
-        if (forceRecreate) deleteOldFiles(ca, "certs/chain.crt");
-        Path chainCertDirectory = getWorkingDirectory(ca).resolve("certs");
-        Files.createDirectories(chainCertDirectory);
-        Path chainCertPath = chainCertDirectory.resolve("chain.crt");
-        if (Files.notExists(chainCertPath)) {
-            InputStream chainCertInputStream = Files.newInputStream(getWorkingDirectory(ca).resolve(ca.getName() + ".crt"));
-            if (parent != null) {
-                InputStream parentChainCertInputStream = Files.newInputStream(getWorkingDirectory(parent).resolve("certs").resolve("chain.crt"));
-                chainCertInputStream = new SequenceInputStream(parentChainCertInputStream, chainCertInputStream);
+        caMetrics.run("generate-chain-cert", ca, () -> {
+            CA parent = ca.signingCA;
+            if (forceRecreate) deleteOldFiles(ca, "certs/chain.crt");
+            Path chainCertDirectory = getWorkingDirectory(ca).resolve("certs");
+            Files.createDirectories(chainCertDirectory);
+            Path chainCertPath = chainCertDirectory.resolve("chain.crt");
+            if (Files.notExists(chainCertPath)) {
+                InputStream chainCertInputStream = Files.newInputStream(getWorkingDirectory(ca).resolve(ca.getName() + ".crt"));
+                if (parent != null) {
+                    InputStream parentChainCertInputStream = Files.newInputStream(getWorkingDirectory(parent).resolve("certs").resolve("chain.crt"));
+                    chainCertInputStream = new SequenceInputStream(parentChainCertInputStream, chainCertInputStream);
+                }
+                OutputStream chainCertOutputStream = Files.newOutputStream(chainCertPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+                chainCertInputStream.transferTo(chainCertOutputStream);
+                chainCertOutputStream.flush();
+                chainCertOutputStream.close();
+                assert Files.exists(chainCertPath);
             }
-            OutputStream chainCertOutputStream = Files.newOutputStream(chainCertPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
-            chainCertInputStream.transferTo(chainCertOutputStream);
-            chainCertOutputStream.flush();
-            chainCertOutputStream.close();
-            assert Files.exists(chainCertPath);
-        }
-        generateCrlChainCert(ca, forceRecreate);
+            generateCrlChainCert(ca, forceRecreate);
+        });
     }
 
-    @SneakyThrows
     public void generateCrlChainCert(CA ca, boolean forceRecreate) {
-        Path chainCertDirectory = getWorkingDirectory(ca).resolve("certs");
-        Path chainCertPath = chainCertDirectory.resolve("chain.crt");
-        Path crlChainCertPath = chainCertDirectory.resolve("crl-chain.crt");
-        if (forceRecreate) deleteOldFiles(ca, "certs/crl-chain.crt");
-        if (Files.notExists(crlChainCertPath)) {
-            OutputStream crlChainCertOutputStream = Files.newOutputStream(crlChainCertPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
-            InputStream chainCertInputStream = Files.newInputStream(chainCertPath);
-            InputStream parentCrlCertInputStream = Files.newInputStream(getWorkingDirectory(ca).resolve(ca.name + ".crl.pem"));
-            chainCertInputStream = new SequenceInputStream(parentCrlCertInputStream, chainCertInputStream);
-            chainCertInputStream.transferTo(crlChainCertOutputStream);
-            crlChainCertOutputStream.flush();
-            crlChainCertOutputStream.close();
-            assert Files.exists(crlChainCertPath);
-        }
+        caMetrics.run("generate-crl-chain-cert", ca, () -> {
+            Path chainCertDirectory = getWorkingDirectory(ca).resolve("certs");
+            Path chainCertPath = chainCertDirectory.resolve("chain.crt");
+            Path crlChainCertPath = chainCertDirectory.resolve("crl-chain.crt");
+            // replaced by a rename, never missing or partial
+            if (forceRecreate || Files.notExists(crlChainCertPath)) {
+                Path tempPath = chainCertDirectory.resolve("crl-chain.crt.new");
+                OutputStream crlChainCertOutputStream = Files.newOutputStream(tempPath);
+                InputStream chainCertInputStream = Files.newInputStream(chainCertPath);
+                InputStream parentCrlCertInputStream = Files.newInputStream(getWorkingDirectory(ca).resolve(ca.name + ".crl.pem"));
+                chainCertInputStream = new SequenceInputStream(parentCrlCertInputStream, chainCertInputStream);
+                chainCertInputStream.transferTo(crlChainCertOutputStream);
+                chainCertInputStream.close();
+                crlChainCertOutputStream.close();
+                Files.move(tempPath, crlChainCertPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            }
+        });
     }
 
-    //openssl verify -CAfile chain.crt server.crt
-    @SneakyThrows
     public void verifyCert(CA ca, Cert cert) {
-        Path certPath = getWorkingDirectory(cert).resolve(cert.name + ".crt");
-        assert Files.exists(certPath);
-        Path chainCertPath = getWorkingDirectory(ca).resolve("certs").resolve("chain.crt");
-        assert Files.exists(chainCertPath);
-        List<String> cmd = List.of(
-                opensslBin, "verify",
-                "-CAfile", chainCertPath.toString(),
-                certPath.toString()
-        );
-        execute(cert, cmd);
+        caMetrics.run("verify-cert", cert, () -> signingEngine.verifyCert(ca, cert));
     }
 
-    //openssl ca -config ca.conf -revoke client2.crt -keyfile intermediate.key -cert intermediate.crt -passin pass:changeit
-    @SneakyThrows
     public void revokeCert(CA ca, Cert cert) {
-        if (isCertRevoked(ca, cert)) {
-            log.info(cert.name + " is already revoked");
-            return;
-        }
-        assert Objects.nonNull(ca.password);
-        Path workingDirectory = getWorkingDirectory(ca);
-        Path certDirectory = getWorkingDirectory(cert);
-        List<String> cmd = List.of(
-                opensslBin, "ca",
-                "-config", workingDirectory.resolve("ca.conf").toString(),
-                "-revoke", certDirectory.resolve(cert.name + ".crt").toString(),
-                "-keyfile", workingDirectory.resolve(ca.name + ".key").toString(),
-                "-cert", workingDirectory.resolve(ca.name + ".crt").toString(),
-                "-passin", "pass:" + ca.password
-        );
-        execute(ca, cmd);
-        log.info(cert.name + " revoked");
-        generateCrl(ca, true);
-        generateCrlChainCert(ca, true);
+        revokeCerts(ca, List.of(cert));
     }
 
-    //openssl verify -crl_check -CAfile crl-chain.crt client2.crt
-    public boolean isCertRevoked(CA ca, Cert cert) {
-        Path workingDirectory = getWorkingDirectory(ca);
-        Path certDirectory = getWorkingDirectory(cert);
-        List<String> cmd = List.of(
-                opensslBin, "verify", "-crl_check",
-                "-CAfile", workingDirectory.resolve("certs").resolve("crl-chain.crt").toString(),
-                certDirectory.resolve(cert.name + ".crt").toString()
-        );
-        try {
-            execute(ca, cmd);
-        } catch (AssertionError ae) {
-            return true;
-        }
-        return false;
+    // the revocations take effect (certindex, index, OCSP) right away, the delta CRL is published once for all of them
+    public void revokeCerts(CA ca, List<Cert> certs) {
+        caMetrics.run("revoke-certs", ca, () -> caLocks.withLock(ca, () -> {
+            List<Cert> toRevoke = new ArrayList<>();
+            for (Cert cert : certs) {
+                if (isCertRevoked(ca, cert)) log.info(cert.name + " is already revoked");
+                else toRevoke.add(cert);
+            }
+            if (toRevoke.isEmpty()) return;
+            Instant before = Instant.now().truncatedTo(ChronoUnit.SECONDS);
+            signingEngine.revokeCerts(ca, toRevoke);
+            // the engine dates the certindex lines itself, read them back if a second went by meanwhile
+            Map<BigInteger, Instant> revocationDates = before.equals(Instant.now().truncatedTo(ChronoUnit.SECONDS)) ? Map.of() :
+                    revocationIndex.readRevocationDates(ca);
+            for (Cert cert : toRevoke) {
+                BigInteger serial = revocationIndex.getSerial(ca, cert);
+                revocationIndex.revoke(ca, serial, revocationDates.getOrDefault(serial, before));
+                ocspResponseCache.invalidate(ca, serial);
+                log.info(cert.name + " revoked");
+            }
+            crlPublisher.requestPublish(ca, () -> generateDeltaCrl(ca));
+        }));
     }
 
-    @SneakyThrows
-    public void copyChainCert(CA ca, Cert cert, boolean forceRecreate) {
-        if (forceRecreate) deleteOldFiles(cert, "chain.crt");
-        Path from = getWorkingDirectory(ca).resolve("certs").resolve("chain.crt");
-        Path to = getWorkingDirectory(cert).resolve("chain.crt");
-        if (Files.notExists(to))
-            Files.newInputStream(from).transferTo(Files.newOutputStream(to));
+    public boolean isCertRevoked(CA ca, Cert cert) {
+        return revocationIndex.isRevoked(ca, cert);
     }
 
-    //openssl pkcs12 -export -out client-keystore.p12 -inkey client.key -in client.crt -certfile chain.crt -passin pass:changeit -passout pass:changeit
-    public void generateKeyStore(Cert cert, boolean forceRecreate) {
-        assert Objects.nonNull(cert.password);
-        if (forceRecreate) deleteOldFiles(cert, "keystore.p12");
-        List<String> cmd = List.of(
-                opensslBin, "pkcs12", "-export",
-                "-out", "keystore.p12",
-                "-inkey", cert.name + ".key",
-                "-in", cert.name + ".crt",
-                "-certfile", "chain.crt",
-                "-passin", "pass:" + cert.password,
-                "-passout", "pass:" + cert.password
-        );
-        executeAndExpectOutputFile(cert, cmd, "keystore.p12");
+    public void copyChainCert(CA ca, Cert cert, boolean forceRecreate) {
+        caMetrics.run("copy-chain-cert", cert, () -> {
+            if (forceRecreate) deleteOldFiles(cert, "chain.crt");
+            Path from = getWorkingDirectory(ca).resolve("certs").resolve("chain.crt");
+            Path to = getWorkingDirectory(cert).resolve("chain.crt");
+            if (Files.notExists(to))
+                Files.newInputStream(from).transferTo(Files.newOutputStream(to));
+        });
     }
 
-    //keytool -importcert -alias ca -file ../rootca/rootca.crt -keystore truststore.p12 -storepass:file changeit -noprompt
-    @SneakyThrows
     public void generateTrustStore(CA ca, boolean forceRecreate) {
-        assert Objects.nonNull(ca.password);
-        Path workingDirectory = getWorkingDirectory(ca);
-        Files.createDirectories(workingDirectory.resolve("certs"));
-        if (forceRecreate) deleteOldFiles(ca, "certs/truststore.p12");
-        Path storepass = workingDirectory.resolve("storepass");
-        Files.writeString(storepass, ca.password);
-        List<String> cmd = List.of(
-                "keytool", "-importcert",
-                "-alias", "ca",
-                "-file", ca.name + ".crt",
-                "-keystore", "certs/truststore.p12",
-                "-storepass:file", "storepass",
-                "-noprompt"
-        );
-        executeAndExpectOutputFile(ca, cmd, "certs/truststore.p12");
-        Files.deleteIfExists(storepass);
-    }
-
-    @SneakyThrows
-    public void copyTrustStore(Cert cert) {
-        CA rootCA = cert.signingCA;
-        while (rootCA.signingCA != null) {
-            rootCA = rootCA.signingCA;
-        }
-        Path from = getWorkingDirectory(rootCA).resolve("certs").resolve("truststore.p12");
-        Path to = getWorkingDirectory(cert).resolve("truststore.p12");
-        assert Files.exists(from);
-        Files.newInputStream(from).transferTo(Files.newOutputStream(to));
-        log.info(to + " created");
+        caMetrics.run("generate-trust-store", ca, () -> {
+            Path workingDirectory = getWorkingDirectory(ca);
+            Files.createDirectories(workingDirectory.resolve("certs"));
+            if (forceRecreate) deleteOldFiles(ca, "certs/truststore.p12");
+            signingEngine.generateTrustStore(ca);
+        });
     }
 
     @SneakyThrows
@@ -370,117 +349,30 @@ public class CertAuthority {
         }
     }
 
-    //openssl req -new -nodes -out ocspSigning.csr -keyout ocspSigning.key
     public boolean generateOCSPPrivateKey(CA ca) {
-        assert Objects.nonNull(ca.getPassword());
-        String subject = Arrays.stream(ca.subject.split("/")).map(s -> (s.startsWith("CN=")) ? "CN=" + ca.name + " OCSP" : s).collect(Collectors.joining("/"));
-        List<String> cmd = List.of(
-                opensslBin,
-                "req", "-new", "-nodes",
-                "-subj", subject,
-                "-out", ca.getName() + "-ocsp-signer.csr",
-                "-keyout", ca.getName() + "-ocsp-signer.key"
-        );
-        return executeAndExpectOutputFile(ca, cmd, ca.getName() + "-ocsp-signer.key", ca.getName() + "-ocsp-signer.csr");
+        return caMetrics.call("generate-ocsp-private-key", ca, () -> {
+            boolean created = signingEngine.generateOCSPPrivateKey(ca);
+            if (created) signingKeyCache.invalidateOcspSigningKey(ca.name);
+            return created;
+        });
     }
 
-    //openssl ca -batch -keyfile rootCA.key -cert rootCA.crt -in ocspSigning.csr -out ocspSigning.crt -config validation.conf
     public boolean generateOCSPCert(CA ca) {
-        assert Objects.nonNull(ca.getPassword());
-        List<String> cmd = List.of(
-                opensslBin, "ca", "-batch",
-                "-keyfile", ca.name + ".key",
-                "-cert", ca.name + ".crt",
-                "-in", ca.name + "-ocsp-signer.csr",
-                "-out", ca.name + "-ocsp-signer.crt",
-                "-passin", "pass:" + ca.password,
-                "-config", "ca.conf"
-        );
-        return executeAndExpectOutputFile(ca, cmd, ca.getName() + "-ocsp-signer.crt");
+        return caMetrics.call("generate-ocsp-cert", ca, () -> caLocks.withLock(ca, () -> {
+            boolean created = signingEngine.generateOCSPCert(ca);
+            if (created) {
+                Path signerCert = getWorkingDirectory(ca).resolve(ca.name + "-ocsp-signer.crt");
+                revocationIndex.add(ca, ca.name + "-ocsp-signer", PemFiles.readCertificate(signerCert));
+            }
+            return created;
+        }));
     }
 
     public Runnable startOCSP(List<CA> allCA) {
-        List<String> cmd = allCA.stream()
-                .flatMap(ca -> {
-                    Path caDirectory = getWorkingDirectory(ca);
-                    return List.of(
-                            "-index", caDirectory.resolve("certindex").toString(),
-                            "-CA", caDirectory.resolve(ca.name + ".crt").toString(),
-                            "-rsigner", caDirectory.resolve(ca.name + "-ocsp-signer.crt").toString(),
-                            "-rkey", caDirectory.resolve(ca.name + "-ocsp-signer.key").toString()
-                    ).stream();
-                }).collect(Collectors.toList());
-        cmd.add(0, opensslBin);
-        cmd.add(1, "ocsp");
-        cmd.add("-port");
-        cmd.add(String.valueOf(configuration.getOcspPort()));
-        cmd.add("-text");
-        return () -> executeNoTimeout(cmd);
+        return opensslSigningEngine.startOCSP(allCA);
     }
 
-    @SneakyThrows
     private Path getWorkingDirectory(CertCA certCA) {
-        Path workingDirectory = basePath.resolve(certCA.getRelativePath());
-        Files.createDirectories(workingDirectory);
-        return workingDirectory;
-    }
-
-    @SneakyThrows
-    private boolean executeAndExpectOutputFile(CertCA certCA, List<String> cmd, String... outputName) {
-        Path workingDirectory = getWorkingDirectory(certCA);
-        Optional<Path> anyMissing = Arrays.stream(outputName)
-                .map(workingDirectory::resolve)
-                .filter(Files::notExists)
-                .findAny();
-        if (anyMissing.isPresent()) {
-            OutputStream error = new ByteArrayOutputStream();
-            ProcessResult result = new ProcessExecutor().command(cmd)
-                    .directory(workingDirectory.toFile())
-                    .redirectOutput(Slf4jStream.ofCaller().asTrace())
-                    .redirectError(error)
-                    .execute();
-            String errorMsg = error.toString();
-            if (Strings.isNotEmpty(errorMsg)) {
-                log.info(errorMsg);
-            }
-            assert result.getExitValue() == 0 : error.toString();
-            List<Path> fileMissing = Arrays.stream(outputName)
-                    .map(workingDirectory::resolve)
-                    .filter(Files::notExists)
-                    .collect(Collectors.toList());
-            assert fileMissing.size() == 0 : "files are missing: " + fileMissing;
-            log.info(String.join(",", outputName) + " file(s) created");
-            return true;
-        } else {
-            log.info(String.join(",", outputName) + " already existed");
-            return false;
-        }
-    }
-
-    @SneakyThrows
-    private void execute(CertCA certCA, List<String> cmd) {
-        Path workingDirectory = getWorkingDirectory(certCA);
-        OutputStream error = new ByteArrayOutputStream();
-        ProcessResult result = new ProcessExecutor().command(cmd)
-                .directory(workingDirectory.toFile())
-                .redirectOutput(Slf4jStream.ofCaller().asTrace())
-                .redirectError(error)
-                .execute();
-        assert result.getExitValue() == 0 : error.toString();
-    }
-
-    @SneakyThrows
-    private void executeNoTimeout(List<String> cmd) {
-        Path workingDirectory = Paths.get(configuration.caPath);
-        OutputStream error = new ByteArrayOutputStream();
-        ProcessResult result = new ProcessExecutor().command(cmd)
-                .directory(workingDirectory.toFile())
-                .redirectOutput(Slf4jStream.ofCaller().asTrace())
-                .redirectError(error)
-                .executeNoTimeout();
-        String errorMsg = error.toString();
-        if (Strings.isNotEmpty(errorMsg))
-            log.info(errorMsg);
-        assert result.getExitValue() == 0 : error.toString();
+        return caPaths.getWorkingDirectory(certCA);
     }
 }
@@ -9,6 +9,16 @@ import org.springframework.stereotype.Component;
 import javax.annotation.PostConstruct;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 
 @Component
 @Slf4j
@@ -17,19 +27,74 @@ public class CertCABuilder {
     SimpleCertAuthConfiguration configuration;
     @Autowired
     CertAuthority certAuthority;
+    @Autowired
+    SigningKeyCache signingKeyCache;
+    @Autowired
+    DatabaseJournal journal;
+    @Autowired
+    RevocationIndex revocationIndex;
+    @Autowired
+    BuildFingerprints fingerprints;
+    @Autowired
+    CertInventory inventory;
     @Value("${server.port}")
     int serverPort;
 
+    private final BuildTimings timings = new BuildTimings();
+
     @SneakyThrows
     @PostConstruct
     public void buildCA() {
+        long start = System.nanoTime();
         Files.createDirectories(Paths.get(configuration.caPath));
         CA rootca = configuration.rootca;
         rootca.name = "rootca";
-        buildCA(null, rootca);
+        journal.replay(rootca);
+        long replayed = System.nanoTime();
+        AtomicInteger threadCount = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, configuration.buildParallelism), runnable -> {
+            Thread thread = new Thread(runnable, "ca-build-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            join(buildTree(null, rootca, executor));
+        } finally {
+            executor.shutdownNow();
+        }
+        long built = System.nanoTime();
+        log.info("startup: journal replay {}ms, build {}ms on {} thread(s) - {} CA in {}ms ({} unchanged), {} cert(s) in {}ms, index check {}ms (cumulative)",
+                TimeUnit.NANOSECONDS.toMillis(replayed - start), TimeUnit.NANOSECONDS.toMillis(built - replayed), configuration.buildParallelism,
+                timings.caCount, TimeUnit.NANOSECONDS.toMillis(timings.caNanos.sum()), timings.skipped,
+                timings.certCount, TimeUnit.NANOSECONDS.toMillis(timings.certNanos.sum()),
+                TimeUnit.NANOSECONDS.toMillis(timings.verifyNanos.sum()));
     }
 
+    // a CA created through the API has no children, it's built on the calling thread
     public void buildCA(CA parent, CA ca) {
+        join(buildTree(parent, ca, Runnable::run));
+    }
+
+    /*
+     * the sub-CA and certs of a CA only need the CA itself to be ready, so siblings are built in parallel;
+     * everything touching the index of a CA is serialized by CALocks
+     */
+    private CompletableFuture<Void> buildTree(CA parent, CA ca, Executor executor) {
+        return CompletableFuture.runAsync(() -> timings.time(timings.caNanos, timings.caCount, () -> buildCAItself(parent, ca)), executor)
+                .thenCompose(ignored -> {
+                    List<CompletableFuture<Void>> children = new ArrayList<>();
+                    for (CA child : ca.ca) {
+                        children.add(buildTree(ca, child, executor));
+                    }
+                    for (Cert cert : ca.certs) {
+                        children.add(CompletableFuture.runAsync(() -> timings.time(timings.certNanos, timings.certCount, () -> buildCert(ca, cert)), executor));
+                    }
+                    return CompletableFuture.allOf(children.toArray(new CompletableFuture<?>[0]));
+                })
+                .thenRun(() -> timings.time(timings.verifyNanos, null, () -> revocationIndex.verify(ca)));
+    }
+
+    private void buildCAItself(CA parent, CA ca) {
         log.info("building {}", ca.name);
         if (ca.password == null) {
             ca.password = configuration.defaultPassword;
@@ -38,41 +103,85 @@ public class CertCABuilder {
         ca.port = serverPort;
         ca.ocspPort = configuration.ocspPort;
         ca.signingCA = parent;
+        if (parent != null) ca.signingCAName = parent.name;
+        if (!configuration.recreate && fingerprints.isUnchanged(ca)) {
+            log.info("{} unchanged since the last build", ca.name);
+            timings.skipped.increment();
+            certAuthority.generateCrl(ca, false); // still schedules its CRLs
+            return;
+        }
         if (configuration.recreate) certAuthority.cleanUp(ca);
         boolean keyCreated = certAuthority.generatePrivateKey(ca);
+        if (keyCreated) signingKeyCache.invalidate(ca.name);
         boolean certCreated;
         if (parent == null) {
             certCreated = certAuthority.generateCert(ca, keyCreated); // force regenerate cert if key is newly created
             certAuthority.generateTrustStore(ca, certCreated); // only root ca need truststore and regenerate if cert is updated
         } else {
-            ca.signingCAName = parent.name;
             boolean csrCreated = certAuthority.generateCSR(ca, keyCreated);
             certCreated = certAuthority.signCert(ca, csrCreated);
         }
         certAuthority.createIndexFiles(ca, certCreated); // reset indices if cert is newly created
-        certAuthority.generateCAConfig(ca); // recreate the ca.conf regardless if any cert/key changes, it's driven by the application.yaml changes
+        certAuthority.generateCAConfig(ca); // driven by the application.yaml, rewritten whenever it changes regardless of the cert/key
         certAuthority.generateCrl(ca, certCreated);
         certAuthority.generateChainCert(ca, certCreated);
         certAuthority.generateOCSPPrivateKey(ca);
         certAuthority.generateOCSPCert(ca);
-        for (CA child : ca.ca) {
-            buildCA(ca, child);
-        }
-        for (Cert cert : ca.certs) {
-            buildCert(ca, cert);
-        }
+        fingerprints.record(ca);
+    }
+
+    public void revokeCerts(CA ca, List<Cert> certs) {
+        certs.forEach(cert -> cert.signingCA = ca);
+        certAuthority.revokeCerts(ca, certs);
+        certs.forEach(cert -> inventory.update(ca, cert));
     }
 
     public void buildCert(CA ca, Cert cert) {
         if (cert.password == null) cert.password = configuration.defaultPassword;
         cert.signingCA = ca;
-        boolean keyCreated = certAuthority.generatePrivateKey(cert);
+        if (!configuration.recreate && fingerprints.isUnchanged(cert)) {
+            log.info("{} unchanged since the last build", cert.name);
+            inventory.update(ca, cert);
+            return;
+        }
+        boolean keyCreated = certAuthority.generatePrivateKeyFromPool(cert);
         boolean csrCreated = certAuthority.generateCSR(cert, keyCreated);
         certAuthority.signCert(cert, csrCreated);
         certAuthority.copyChainCert(ca, cert, csrCreated);
         if (cert.revoked) certAuthority.revokeCert(ca, cert);
         certAuthority.verifyCert(ca, cert);
-        certAuthority.generateKeyStore(cert, csrCreated);
-        certAuthority.copyTrustStore(cert);
+        certAuthority.deleteOldFiles(cert, "keystore.p12", "truststore.p12"); // assembled when downloaded now
+        fingerprints.record(cert);
+        inventory.update(ca, cert);
+    }
+
+    // rethrow what failed in the build, not the CompletionException around it
+    private static void join(CompletableFuture<Void> future) {
+        try {
+            future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+            if (e.getCause() instanceof Error) throw (Error) e.getCause();
+            throw e;
+        }
+    }
+
+    private static class BuildTimings {
+        final LongAdder caNanos = new LongAdder();
+        final LongAdder caCount = new LongAdder();
+        final LongAdder certNanos = new LongAdder();
+        final LongAdder certCount = new LongAdder();
+        final LongAdder verifyNanos = new LongAdder();
+        final LongAdder skipped = new LongAdder();
+
+        void time(LongAdder nanos, LongAdder count, Runnable runnable) {
+            long start = System.nanoTime();
+            try {
+                runnable.run();
+            } finally {
+                nanos.add(System.nanoTime() - start);
+                if (count != null) count.increment();
+            }
+        }
     }
 }
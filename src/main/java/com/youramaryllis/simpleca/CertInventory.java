@@ -0,0 +1,220 @@
+package com.youramaryllis.simpleca;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.math.BigInteger;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NavigableSet;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.function.Predicate;
+
+/**
+ * Summary of every cert issued from the configured CA, for {@code GET /api/cert}.
+ * <p>
+ * Entries are sorted by {@code <ca>/<name>}, which is also the pagination cursor, and indexed by name, serial,
+ * subject, expiry day ({@code notAfter}) and revocation in sets sorted the same way, so a page is read from the
+ * cursor on in the index without copying it. An expiry range merges the sets of its days, their number bounds the
+ * memory of a query whatever the number of certs. Valid certs are the bulk of the entries and have no index,
+ * they are filtered while walking the sorted entries. A page never holds more than {@code limit} entries.
+ * {@link CertCABuilder} updates an entry whenever a cert is built or revoked.
+ */
+@Component
+public class CertInventory {
+    @Autowired
+    RevocationIndex revocationIndex;
+
+    private final ConcurrentSkipListMap<String, Entry> entries = new ConcurrentSkipListMap<>();
+    private final Map<String, NavigableSet<String>> byName = new ConcurrentHashMap<>();
+    private final Map<String, NavigableSet<String>> bySerial = new ConcurrentHashMap<>();
+    private final Map<String, NavigableSet<String>> bySubject = new ConcurrentHashMap<>();
+    // by the day of notAfter
+    private final ConcurrentSkipListMap<Instant, NavigableSet<String>> byNotAfter = new ConcurrentSkipListMap<>();
+    private final NavigableSet<String> revoked = new ConcurrentSkipListSet<>();
+
+    // (re)reads the serial, expiry and revocation of the cert from the index of its CA
+    public void update(CA ca, Cert cert) {
+        BigInteger serial = revocationIndex.getSerial(ca, cert);
+        RevocationIndex.Entry indexEntry = revocationIndex.lookup(ca, serial).orElse(null);
+        Entry entry = new Entry(ca.name, cert.name, serial.toString(16), cert.subject,
+                (indexEntry == null) ? null : indexEntry.getExpiry(),
+                (indexEntry == null) ? null : indexEntry.getRevocationDate());
+        String key = entry.getKey();
+        Entry previous = entries.put(key, entry);
+        if (previous != null) {
+            remove(bySerial, previous.serial, key);
+            remove(bySubject, previous.subject, key);
+            remove(byNotAfter, toDay(previous.notAfter), key);
+        }
+        add(byName, entry.name, key);
+        add(bySerial, entry.serial, key);
+        add(bySubject, entry.subject, key);
+        add(byNotAfter, toDay(entry.notAfter), key);
+        if (entry.revocationDate != null) revoked.add(key);
+        else revoked.remove(key);
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * Entries after the cursor (exclusive) matching the query, at most limit of them.
+     */
+    public List<Entry> search(Query query, String cursor, int limit) {
+        Predicate<Entry> filter = query.toPredicate();
+        List<Entry> page = new ArrayList<>();
+        Iterator<String> keys = getCandidates(query, cursor);
+        while (page.size() < limit && keys.hasNext()) {
+            Entry entry = entries.get(keys.next());
+            if (entry != null && filter.test(entry)) page.add(entry);
+        }
+        return page;
+    }
+
+    // keys after the cursor the query can match, in order, all the entries without a better index
+    private Iterator<String> getCandidates(Query query, String cursor) {
+        if (query.serial != null) return byKey(bySerial, new BigInteger(query.serial, 16).toString(16), query.ca, cursor);
+        if (query.name != null) return byKey(byName, query.name, query.ca, cursor);
+        if (query.subject != null) return byKey(bySubject, query.subject, query.ca, cursor);
+        if (query.status == Status.REVOKED) return range(revoked, query.ca, cursor).iterator();
+        Instant before = query.expiresBefore;
+        if (query.status == Status.EXPIRED) {
+            Instant now = Instant.now();
+            if (before == null || now.isBefore(before)) before = now;
+        }
+        if (before == null && query.expiresAfter == null) return range(entries.navigableKeySet(), query.ca, cursor).iterator();
+        // the days partly in the range too, the filter takes the exact bounds
+        NavigableMap<Instant, NavigableSet<String>> days = byNotAfter;
+        if (before != null) days = days.headMap(toDay(before), true);
+        if (query.expiresAfter != null) days = days.tailMap(toDay(query.expiresAfter), true);
+        List<Iterator<String>> dayKeys = new ArrayList<>();
+        for (NavigableSet<String> keys : days.values()) dayKeys.add(range(keys, query.ca, cursor).iterator());
+        return new MergedKeys(dayKeys);
+    }
+
+    // the keys of the CA after the cursor
+    private static NavigableSet<String> range(NavigableSet<String> keys, String ca, String cursor) {
+        if (ca == null) return (cursor == null) ? keys : keys.tailSet(cursor, false);
+        String first = ca + "/";
+        String end = ca + "0"; // '0' follows '/'
+        if (cursor == null || cursor.compareTo(first) < 0) return keys.subSet(first, true, end, false);
+        if (cursor.compareTo(end) >= 0) return Collections.emptyNavigableSet();
+        return keys.subSet(cursor, false, end, false);
+    }
+
+    private static Iterator<String> byKey(Map<String, NavigableSet<String>> index, String value, String ca, String cursor) {
+        NavigableSet<String> keys = index.get(value);
+        return (keys == null) ? Collections.emptyIterator() : range(keys, ca, cursor).iterator();
+    }
+
+    private static Instant toDay(Instant instant) {
+        return (instant == null) ? null : instant.truncatedTo(ChronoUnit.DAYS);
+    }
+
+    private static <V> void add(Map<V, NavigableSet<String>> index, V value, String key) {
+        if (value != null) index.computeIfAbsent(value, v -> new ConcurrentSkipListSet<>()).add(key);
+    }
+
+    private static <V> void remove(Map<V, NavigableSet<String>> index, V value, String key) {
+        if (value == null) return;
+        index.computeIfPresent(value, (v, keys) -> {
+            keys.remove(key);
+            return keys.isEmpty() ? null : keys;
+        });
+    }
+
+    // sorted keys of sorted iterators, holding the next key of each
+    private static class MergedKeys implements Iterator<String> {
+        private final PriorityQueue<Map.Entry<String, Iterator<String>>> heads =
+                new PriorityQueue<>(Map.Entry.comparingByKey());
+        private String last;
+
+        MergedKeys(List<Iterator<String>> iterators) {
+            iterators.forEach(this::advance);
+            skipLast();
+        }
+
+        @Override
+        public boolean hasNext() {
+            return !heads.isEmpty();
+        }
+
+        @Override
+        public String next() {
+            if (heads.isEmpty()) throw new NoSuchElementException();
+            Map.Entry<String, Iterator<String>> head = heads.poll();
+            last = head.getKey();
+            advance(head.getValue());
+            skipLast();
+            return last;
+        }
+
+        private void advance(Iterator<String> iterator) {
+            if (iterator.hasNext()) heads.add(new AbstractMap.SimpleImmutableEntry<>(iterator.next(), iterator));
+        }
+
+        // a key moving to another day while being read can be in two sets
+        private void skipLast() {
+            while (!heads.isEmpty() && heads.peek().getKey().equals(last)) advance(heads.poll().getValue());
+        }
+    }
+
+    enum Status {VALID, REVOKED, EXPIRED}
+
+    @Data
+    @AllArgsConstructor
+    static class Entry {
+        String ca;
+        String name;
+        String serial;
+        String subject;
+        Instant notAfter;
+        Instant revocationDate;
+
+        String getKey() {
+            return ca + "/" + name;
+        }
+
+        public Status getStatus() {
+            if (revocationDate != null) return Status.REVOKED;
+            if (notAfter != null && notAfter.isBefore(Instant.now())) return Status.EXPIRED;
+            return Status.VALID;
+        }
+    }
+
+    @Data
+    static class Query {
+        String ca;
+        String name;
+        // hex
+        String serial;
+        String subject;
+        Status status;
+        Instant expiresBefore;
+        Instant expiresAfter;
+
+        Predicate<Entry> toPredicate() {
+            return entry -> (ca == null || ca.equals(entry.ca))
+                    && (name == null || name.equals(entry.name))
+                    && (subject == null || subject.equals(entry.subject))
+                    && (status == null || status == entry.getStatus())
+                    && (expiresBefore == null || (entry.notAfter != null && entry.notAfter.isBefore(expiresBefore)))
+                    && (expiresAfter == null || (entry.notAfter != null && entry.notAfter.isAfter(expiresAfter)));
+        }
+    }
+}
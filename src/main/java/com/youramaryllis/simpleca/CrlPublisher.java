@@ -0,0 +1,99 @@
+package com.youramaryllis.simpleca;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Schedules the CRL publication of each CA.
+ * <p>
+ * Revocations only publish a small delta CRL, coalesced by {@link #requestPublish(CA, Runnable)};
+ * the full CRL of a CA is regenerated every {@code simpleca.crl.fullIntervalMinutes} by the task
+ * {@link CertAuthority} registers here.
+ */
+@Component
+@Slf4j
+public class CrlPublisher {
+    @Autowired
+    SimpleCertAuthConfiguration configuration;
+
+    private final Map<String, ScheduledFuture<?>> fullCrlTasks = new ConcurrentHashMap<>();
+    private final Map<String, PendingPublish> pendingPublishes = new HashMap<>();
+    private ScheduledExecutorService scheduler;
+
+    @PostConstruct
+    public void setup() {
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "crl-publisher");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        scheduler.shutdownNow();
+    }
+
+    // only the first registration of a CA counts
+    public void scheduleFullCrl(CA ca, Runnable regenerate) {
+        int interval = configuration.crl.fullIntervalMinutes;
+        if (interval <= 0) return;
+        fullCrlTasks.computeIfAbsent(ca.name, name -> scheduler.scheduleWithFixedDelay(
+                () -> publish(name, regenerate), interval, interval, TimeUnit.MINUTES));
+    }
+
+    /**
+     * Publish after {@code simpleca.crl.publishDelaySeconds} without a new request, so a burst of revocations
+     * is covered by one publication, but never later than {@code simpleca.crl.maxStalenessSeconds} after the first one.
+     */
+    public synchronized void requestPublish(CA ca, Runnable publish) {
+        long delay = TimeUnit.SECONDS.toMillis(configuration.crl.publishDelaySeconds);
+        if (delay <= 0) {
+            scheduler.execute(() -> publish(ca.name, publish));
+            return;
+        }
+        long now = System.currentTimeMillis();
+        PendingPublish pending = pendingPublishes.get(ca.name);
+        // a publication already running doesn't cover this request
+        if (pending == null || !pending.task.cancel(false)) {
+            pending = new PendingPublish(now);
+            pendingPublishes.put(ca.name, pending);
+        }
+        long deadline = pending.firstRequest + TimeUnit.SECONDS.toMillis(configuration.crl.maxStalenessSeconds);
+        PendingPublish scheduled = pending;
+        pending.task = scheduler.schedule(() -> {
+            synchronized (this) {
+                pendingPublishes.remove(ca.name, scheduled);
+            }
+            publish(ca.name, publish);
+        }, Math.max(0, Math.min(delay, deadline - now)), TimeUnit.MILLISECONDS);
+    }
+
+    private void publish(String caName, Runnable publish) {
+        try {
+            publish.run();
+        } catch (Throwable throwable) {
+            log.info("failed to publish the CRL of {}", caName, throwable);
+        }
+    }
+
+    private static class PendingPublish {
+        final long firstRequest;
+        ScheduledFuture<?> task;
+
+        PendingPublish(long firstRequest) {
+            this.firstRequest = firstRequest;
+        }
+    }
+}
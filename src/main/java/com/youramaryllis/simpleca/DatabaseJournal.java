@@ -0,0 +1,246 @@
+package com.youramaryllis.simpleca;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.SneakyThrows;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Write-ahead journal of the database mutations (add CA, add cert, revoke).
+ * <p>
+ * Each mutation is one json line appended to {@code <db file>.journal}, a writer thread fsyncs whatever
+ * is queued in one group commit. The full yaml is only written by {@link #compact(String)}, which
+ * replaces the db file atomically and truncates the journal.
+ * On startup the journal is replayed on top of the db file before the CA are built.
+ */
+@Component
+@Slf4j
+public class DatabaseJournal {
+    private static final PendingRecord SHUTDOWN = new PendingRecord(new byte[0], null);
+
+    @Value("${spring.config.location}")
+    String location;
+    Path snapshotPath;
+    Path journalPath;
+
+    private final ObjectMapper mapper = new ObjectMapper()
+            .setSerializationInclusion(JsonInclude.Include.NON_EMPTY)
+            .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+    private final BlockingQueue<PendingRecord> queue = new LinkedBlockingQueue<>();
+    private final AtomicLong recordsSinceSnapshot = new AtomicLong();
+    private CompletableFuture<Void> lastCommit = CompletableFuture.completedFuture(null);
+    private FileChannel channel;
+    private Thread writer;
+
+    @SneakyThrows
+    @PostConstruct
+    public void setup() {
+        snapshotPath = Paths.get(Arrays.stream(location.split(","))
+                .filter(s -> !s.startsWith("classpath"))
+                .findFirst()
+                .orElse(Paths.get(".").resolve("simpleca.yaml").normalize().toString()));
+        journalPath = Paths.get(snapshotPath + ".journal");
+        channel = FileChannel.open(journalPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        writer = new Thread(this::writeLoop, "db-journal");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    @SneakyThrows
+    @PreDestroy
+    public void shutdown() {
+        queue.put(SHUTDOWN);
+        writer.join();
+        channel.close();
+    }
+
+    public Path getSnapshotPath() {
+        return snapshotPath;
+    }
+
+    public long getRecordsSinceSnapshot() {
+        return recordsSinceSnapshot.get();
+    }
+
+    // apply the journal left by the last run on top of the CA loaded from the db file
+    @SneakyThrows
+    public void replay(CA rootCA) {
+        if (Files.notExists(journalPath)) return;
+        Map<String, CA> caMap = new HashMap<>();
+        addCA2MapRecursively(caMap, rootCA);
+        List<String> lines = Files.readAllLines(journalPath);
+        int replayed = 0;
+        for (int i = 0; i < lines.size(); i++) {
+            if (lines.get(i).isBlank()) continue;
+            try {
+                apply(caMap, mapper.readValue(lines.get(i), JournalRecord.class));
+                replayed++;
+            } catch (IOException e) {
+                // only the tail can be torn by a crash in the middle of a write
+                if (i != lines.size() - 1) throw e;
+                log.info("ignoring incomplete journal record at the end of {}", journalPath);
+            }
+        }
+        recordsSinceSnapshot.set(replayed);
+        log.info("{} journal record(s) replayed from {}", replayed, journalPath);
+    }
+
+    @SneakyThrows
+    public String toJson(JournalRecord record) {
+        return mapper.writeValueAsString(record);
+    }
+
+    @SneakyThrows
+    public JournalRecord fromJson(String json) {
+        return mapper.readValue(json, JournalRecord.class);
+    }
+
+    // the record is serialized right away, later changes of the CA/cert don't leak into it
+    @SneakyThrows
+    public synchronized CompletableFuture<Void> append(JournalRecord record) {
+        byte[] line = (mapper.writeValueAsString(record) + "\n").getBytes(StandardCharsets.UTF_8);
+        PendingRecord pendingRecord = new PendingRecord(line, new CompletableFuture<>());
+        queue.put(pendingRecord);
+        lastCommit = pendingRecord.committed;
+        return pendingRecord.committed;
+    }
+
+    // wait until everything appended so far is on disk
+    public void sync() {
+        CompletableFuture<Void> commit;
+        synchronized (this) {
+            commit = lastCommit;
+        }
+        commit.join();
+    }
+
+    // caller makes sure nothing is appended while the snapshot is taken and written
+    @SneakyThrows
+    public synchronized void compact(String snapshot) {
+        lastCommit.join();
+        Path newSnapshotPath = Paths.get(snapshotPath + ".new");
+        try (FileChannel snapshotChannel = FileChannel.open(newSnapshotPath,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = ByteBuffer.wrap(snapshot.getBytes(StandardCharsets.UTF_8));
+            while (buffer.hasRemaining()) snapshotChannel.write(buffer);
+            snapshotChannel.force(true);
+        }
+        Files.move(newSnapshotPath, snapshotPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        channel.truncate(0);
+        channel.force(true);
+        recordsSinceSnapshot.set(0);
+    }
+
+    private void writeLoop() {
+        List<PendingRecord> batch = new ArrayList<>();
+        while (true) {
+            try {
+                batch.add(queue.take());
+                queue.drainTo(batch);
+                boolean shutdown = batch.remove(SHUTDOWN);
+                for (PendingRecord pendingRecord : batch) {
+                    ByteBuffer buffer = ByteBuffer.wrap(pendingRecord.line);
+                    while (buffer.hasRemaining()) channel.write(buffer);
+                }
+                if (!batch.isEmpty()) {
+                    channel.force(false);
+                    recordsSinceSnapshot.addAndGet(batch.size());
+                    batch.forEach(pendingRecord -> pendingRecord.committed.complete(null));
+                }
+                if (shutdown) return;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Throwable throwable) {
+                log.info("failed to write journal", throwable);
+                batch.forEach(pendingRecord -> pendingRecord.committed.completeExceptionally(throwable));
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private void apply(Map<String, CA> caMap, JournalRecord record) {
+        CA ca = caMap.get(record.caName);
+        if (ca == null) {
+            log.info("skipping journal record {} of unknown CA {}", record.type, record.caName);
+            return;
+        }
+        switch (record.type) {
+            case ADD_CA:
+                if (caMap.putIfAbsent(record.ca.name, record.ca) == null) ca.ca.add(record.ca);
+                break;
+            case ADD_CERT:
+                if (ca.certs.stream().noneMatch(c -> c.name.equals(record.cert.name))) ca.certs.add(record.cert);
+                break;
+            case REVOKE:
+                ca.certs.stream().filter(c -> c.name.equals(record.certName)).forEach(c -> c.revoked = true);
+                break;
+        }
+    }
+
+    private void addCA2MapRecursively(Map<String, CA> caMap, CA ca) {
+        caMap.put(ca.name, ca);
+        for (CA downstreamCA : ca.ca) {
+            addCA2MapRecursively(caMap, downstreamCA);
+        }
+    }
+
+    @AllArgsConstructor
+    private static class PendingRecord {
+        final byte[] line;
+        final CompletableFuture<Void> committed;
+    }
+}
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+class JournalRecord {
+    enum Type {ADD_CA, ADD_CERT, REVOKE}
+
+    Type type;
+    String caName;
+    CA ca;
+    Cert cert;
+    String certName;
+
+    static JournalRecord addCA(CA signingCA, CA ca) {
+        return new JournalRecord(Type.ADD_CA, signingCA.name, ca, null, null);
+    }
+
+    static JournalRecord addCert(CA ca, Cert cert) {
+        return new JournalRecord(Type.ADD_CERT, ca.name, null, cert, null);
+    }
+
+    static JournalRecord revoke(CA ca, Cert cert) {
+        return new JournalRecord(Type.REVOKE, ca.name, null, null, cert.name);
+    }
+}
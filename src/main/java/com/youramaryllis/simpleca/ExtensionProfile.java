@@ -0,0 +1,141 @@
+package com.youramaryllis.simpleca;
+
+import lombok.SneakyThrows;
+import org.bouncycastle.asn1.x509.AccessDescription;
+import org.bouncycastle.asn1.x509.AuthorityInformationAccess;
+import org.bouncycastle.asn1.x509.BasicConstraints;
+import org.bouncycastle.asn1.x509.CRLDistPoint;
+import org.bouncycastle.asn1.x509.DistributionPoint;
+import org.bouncycastle.asn1.x509.DistributionPointName;
+import org.bouncycastle.asn1.x509.ExtendedKeyUsage;
+import org.bouncycastle.asn1.x509.Extension;
+import org.bouncycastle.asn1.x509.GeneralName;
+import org.bouncycastle.asn1.x509.GeneralNames;
+import org.bouncycastle.asn1.x509.KeyPurposeId;
+import org.bouncycastle.asn1.x509.KeyUsage;
+import org.bouncycastle.cert.X509v3CertificateBuilder;
+import org.bouncycastle.cert.jcajce.JcaX509ExtensionUtils;
+
+import java.security.PublicKey;
+import java.util.Map;
+
+/**
+ * The {@code [ myca_extensions ]} section of the ca.conf of a CA, parsed once from its config,
+ * for {@link JcaSigningEngine} to add to the certs it issues without rendering the template.
+ */
+class ExtensionProfile {
+    private static final String ROOT_KEY_USAGE = "digitalSignature,keyEncipherment,cRLSign,keyCertSign";
+    private static final Map<String, Integer> KEY_USAGES = Map.of(
+            "digitalSignature", KeyUsage.digitalSignature,
+            "nonRepudiation", KeyUsage.nonRepudiation,
+            "keyEncipherment", KeyUsage.keyEncipherment,
+            "dataEncipherment", KeyUsage.dataEncipherment,
+            "keyAgreement", KeyUsage.keyAgreement,
+            "keyCertSign", KeyUsage.keyCertSign,
+            "cRLSign", KeyUsage.cRLSign,
+            "encipherOnly", KeyUsage.encipherOnly,
+            "decipherOnly", KeyUsage.decipherOnly
+    );
+
+    // the CA it was parsed from, a CA recreated under the same name gets a new profile
+    final CA issuer;
+    final int days;
+    final BasicConstraints basicConstraints;
+    // null when the CA has no keyUsage
+    final KeyUsage keyUsage;
+    final boolean keyUsageCritical;
+    final ExtendedKeyUsage extendedKeyUsage;
+    final CRLDistPoint crlDistributionPoints;
+    final AuthorityInformationAccess authorityInfoAccess;
+    // null when the CA has no subjectAltName
+    final GeneralNames subjectAltNames;
+
+    private ExtensionProfile(CA issuer) {
+        this.issuer = issuer;
+        this.days = getDefaultDays(issuer);
+        this.basicConstraints = !Boolean.TRUE.equals(issuer.caConstraint) ? new BasicConstraints(false) :
+                (issuer.pathLenConstraint == null) ? new BasicConstraints(true) : new BasicConstraints(issuer.pathLenConstraint);
+        String keyUsage = (issuer.signingCA == null) ? ROOT_KEY_USAGE : issuer.keyUsage;
+        boolean critical = false;
+        int usage = 0;
+        if (keyUsage != null && !keyUsage.isBlank()) {
+            for (String name : keyUsage.split(",")) {
+                name = name.trim();
+                if (name.equals("critical")) {
+                    critical = true;
+                    continue;
+                }
+                Integer bit = KEY_USAGES.get(name);
+                if (bit == null) throw new AssertionError("unknown keyUsage " + name);
+                usage |= bit;
+            }
+            this.keyUsage = new KeyUsage(usage);
+        } else {
+            this.keyUsage = null;
+        }
+        this.keyUsageCritical = critical;
+        this.extendedKeyUsage = new ExtendedKeyUsage(issuer.clientAuth ?
+                new KeyPurposeId[]{KeyPurposeId.id_kp_serverAuth, KeyPurposeId.id_kp_clientAuth} :
+                new KeyPurposeId[]{KeyPurposeId.id_kp_serverAuth});
+        String baseUrl = getBaseUrl(issuer);
+        GeneralName crlUrl = new GeneralName(GeneralName.uniformResourceIdentifier, baseUrl + ".crl");
+        this.crlDistributionPoints = new CRLDistPoint(new DistributionPoint[]{
+                new DistributionPoint(new DistributionPointName(new GeneralNames(crlUrl)), null, null)
+        });
+        String ocspUrl = "http://" + issuer.host + ":" + issuer.ocspPort + ((issuer.signingCA == null) ? "" : "/");
+        this.authorityInfoAccess = new AuthorityInformationAccess(new AccessDescription[]{
+                new AccessDescription(AccessDescription.id_ad_caIssuers, new GeneralName(GeneralName.uniformResourceIdentifier, baseUrl + ".crt")),
+                new AccessDescription(AccessDescription.id_ad_ocsp, new GeneralName(GeneralName.uniformResourceIdentifier, ocspUrl))
+        });
+        this.subjectAltNames = (issuer.signingCA != null && !issuer.subjectAltName.isEmpty()) ?
+                new GeneralNames(issuer.subjectAltName.stream().map(ExtensionProfile::toGeneralName).toArray(GeneralName[]::new)) : null;
+    }
+
+    static ExtensionProfile of(CA issuer) {
+        return new ExtensionProfile(issuer);
+    }
+
+    @SneakyThrows
+    void addExtensions(X509v3CertificateBuilder builder, PublicKey publicKey, PublicKey issuerPublicKey) {
+        JcaX509ExtensionUtils extensionUtils = new JcaX509ExtensionUtils();
+        builder.addExtension(Extension.basicConstraints, true, basicConstraints);
+        builder.addExtension(Extension.subjectKeyIdentifier, false, extensionUtils.createSubjectKeyIdentifier(publicKey));
+        builder.addExtension(Extension.authorityKeyIdentifier, false, extensionUtils.createAuthorityKeyIdentifier(issuerPublicKey));
+        if (keyUsage != null) builder.addExtension(Extension.keyUsage, keyUsageCritical, keyUsage);
+        builder.addExtension(Extension.extendedKeyUsage, false, extendedKeyUsage);
+        builder.addExtension(Extension.cRLDistributionPoints, false, crlDistributionPoints);
+        builder.addExtension(Extension.authorityInfoAccess, false, authorityInfoAccess);
+        if (subjectAltNames != null) builder.addExtension(Extension.subjectAlternativeName, false, subjectAltNames);
+    }
+
+    // where CAController serves the files of the CA
+    static String getBaseUrl(CA ca) {
+        return "http://" + ca.host + ":" + ca.port + "/ca/" + ca.relativePath + "/" + ca.name;
+    }
+
+    // default_days/default_crl_days of the ca.conf templates
+    static int getDefaultDays(CA ca) {
+        return (ca.signingCA == null) ? 730 : 365;
+    }
+
+    // "DNS.0 = localhost" as in the [alt_names] section
+    private static GeneralName toGeneralName(String altName) {
+        int separator = altName.indexOf('=');
+        if (separator < 0) throw new AssertionError("invalid subjectAltName " + altName);
+        String type = altName.substring(0, separator).trim();
+        if (type.contains(".")) type = type.substring(0, type.indexOf('.'));
+        String value = altName.substring(separator + 1).trim();
+        switch (type) {
+            case "DNS":
+                return new GeneralName(GeneralName.dNSName, value);
+            case "IP":
+                return new GeneralName(GeneralName.iPAddress, value);
+            case "email":
+                return new GeneralName(GeneralName.rfc822Name, value);
+            case "URI":
+                return new GeneralName(GeneralName.uniformResourceIdentifier, value);
+            default:
+                throw new AssertionError("unsupported subjectAltName " + altName);
+        }
+    }
+}
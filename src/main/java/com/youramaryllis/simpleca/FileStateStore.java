@@ -0,0 +1,242 @@
+package com.youramaryllis.simpleca;
+
+import lombok.SneakyThrows;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+
+/**
+ * {@link StateStore} in a directory shared by the nodes (e.g. NFS with working locks).
+ * <p>
+ * The lease of a CA is an OS lock on {@code leases/<ca>.lock}, which keeps the id of the last node holding it.
+ * Records are appended to {@code records.log} as {@code <node>\t<json>} lines under a lock of {@code records.lock},
+ * {@code records.base} keeps the position in the log of the first line of {@code records.log}.
+ * Each node saves the position up to which it applied the log in {@code nodes/<node>};
+ * once the log is longer than {@code compactThreshold} the lines every node applied are dropped.
+ * A node gone for good must have its file deleted, or the log is never compacted past what it applied.
+ */
+@Slf4j
+class FileStateStore implements StateStore {
+    private static final int CHUNK_SIZE = 64 * 1024;
+    // records returned by one poll, the rest comes with the next ones
+    private static final int MAX_RECORDS_PER_POLL = 10_000;
+    // OS locks are held by the process, the nodes of one JVM (as in the tests) first take a lock of the JVM
+    private static final Map<Path, ReentrantLock> JVM_LOCKS = new ConcurrentHashMap<>();
+
+    private final String nodeId;
+    private final long compactThreshold;
+    private final Path leaseDirectory;
+    private final Path recordsPath;
+    private final Path recordsLockPath;
+    private final Path recordsBasePath;
+    private final Path nodeDirectory;
+    private final Path nodePath;
+    // position in the log of the next line to read
+    private long offset;
+    private long savedOffset;
+
+    @SneakyThrows
+    FileStateStore(Path directory, String nodeId, long compactThreshold) {
+        this.nodeId = nodeId;
+        this.compactThreshold = compactThreshold;
+        this.leaseDirectory = directory.resolve("leases");
+        this.recordsPath = directory.resolve("records.log");
+        this.recordsLockPath = directory.resolve("records.lock");
+        this.recordsBasePath = directory.resolve("records.base");
+        this.nodeDirectory = directory.resolve("nodes");
+        this.nodePath = nodeDirectory.resolve(nodeId);
+        Files.createDirectories(leaseDirectory);
+        Files.createDirectories(nodeDirectory);
+        // a known node resumes where it stopped, a new one registers so the log isn't compacted past it
+        if (Files.exists(nodePath)) offset = Long.parseLong(Files.readString(nodePath).trim());
+        else saveOffset(offset);
+        savedOffset = offset;
+        log.info("sharing state in {} as node {} from position {}", directory, nodeId, offset);
+    }
+
+    // the caller holds the CA lock of this node, so no other thread of this node locks the same file
+    @Override
+    @SneakyThrows
+    public Lease lease(String caName) {
+        Path path = leaseDirectory.resolve(caName + ".lock");
+        ReentrantLock jvmLock = jvmLock(path);
+        jvmLock.lock();
+        FileChannel channel = null;
+        try {
+            channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            FileLock lock = channel.lock();
+            String lastOwner = readString(channel).trim();
+            FileChannel leaseChannel = channel;
+            return new Lease() {
+                @Override
+                public boolean isModifiedElsewhere() {
+                    return !lastOwner.isEmpty() && !lastOwner.equals(nodeId);
+                }
+
+                @Override
+                @SneakyThrows
+                public void close() {
+                    try {
+                        leaseChannel.truncate(0);
+                        leaseChannel.write(ByteBuffer.wrap(nodeId.getBytes(StandardCharsets.UTF_8)), 0);
+                        lock.release();
+                    } finally {
+                        leaseChannel.close();
+                        jvmLock.unlock();
+                    }
+                }
+            };
+        } catch (Throwable throwable) {
+            if (channel != null) channel.close();
+            jvmLock.unlock();
+            throw throwable;
+        }
+    }
+
+    @Override
+    @SneakyThrows
+    public synchronized void publish(String record) {
+        byte[] line = (nodeId + "\t" + record + "\n").getBytes(StandardCharsets.UTF_8);
+        withRecordsLock(base -> {
+            try (FileChannel channel = FileChannel.open(recordsPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+                ByteBuffer buffer = ByteBuffer.wrap(line);
+                while (buffer.hasRemaining()) channel.write(buffer);
+                channel.force(false);
+            }
+            return null;
+        });
+    }
+
+    @Override
+    @SneakyThrows
+    public synchronized List<String> poll() {
+        List<String> records = new ArrayList<>();
+        if (Files.notExists(recordsPath)) return records;
+        withRecordsLock(base -> {
+            if (offset < base) {
+                log.warn("records {} to {} were compacted before node {} applied them", offset, base, nodeId);
+                offset = base;
+            }
+            try (FileChannel channel = FileChannel.open(recordsPath, StandardOpenOption.READ)) {
+                channel.position(offset - base);
+                ByteBuffer chunk = ByteBuffer.allocate(CHUNK_SIZE);
+                ByteArrayOutputStream line = new ByteArrayOutputStream();
+                // only complete lines, a line being written is read on the next poll
+                while (records.size() < MAX_RECORDS_PER_POLL && channel.read(chunk) > 0) {
+                    chunk.flip();
+                    while (chunk.hasRemaining() && records.size() < MAX_RECORDS_PER_POLL) {
+                        byte b = chunk.get();
+                        if (b != '\n') {
+                            line.write(b);
+                            continue;
+                        }
+                        offset += line.size() + 1;
+                        String text = line.toString(StandardCharsets.UTF_8);
+                        line.reset();
+                        int separator = text.indexOf('\t');
+                        if (separator < 0 || text.substring(0, separator).equals(nodeId)) continue;
+                        records.add(text.substring(separator + 1));
+                    }
+                    chunk.compact();
+                }
+            }
+            return null;
+        });
+        return records;
+    }
+
+    @Override
+    @SneakyThrows
+    public synchronized void acknowledge() {
+        if (offset == savedOffset) return;
+        saveOffset(offset);
+        savedOffset = offset;
+        if (Files.size(recordsPath) > compactThreshold) compact();
+    }
+
+    // drops the lines every node applied
+    private void compact() throws IOException {
+        withRecordsLock(base -> {
+            long applied;
+            try (Stream<Path> nodes = Files.list(nodeDirectory)) {
+                applied = nodes.filter(path -> !path.getFileName().toString().endsWith(".new"))
+                        .mapToLong(path -> Long.parseLong(readString(path).trim()))
+                        .min().orElse(base);
+            }
+            // only once half of the log can go, not to copy it again for every few lines applied
+            if (applied - base < Files.size(recordsPath) / 2) return null;
+            Path newRecordsPath = recordsPath.resolveSibling("records.log.new");
+            try (FileChannel in = FileChannel.open(recordsPath, StandardOpenOption.READ);
+                 FileChannel out = FileChannel.open(newRecordsPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                long position = applied - base;
+                while (position < in.size()) position += in.transferTo(position, in.size() - position, out);
+                out.force(false);
+            }
+            Files.move(newRecordsPath, recordsPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            writeAtomically(recordsBasePath, Long.toString(applied));
+            log.info("records.log compacted up to position {}", applied);
+            return null;
+        });
+    }
+
+    private void saveOffset(long offset) throws IOException {
+        writeAtomically(nodePath, Long.toString(offset));
+    }
+
+    private interface RecordsAction<T> {
+        T run(long base) throws IOException;
+    }
+
+    // runs the action under the lock of the log, given the position in the log of the first line of records.log
+    private <T> T withRecordsLock(RecordsAction<T> action) throws IOException {
+        ReentrantLock jvmLock = jvmLock(recordsLockPath);
+        jvmLock.lock();
+        try (FileChannel channel = FileChannel.open(recordsLockPath, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            FileLock lock = channel.lock();
+            try {
+                return action.run(Files.exists(recordsBasePath) ? Long.parseLong(readString(recordsBasePath).trim()) : 0);
+            } finally {
+                lock.release();
+            }
+        } finally {
+            jvmLock.unlock();
+        }
+    }
+
+    private static ReentrantLock jvmLock(Path path) {
+        return JVM_LOCKS.computeIfAbsent(path.toAbsolutePath().normalize(), p -> new ReentrantLock());
+    }
+
+    private static void writeAtomically(Path path, String content) throws IOException {
+        Path newPath = path.resolveSibling(path.getFileName() + ".new");
+        Files.writeString(newPath, content);
+        Files.move(newPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    @SneakyThrows
+    private static String readString(Path path) {
+        return Files.readString(path);
+    }
+
+    // the owner of a lease
+    private static String readString(FileChannel channel) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate((int) (channel.size() - channel.position()));
+        while (buffer.hasRemaining() && channel.read(buffer) >= 0) ;
+        return new String(buffer.array(), 0, buffer.position(), StandardCharsets.UTF_8);
+    }
+}
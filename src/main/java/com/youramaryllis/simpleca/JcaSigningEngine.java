@@ -0,0 +1,488 @@
+package com.youramaryllis.simpleca;
+
+import lombok.AllArgsConstructor;
+import lombok.SneakyThrows;
+import lombok.extern.slf4j.Slf4j;
+import org.bouncycastle.asn1.ASN1ObjectIdentifier;
+import org.bouncycastle.asn1.x500.RDN;
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.asn1.x500.X500NameBuilder;
+import org.bouncycastle.asn1.x500.style.BCStyle;
+import org.bouncycastle.asn1.x509.BasicConstraints;
+import org.bouncycastle.asn1.x509.CRLDistPoint;
+import org.bouncycastle.asn1.x509.CRLNumber;
+import org.bouncycastle.asn1.x509.CRLReason;
+import org.bouncycastle.asn1.x509.DistributionPoint;
+import org.bouncycastle.asn1.x509.DistributionPointName;
+import org.bouncycastle.asn1.x509.Extension;
+import org.bouncycastle.asn1.x509.GeneralName;
+import org.bouncycastle.asn1.x509.GeneralNames;
+import org.bouncycastle.cert.X509CRLEntryHolder;
+import org.bouncycastle.cert.X509CRLHolder;
+import org.bouncycastle.cert.X509v2CRLBuilder;
+import org.bouncycastle.cert.X509v3CertificateBuilder;
+import org.bouncycastle.cert.jcajce.JcaX509CertificateConverter;
+import org.bouncycastle.cert.jcajce.JcaX509ExtensionUtils;
+import org.bouncycastle.cert.jcajce.JcaX509v2CRLBuilder;
+import org.bouncycastle.cert.jcajce.JcaX509v3CertificateBuilder;
+import org.bouncycastle.operator.ContentSigner;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+import org.bouncycastle.pkcs.PKCS10CertificationRequest;
+import org.bouncycastle.pkcs.jcajce.JcaPKCS10CertificationRequest;
+import org.bouncycastle.pkcs.jcajce.JcaPKCS10CertificationRequestBuilder;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.KeyPair;
+import java.security.KeyStore;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.SecureRandom;
+import java.security.cert.CertPathValidator;
+import java.security.cert.CertPathValidatorException;
+import java.security.cert.CertificateFactory;
+import java.security.cert.PKIXParameters;
+import java.security.cert.TrustAnchor;
+import java.security.cert.X509Certificate;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+/**
+ * {@link SigningEngine} doing everything in-process with the JCA and bouncycastle,
+ * no openssl/keytool process is forked.
+ * <p>
+ * It keeps the openssl {@code ca} database (certindex, certserial, crlnumber) and mirrors the
+ * extensions of rootca.conf.tpl/intermediateca.conf.tpl (see {@link ExtensionProfile}), so certs look the same whichever engine signed them.
+ */
+@Component
+@Slf4j
+public class JcaSigningEngine implements SigningEngine {
+    // of an RSA CA, the others have a fixed size
+    private static final int OCSP_KEY_SIZE = 2048;
+    // field order of [ myca_policy ], openssl ca drops everything else from the subject
+    private static final List<ASN1ObjectIdentifier> POLICY = List.of(BCStyle.CN, BCStyle.ST, BCStyle.C, BCStyle.EmailAddress, BCStyle.O, BCStyle.OU);
+    private static final List<ASN1ObjectIdentifier> POLICY_SUPPLIED = List.of(BCStyle.CN, BCStyle.ST, BCStyle.O);
+    private static final DateTimeFormatter INDEX_DATE = DateTimeFormatter.ofPattern("yyMMddHHmmss'Z'").withZone(ZoneOffset.UTC);
+    private static final DateTimeFormatter INDEX_GENERALIZED_DATE = DateTimeFormatter.ofPattern("yyyyMMddHHmmss'Z'").withZone(ZoneOffset.UTC);
+    @Autowired
+    CAPaths caPaths;
+    @Autowired
+    SigningKeyCache signingKeyCache;
+    @Autowired
+    RevocationIndex revocationIndex;
+    @Autowired
+    SerialAllocator serialAllocator;
+
+    private final SecureRandom secureRandom = new SecureRandom();
+    private final Map<String, BaseCrl> baseCrls = new ConcurrentHashMap<>();
+    private final Map<String, ExtensionProfile> profiles = new ConcurrentHashMap<>();
+
+    @Override
+    @SneakyThrows
+    public boolean generatePrivateKey(CertCA certCA) {
+        assert Objects.nonNull(certCA.getPassword());
+        Path workingDirectory = getWorkingDirectory(certCA);
+        String keyName = certCA.getName() + ".key";
+        if (alreadyExisted(workingDirectory, keyName)) return false;
+        KeyPair keyPair = KeyAlgorithm.of(certCA).generateKeyPair(certCA.getKeySize());
+        PemFiles.writePrivateKey(workingDirectory.resolve(keyName), keyPair.getPrivate(), certCA.getPassword());
+        signingKeyCache.invalidate(certCA.getName());
+        return created(keyName);
+    }
+
+    @Override
+    @SneakyThrows
+    public boolean generateCert(CA ca) {
+        assert Objects.nonNull(ca.password);
+        Path workingDirectory = getWorkingDirectory(ca);
+        String certName = ca.name + ".crt";
+        if (alreadyExisted(workingDirectory, certName)) return false;
+        KeyPair keyPair = PemFiles.readKeyPair(workingDirectory.resolve(ca.name + ".key"), ca.password);
+        X500Name subject = toX500Name(ca.subject);
+        Instant now = Instant.now();
+        JcaX509ExtensionUtils extensionUtils = new JcaX509ExtensionUtils();
+        X509v3CertificateBuilder builder = new JcaX509v3CertificateBuilder(
+                subject, new BigInteger(128, secureRandom),
+                Date.from(now), Date.from(now.plus(ca.days, ChronoUnit.DAYS)),
+                subject, keyPair.getPublic()
+        )
+                // [ v3_ca ] of the default openssl.cnf, which is what `openssl req -x509` uses
+                .addExtension(Extension.subjectKeyIdentifier, false, extensionUtils.createSubjectKeyIdentifier(keyPair.getPublic()))
+                .addExtension(Extension.authorityKeyIdentifier, false, extensionUtils.createAuthorityKeyIdentifier(keyPair.getPublic()))
+                .addExtension(Extension.basicConstraints, true, new BasicConstraints(true));
+        X509Certificate certificate = new JcaX509CertificateConverter().getCertificate(builder.build(contentSigner(keyPair.getPrivate())));
+        PemFiles.writeObject(workingDirectory.resolve(certName), certificate);
+        return created(certName);
+    }
+
+    @Override
+    @SneakyThrows
+    public boolean generateCSR(CertCA certCA) {
+        assert Objects.nonNull(certCA.getPassword());
+        Path workingDirectory = getWorkingDirectory(certCA);
+        String csrName = certCA.getName() + ".csr";
+        if (alreadyExisted(workingDirectory, csrName)) return false;
+        KeyPair keyPair = PemFiles.readKeyPair(workingDirectory.resolve(certCA.getName() + ".key"), certCA.getPassword());
+        PKCS10CertificationRequest csr = new JcaPKCS10CertificationRequestBuilder(toX500Name(certCA.getSubject()), keyPair.getPublic())
+                .build(contentSigner(keyPair.getPrivate()));
+        PemFiles.writeObject(workingDirectory.resolve(csrName), csr);
+        return created(csrName);
+    }
+
+    @Override
+    public boolean signCert(CertCA certCA) {
+        CA parent = certCA.getSigningCA();
+        assert Objects.nonNull(parent.password);
+        Path workingDirectory = getWorkingDirectory(parent);
+        String certName = "certs/" + certCA.getName() + ".crt";
+        if (alreadyExisted(workingDirectory, certName)) return false;
+        PKCS10CertificationRequest csr = PemFiles.readCertificationRequest(getWorkingDirectory(certCA).resolve(certCA.getName() + ".csr"));
+        issue(parent, csr, workingDirectory.resolve(certName));
+        return created(certName);
+    }
+
+    @Override
+    @SneakyThrows
+    public boolean generateCrl(CA ca) {
+        assert Objects.nonNull(ca.password);
+        Path workingDirectory = getWorkingDirectory(ca);
+        String pemName = ca.name + ".crl.pem";
+        String derName = ca.name + ".crl";
+        if (alreadyExisted(workingDirectory, pemName)) return false;
+        X509CRLHolder crl = buildCrl(ca);
+        PemFiles.writeObject(workingDirectory.resolve(pemName), crl);
+        Files.write(workingDirectory.resolve(derName), crl.getEncoded());
+        return created(pemName, derName);
+    }
+
+    @Override
+    @SneakyThrows
+    public void replaceCrl(CA ca) {
+        assert Objects.nonNull(ca.password);
+        Path workingDirectory = getWorkingDirectory(ca);
+        X509CRLHolder crl = buildCrl(ca);
+        Path pemTempFile = workingDirectory.resolve(ca.name + ".crl.pem.new");
+        PemFiles.writeObject(pemTempFile, crl);
+        Path derTempFile = workingDirectory.resolve(ca.name + ".crl.new");
+        Files.write(derTempFile, crl.getEncoded());
+        Files.move(derTempFile, workingDirectory.resolve(ca.name + ".crl"), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        Files.move(pemTempFile, workingDirectory.resolve(ca.name + ".crl.pem"), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        log.info("CRL of {} replaced", ca.name);
+    }
+
+    @SneakyThrows
+    private X509CRLHolder buildCrl(CA ca) {
+        Path workingDirectory = getWorkingDirectory(ca);
+        X509Certificate caCert = PemFiles.readCertificate(workingDirectory.resolve(ca.name + ".crt"));
+        PrivateKey caKey = signingKeyCache.getPrivateKey(ca);
+        Instant now = Instant.now();
+        X509v2CRLBuilder builder = new JcaX509v2CRLBuilder(caCert, Date.from(now));
+        builder.setNextUpdate(Date.from(now.plus(ExtensionProfile.getDefaultDays(ca), ChronoUnit.DAYS)));
+        for (RevocationIndex.Entry entry : revocationIndex.getRevoked(ca)) {
+            builder.addCRLEntry(entry.getSerial(), Date.from(entry.getRevocationDate()), CRLReason.unspecified);
+        }
+        builder.addExtension(Extension.cRLNumber, false, new CRLNumber(nextNumber(workingDirectory.resolve("crlnumber"))));
+        builder.addExtension(Extension.freshestCRL, false, new CRLDistPoint(new DistributionPoint[]{
+                new DistributionPoint(new DistributionPointName(new GeneralNames(
+                        new GeneralName(GeneralName.uniformResourceIdentifier, ExtensionProfile.getBaseUrl(ca) + "-delta.crl"))), null, null)
+        }));
+        return builder.build(contentSigner(caKey));
+    }
+
+    /**
+     * {name}-delta.crl(.pem): the revocations since the full {name}.crl, which is its base (RFC 5280 5.2.4).
+     * Always done here whichever engine made the full CRL, openssl ca can't generate delta CRLs.
+     * It shares crlnumber with the full CRL and is replaced atomically.
+     */
+    @SneakyThrows
+    public void generateDeltaCrl(CA ca, int validityMinutes) {
+        assert Objects.nonNull(ca.password);
+        Path workingDirectory = getWorkingDirectory(ca);
+        BaseCrl base = getBaseCrl(ca);
+        X509Certificate caCert = PemFiles.readCertificate(workingDirectory.resolve(ca.name + ".crt"));
+        Instant now = Instant.now();
+        X509v2CRLBuilder builder = new JcaX509v2CRLBuilder(caCert, Date.from(now));
+        builder.setNextUpdate(Date.from(now.plus(validityMinutes, ChronoUnit.MINUTES)));
+        int entries = 0;
+        for (RevocationIndex.Entry entry : revocationIndex.getRevoked(ca)) {
+            if (base.revokedSerials.contains(entry.getSerial())) continue;
+            builder.addCRLEntry(entry.getSerial(), Date.from(entry.getRevocationDate()), CRLReason.unspecified);
+            entries++;
+        }
+        builder.addExtension(Extension.cRLNumber, false, new CRLNumber(nextNumber(workingDirectory.resolve("crlnumber"))));
+        builder.addExtension(Extension.deltaCRLIndicator, true, new CRLNumber(base.crlNumber));
+        X509CRLHolder crl = builder.build(contentSigner(signingKeyCache.getPrivateKey(ca)));
+        Path pemFile = workingDirectory.resolve(ca.name + "-delta.crl.pem");
+        Path pemTempFile = workingDirectory.resolve(ca.name + "-delta.crl.pem.new");
+        PemFiles.writeObject(pemTempFile, crl);
+        Files.move(pemTempFile, pemFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        Path derFile = workingDirectory.resolve(ca.name + "-delta.crl");
+        Path derTempFile = workingDirectory.resolve(ca.name + "-delta.crl.new");
+        Files.write(derTempFile, crl.getEncoded());
+        Files.move(derTempFile, derFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        log.info("delta CRL of {} published with {} entries, base CRL {}", ca.name, entries, base.crlNumber);
+    }
+
+    // the full CRL is only parsed again when its file changes
+    @SneakyThrows
+    private BaseCrl getBaseCrl(CA ca) {
+        Path crlFile = getWorkingDirectory(ca).resolve(ca.name + ".crl");
+        long lastModified = Files.getLastModifiedTime(crlFile).toMillis();
+        BaseCrl base = baseCrls.get(ca.name);
+        if (base != null && base.lastModified == lastModified) return base;
+        X509CRLHolder crl = new X509CRLHolder(Files.readAllBytes(crlFile));
+        BigInteger crlNumber = CRLNumber.getInstance(crl.getExtension(Extension.cRLNumber).getParsedValue()).getCRLNumber();
+        Set<BigInteger> revokedSerials = new HashSet<>();
+        for (Object entry : crl.getRevokedCertificates())
+            revokedSerials.add(((X509CRLEntryHolder) entry).getSerialNumber());
+        base = new BaseCrl(crlNumber, revokedSerials, lastModified);
+        baseCrls.put(ca.name, base);
+        return base;
+    }
+
+    @Override
+    @SneakyThrows
+    public void verifyCert(CA ca, Cert cert) {
+        Path certPath = getWorkingDirectory(cert).resolve(cert.name + ".crt");
+        assert Files.exists(certPath);
+        Path chainCertPath = getWorkingDirectory(ca).resolve("certs").resolve("chain.crt");
+        assert Files.exists(chainCertPath);
+        // chain.crt starts with the root CA and ends with the signing CA
+        List<X509Certificate> chain = PemFiles.readCertificates(chainCertPath);
+        List<X509Certificate> certPath2Root = new ArrayList<>();
+        certPath2Root.add(PemFiles.readCertificate(certPath));
+        for (int i = chain.size() - 1; i > 0; i--) certPath2Root.add(chain.get(i));
+        PKIXParameters parameters = new PKIXParameters(Set.of(new TrustAnchor(chain.get(0), null)));
+        parameters.setRevocationEnabled(false);
+        try {
+            CertPathValidator.getInstance("PKIX").validate(CertificateFactory.getInstance("X.509").generateCertPath(certPath2Root), parameters);
+        } catch (CertPathValidatorException e) {
+            throw new AssertionError(certPath + ": " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public void revokeCert(CA ca, Cert cert) {
+        revokeCerts(ca, List.of(cert));
+    }
+
+    @Override
+    @SneakyThrows
+    public void revokeCerts(CA ca, List<Cert> certs) {
+        assert Objects.nonNull(ca.password);
+        Path workingDirectory = getWorkingDirectory(ca);
+        Map<String, X509Certificate> certificates = new LinkedHashMap<>();
+        for (Cert cert : certs) {
+            X509Certificate certificate = PemFiles.readCertificate(getWorkingDirectory(cert).resolve(cert.name + ".crt"));
+            certificates.put(toHex(certificate.getSerialNumber()), certificate);
+        }
+        String revocationDate = formatIndexDate(Instant.now());
+        List<String[]> index = readIndex(workingDirectory);
+        Set<String> found = new HashSet<>();
+        for (String[] entry : index) {
+            if (certificates.containsKey(entry[3])) {
+                found.add(entry[3]);
+                if (entry[0].equals("V")) {
+                    entry[0] = "R";
+                    entry[2] = revocationDate;
+                }
+            }
+        }
+        certificates.forEach((serial, certificate) -> {
+            if (found.contains(serial)) return;
+            // same as openssl, a cert unknown to the database is added as revoked
+            X500Name subject = X500Name.getInstance(certificate.getSubjectX500Principal().getEncoded());
+            index.add(new String[]{"R", formatIndexDate(certificate.getNotAfter().toInstant()), revocationDate, serial, "unknown", toOneLine(subject)});
+        });
+        Path indexFile = workingDirectory.resolve("certindex");
+        Path newIndexFile = workingDirectory.resolve("certindex.new");
+        Files.write(newIndexFile, index.stream().map(entry -> String.join("\t", entry)).collect(Collectors.toList()));
+        Files.move(newIndexFile, indexFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    @Override
+    @SneakyThrows
+    public void generateTrustStore(CA ca) {
+        assert Objects.nonNull(ca.password);
+        Path workingDirectory = getWorkingDirectory(ca);
+        if (alreadyExisted(workingDirectory, "certs/truststore.p12")) return;
+        KeyStore trustStore = KeyStore.getInstance("PKCS12");
+        trustStore.load(null, null);
+        trustStore.setCertificateEntry("ca", PemFiles.readCertificate(workingDirectory.resolve(ca.name + ".crt")));
+        try (OutputStream outputStream = Files.newOutputStream(workingDirectory.resolve("certs/truststore.p12"))) {
+            trustStore.store(outputStream, ca.password.toCharArray());
+        }
+        created("certs/truststore.p12");
+    }
+
+    @Override
+    @SneakyThrows
+    public boolean generateOCSPPrivateKey(CA ca) {
+        assert Objects.nonNull(ca.getPassword());
+        Path workingDirectory = getWorkingDirectory(ca);
+        String keyName = ca.getName() + "-ocsp-signer.key";
+        String csrName = ca.getName() + "-ocsp-signer.csr";
+        if (alreadyExisted(workingDirectory, keyName, csrName)) return false;
+        String subject = Arrays.stream(ca.subject.split("/")).map(s -> (s.startsWith("CN=")) ? "CN=" + ca.name + " OCSP" : s).collect(Collectors.joining("/"));
+        // same key type as the CA
+        KeyPair keyPair = KeyAlgorithm.of(ca).generateKeyPair(OCSP_KEY_SIZE);
+        PemFiles.writePrivateKey(workingDirectory.resolve(keyName), keyPair.getPrivate(), null);
+        PKCS10CertificationRequest csr = new JcaPKCS10CertificationRequestBuilder(toX500Name(subject), keyPair.getPublic())
+                .build(contentSigner(keyPair.getPrivate()));
+        PemFiles.writeObject(workingDirectory.resolve(csrName), csr);
+        return created(keyName, csrName);
+    }
+
+    @Override
+    public boolean generateOCSPCert(CA ca) {
+        assert Objects.nonNull(ca.getPassword());
+        Path workingDirectory = getWorkingDirectory(ca);
+        String certName = ca.getName() + "-ocsp-signer.crt";
+        if (alreadyExisted(workingDirectory, certName)) return false;
+        PKCS10CertificationRequest csr = PemFiles.readCertificationRequest(workingDirectory.resolve(ca.getName() + "-ocsp-signer.csr"));
+        issue(ca, csr, workingDirectory.resolve(certName));
+        return created(certName);
+    }
+
+    // openssl ca: sign with the [ myca_extensions ] of the issuer and record it in the issuer's certindex
+    @SneakyThrows
+    private void issue(CA issuer, PKCS10CertificationRequest csr, Path output) {
+        Path issuerDirectory = getWorkingDirectory(issuer);
+        X509Certificate issuerCert = PemFiles.readCertificate(issuerDirectory.resolve(issuer.name + ".crt"));
+        PrivateKey issuerKey = signingKeyCache.getPrivateKey(issuer);
+        PublicKey publicKey = new JcaPKCS10CertificationRequest(csr).getPublicKey();
+        X500Name subject = applyPolicy(csr.getSubject());
+        BigInteger serial = serialAllocator.next(issuer);
+        Instant now = Instant.now();
+        ExtensionProfile profile = getProfile(issuer);
+        Instant notAfter = now.plus(profile.days, ChronoUnit.DAYS);
+        X509v3CertificateBuilder builder = new JcaX509v3CertificateBuilder(issuerCert, serial, Date.from(now), Date.from(notAfter), subject, publicKey);
+        profile.addExtensions(builder, publicKey, issuerCert.getPublicKey());
+        X509Certificate certificate = new JcaX509CertificateConverter().getCertificate(builder.build(contentSigner(issuerKey)));
+        PemFiles.writeObject(output, certificate);
+        String entry = String.join("\t", "V", formatIndexDate(notAfter), "", toHex(serial), "unknown", toOneLine(subject));
+        Files.writeString(issuerDirectory.resolve("certindex"), entry + "\n", StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+    }
+
+    private ExtensionProfile getProfile(CA issuer) {
+        ExtensionProfile profile = profiles.get(issuer.name);
+        if (profile == null || profile.issuer != issuer) {
+            profile = ExtensionProfile.of(issuer);
+            profiles.put(issuer.name, profile);
+        }
+        return profile;
+    }
+
+    // '/C=US/ST=California/CN=Root CA'
+    static X500Name toX500Name(String subject) {
+        X500NameBuilder builder = new X500NameBuilder(BCStyle.INSTANCE);
+        for (String rdn : subject.split("/")) {
+            if (rdn.isBlank()) continue;
+            int separator = rdn.indexOf('=');
+            if (separator < 0) throw new AssertionError("invalid subject " + subject);
+            builder.addRDN(BCStyle.INSTANCE.attrNameToOID(rdn.substring(0, separator).trim()), rdn.substring(separator + 1));
+        }
+        return builder.build();
+    }
+
+    static String toOneLine(X500Name name) {
+        StringBuilder oneLine = new StringBuilder();
+        for (RDN rdn : name.getRDNs()) {
+            oneLine.append('/')
+                    .append(BCStyle.INSTANCE.oidToDisplayName(rdn.getFirst().getType()))
+                    .append('=')
+                    .append(rdn.getFirst().getValue().toString());
+        }
+        return oneLine.toString();
+    }
+
+    private static X500Name applyPolicy(X500Name subject) {
+        X500NameBuilder builder = new X500NameBuilder(BCStyle.INSTANCE);
+        for (ASN1ObjectIdentifier type : POLICY) {
+            RDN[] rdns = subject.getRDNs(type);
+            if (rdns.length == 0 && POLICY_SUPPLIED.contains(type))
+                throw new AssertionError("The " + BCStyle.INSTANCE.oidToDisplayName(type) + " field needed to be supplied");
+            for (RDN rdn : rdns) builder.addRDN(rdn.getFirst());
+        }
+        return builder.build();
+    }
+
+    static String toHex(BigInteger number) {
+        String hex = number.toString(16).toUpperCase();
+        return (hex.length() % 2 == 0) ? hex : "0" + hex;
+    }
+
+    static String formatIndexDate(Instant instant) {
+        return (instant.atZone(ZoneOffset.UTC).getYear() < 2050) ? INDEX_DATE.format(instant) : INDEX_GENERALIZED_DATE.format(instant);
+    }
+
+    static Instant parseIndexDate(String date) {
+        return Instant.from((date.length() == 13) ? INDEX_DATE.parse(date) : INDEX_GENERALIZED_DATE.parse(date));
+    }
+
+    // certindex: status, expiry, revocation date[,reason], serial, filename, subject
+    @SneakyThrows
+    static List<String[]> readIndex(Path workingDirectory) {
+        Path indexFile = workingDirectory.resolve("certindex");
+        if (Files.notExists(indexFile)) return new ArrayList<>();
+        return Files.readAllLines(indexFile).stream()
+                .filter(line -> !line.isBlank())
+                .map(line -> line.split("\t", -1))
+                .collect(Collectors.toCollection(ArrayList::new));
+    }
+
+    // crlnumber: take the current hex number and write back the next one
+    @SneakyThrows
+    private static BigInteger nextNumber(Path numberFile) {
+        BigInteger number = new BigInteger(Files.readString(numberFile).trim(), 16);
+        Files.writeString(numberFile, toHex(number.add(BigInteger.ONE)) + "\n");
+        return number;
+    }
+
+    // the signature algorithm follows the signing key, e.g. SHA384withECDSA for a P-384 CA
+    @SneakyThrows
+    static ContentSigner contentSigner(PrivateKey privateKey) {
+        return new JcaContentSignerBuilder(KeyAlgorithm.of(privateKey).getSignatureAlgorithm()).build(privateKey);
+    }
+
+    private Path getWorkingDirectory(CertCA certCA) {
+        return caPaths.getWorkingDirectory(certCA);
+    }
+
+    private boolean alreadyExisted(Path workingDirectory, String... outputName) {
+        boolean existed = Arrays.stream(outputName).map(workingDirectory::resolve).allMatch(Files::exists);
+        if (existed) log.info(String.join(",", outputName) + " already existed");
+        return existed;
+    }
+
+    private boolean created(String... outputName) {
+        log.info(String.join(",", outputName) + " file(s) created");
+        return true;
+    }
+
+    @AllArgsConstructor
+    private static class BaseCrl {
+        final BigInteger crlNumber;
+        final Set<BigInteger> revokedSerials;
+        final long lastModified;
+    }
+}
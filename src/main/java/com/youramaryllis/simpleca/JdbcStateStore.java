@@ -0,0 +1,256 @@
+package com.youramaryllis.simpleca;
+
+import lombok.SneakyThrows;
+import lombok.extern.slf4j.Slf4j;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * {@link StateStore} in a database shared by the nodes, e.g. an H2 server
+ * ({@code jdbc:h2:tcp://host/./simpleca}) or an H2 file with {@code AUTO_SERVER=TRUE} for nodes on one host.
+ * <p>
+ * The lease of a CA is a row of {@code ca_lease} owned by a node until it releases it or the lease expires;
+ * the node renews the leases it holds every third of {@code leaseSeconds}, and fails the operation done under
+ * a lease it lost meanwhile.
+ * Records are rows of {@code ca_record} read in id order; as ids are allocated before their insert commits,
+ * a missing id is waited for {@code GAP_MILLIS} before being taken for a rolled back insert.
+ * The id up to which a node applied the records is saved in {@code ca_node}.
+ */
+@Slf4j
+class JdbcStateStore implements StateStore {
+    private static final long RETRY_MILLIS = 50;
+    private static final long GAP_MILLIS = TimeUnit.SECONDS.toMillis(10);
+
+    private final String nodeId;
+    private final long leaseMillis;
+    private final long leaseTimeoutMillis;
+    // one connection, statements are short and run one at a time
+    private final Connection connection;
+    // leases held by this node, set once a renewal found the lease gone
+    private final Map<String, AtomicBoolean> heldLeases = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService renewer;
+    // every id up to this one was read, or never committed
+    private long lastRecordId;
+    // ids read above lastRecordId
+    private final TreeSet<Long> readRecordIds = new TreeSet<>();
+    // when a missing id below the highest one read was first noticed
+    private final Map<Long, Long> gaps = new HashMap<>();
+    private long savedRecordId;
+
+    @SneakyThrows
+    JdbcStateStore(Store store, String nodeId) {
+        this.nodeId = nodeId;
+        this.leaseMillis = TimeUnit.SECONDS.toMillis(store.leaseSeconds);
+        this.leaseTimeoutMillis = TimeUnit.SECONDS.toMillis(store.leaseTimeoutSeconds);
+        this.connection = DriverManager.getConnection(store.jdbcUrl, store.user, store.password);
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("create table if not exists ca_lease (ca_name varchar(255) primary key, " +
+                    "owner varchar(255), expires_at bigint not null, last_owner varchar(255))");
+            statement.execute("create table if not exists ca_record (id bigint auto_increment primary key, " +
+                    "node varchar(255) not null, record clob not null)");
+            statement.execute("create table if not exists ca_node (node varchar(255) primary key, record_id bigint not null)");
+        }
+        try (PreparedStatement select = connection.prepareStatement("select record_id from ca_node where node = ?")) {
+            select.setString(1, nodeId);
+            try (ResultSet resultSet = select.executeQuery()) {
+                if (resultSet.next()) lastRecordId = resultSet.getLong(1);
+            }
+        }
+        savedRecordId = lastRecordId;
+        renewer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "lease-renewer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long renewMillis = Math.max(1, leaseMillis / 3);
+        renewer.scheduleWithFixedDelay(this::renewLeases, renewMillis, renewMillis, TimeUnit.MILLISECONDS);
+        log.info("sharing state in {} as node {} from record {}", store.jdbcUrl, nodeId, lastRecordId);
+    }
+
+    @Override
+    @SneakyThrows
+    public Lease lease(String caName) {
+        long deadline = System.currentTimeMillis() + leaseTimeoutMillis;
+        while (true) {
+            String lastOwner = tryLease(caName);
+            if (lastOwner != null) {
+                AtomicBoolean lost = new AtomicBoolean();
+                heldLeases.put(caName, lost);
+                return new Lease() {
+                    @Override
+                    public boolean isModifiedElsewhere() {
+                        return !lastOwner.isEmpty() && !lastOwner.equals(nodeId);
+                    }
+
+                    @Override
+                    public void close() {
+                        heldLeases.remove(caName);
+                        release(caName, lost.get());
+                    }
+                };
+            }
+            if (System.currentTimeMillis() > deadline)
+                throw new IllegalStateException("CA " + caName + " is leased by another node");
+            Thread.sleep(RETRY_MILLIS);
+        }
+    }
+
+    // the previous owner ("" if none) when the lease is taken, null if another node holds it
+    private String tryLease(String caName) throws SQLException {
+        synchronized (connection) {
+            long now = System.currentTimeMillis();
+            try (PreparedStatement insert = connection.prepareStatement(
+                    "insert into ca_lease (ca_name, owner, expires_at, last_owner) values (?, null, 0, null)")) {
+                insert.setString(1, caName);
+                insert.executeUpdate();
+            } catch (SQLException e) {
+                // the row is already there
+            }
+            try (PreparedStatement update = connection.prepareStatement(
+                    "update ca_lease set owner = ?, expires_at = ? where ca_name = ? and (owner is null or expires_at < ?)")) {
+                update.setString(1, nodeId);
+                update.setLong(2, now + leaseMillis);
+                update.setString(3, caName);
+                update.setLong(4, now);
+                if (update.executeUpdate() == 0) return null;
+            }
+            try (PreparedStatement select = connection.prepareStatement("select last_owner from ca_lease where ca_name = ?")) {
+                select.setString(1, caName);
+                try (ResultSet resultSet = select.executeQuery()) {
+                    resultSet.next();
+                    String lastOwner = resultSet.getString(1);
+                    return (lastOwner == null) ? "" : lastOwner;
+                }
+            }
+        }
+    }
+
+    // extends the leases held, a long signing (CRL of a big CA) doesn't let them expire
+    private void renewLeases() {
+        heldLeases.forEach((caName, lost) -> {
+            if (lost.get()) return;
+            try {
+                synchronized (connection) {
+                    try (PreparedStatement update = connection.prepareStatement(
+                            "update ca_lease set expires_at = ? where ca_name = ? and owner = ?")) {
+                        update.setLong(1, System.currentTimeMillis() + leaseMillis);
+                        update.setString(2, caName);
+                        update.setString(3, nodeId);
+                        if (update.executeUpdate() == 0) {
+                            log.warn("lease of {} was taken over by another node", caName);
+                            lost.set(true);
+                        }
+                    }
+                }
+            } catch (Throwable throwable) {
+                log.info("failed to renew the lease of {}", caName, throwable);
+            }
+        });
+    }
+
+    // another node may have signed under the CA meanwhile, what was done under the lease is reported as failed
+    @SneakyThrows
+    private void release(String caName, boolean lost) {
+        int released;
+        synchronized (connection) {
+            try (PreparedStatement update = connection.prepareStatement(
+                    "update ca_lease set owner = null, expires_at = 0, last_owner = ? where ca_name = ? and owner = ?")) {
+                update.setString(1, nodeId);
+                update.setString(2, caName);
+                update.setString(3, nodeId);
+                released = update.executeUpdate();
+            }
+        }
+        if (lost || released == 0)
+            throw new IllegalStateException("lease of " + caName + " expired before it was released");
+    }
+
+    @Override
+    @SneakyThrows
+    public void publish(String record) {
+        synchronized (connection) {
+            try (PreparedStatement insert = connection.prepareStatement("insert into ca_record (node, record) values (?, ?)")) {
+                insert.setString(1, nodeId);
+                insert.setString(2, record);
+                insert.executeUpdate();
+            }
+        }
+    }
+
+    // ids above lastRecordId not read yet, then lastRecordId moves over what is read and the gaps given up on
+    @Override
+    @SneakyThrows
+    public synchronized List<String> poll() {
+        List<String> records = new ArrayList<>();
+        synchronized (connection) {
+            try (PreparedStatement select = connection.prepareStatement("select id, node, record from ca_record where id > ? order by id")) {
+                select.setLong(1, lastRecordId);
+                try (ResultSet resultSet = select.executeQuery()) {
+                    while (resultSet.next()) {
+                        if (!readRecordIds.add(resultSet.getLong(1))) continue;
+                        if (!nodeId.equals(resultSet.getString(2))) records.add(resultSet.getString(3));
+                    }
+                }
+            }
+        }
+        long now = System.currentTimeMillis();
+        long highest = readRecordIds.isEmpty() ? lastRecordId : readRecordIds.last();
+        for (long id = lastRecordId + 1; id < highest; id++) {
+            if (!readRecordIds.contains(id)) gaps.putIfAbsent(id, now);
+        }
+        while (lastRecordId < highest) {
+            long next = lastRecordId + 1;
+            if (readRecordIds.remove(next)) {
+                lastRecordId = next;
+            } else if (now - gaps.get(next) >= GAP_MILLIS) {
+                gaps.remove(next);
+                lastRecordId = next;
+            } else {
+                break;
+            }
+        }
+        return records;
+    }
+
+    @Override
+    @SneakyThrows
+    public synchronized void acknowledge() {
+        if (lastRecordId == savedRecordId) return;
+        synchronized (connection) {
+            try (PreparedStatement update = connection.prepareStatement("update ca_node set record_id = ? where node = ?")) {
+                update.setLong(1, lastRecordId);
+                update.setString(2, nodeId);
+                if (update.executeUpdate() == 0) {
+                    try (PreparedStatement insert = connection.prepareStatement("insert into ca_node (node, record_id) values (?, ?)")) {
+                        insert.setString(1, nodeId);
+                        insert.setLong(2, lastRecordId);
+                        insert.executeUpdate();
+                    }
+                }
+            }
+        }
+        savedRecordId = lastRecordId;
+    }
+
+    @Override
+    @SneakyThrows
+    public void close() {
+        renewer.shutdownNow();
+        connection.close();
+    }
+}
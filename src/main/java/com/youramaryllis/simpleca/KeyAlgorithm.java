@@ -0,0 +1,74 @@
+package com.youramaryllis.simpleca;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.SneakyThrows;
+
+import java.security.Key;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.interfaces.ECKey;
+import java.security.spec.ECGenParameterSpec;
+
+/**
+ * Key type of a CA or cert, {@code keyAlgorithm} in the db (RSA when not set), {@code keySize} only applies to RSA.
+ * <p>
+ * What is signed takes the signature algorithm of the signer's key, not of the key being certified,
+ * so an RSA CA can issue EC certs and the other way around.
+ */
+@AllArgsConstructor
+@Getter
+enum KeyAlgorithm {
+    RSA("RSA", null, 0, "SHA256withRSA", "sha256"),
+    EC_P256("EC", "P-256", 256, "SHA256withECDSA", "sha256"),
+    EC_P384("EC", "P-384", 384, "SHA384withECDSA", "sha384"),
+    // the digest is part of the algorithm, openssl must not be given one
+    ED25519("Ed25519", null, 256, "Ed25519", null);
+
+    // JCA algorithm, openssl's is the same in upper case
+    private final String algorithm;
+    // named curve, as openssl names it
+    private final String curve;
+    // key size of the curve, 0 for RSA which takes the keySize of the CA or cert
+    private final int fixedKeySize;
+    private final String signatureAlgorithm;
+    // openssl message digest of the signatures (req, default_md of ca.conf), null if the algorithm has its own
+    private final String digest;
+
+    static KeyAlgorithm of(CertCA certCA) {
+        return (certCA.getKeyAlgorithm() == null) ? RSA : certCA.getKeyAlgorithm();
+    }
+
+    // the algorithm of an existing key, e.g. the one of a CA signing a cert
+    static KeyAlgorithm of(Key key) {
+        switch (key.getAlgorithm()) {
+            case "RSA":
+                return RSA;
+            case "EC":
+            case "ECDSA":
+                return (((ECKey) key).getParams().getOrder().bitLength() > 256) ? EC_P384 : EC_P256;
+            case "Ed25519":
+            case "EdDSA":
+                return ED25519;
+            default:
+                throw new AssertionError("unsupported key algorithm " + key.getAlgorithm());
+        }
+    }
+
+    int getKeySize(int keySize) {
+        return (this == RSA) ? keySize : fixedKeySize;
+    }
+
+    // RSA with the default provider as before, the curves with bouncycastle as Ed25519 is only in the JDK since 15
+    @SneakyThrows
+    KeyPair generateKeyPair(int keySize) {
+        if (this == RSA) {
+            KeyPairGenerator keyPairGenerator = KeyPairGenerator.getInstance(algorithm);
+            keyPairGenerator.initialize(keySize);
+            return keyPairGenerator.generateKeyPair();
+        }
+        KeyPairGenerator keyPairGenerator = KeyPairGenerator.getInstance(algorithm, PemFiles.getProvider());
+        if (curve != null) keyPairGenerator.initialize(new ECGenParameterSpec(curve));
+        return keyPairGenerator.generateKeyPair();
+    }
+}
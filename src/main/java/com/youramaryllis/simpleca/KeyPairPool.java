@@ -0,0 +1,146 @@
+package com.youramaryllis.simpleca;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.security.KeyPair;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Background pool of pre-generated key pairs, bucketed by key algorithm and size.
+ * <p>
+ * Only the RSA {@code simpleca.keyPool.keySizes} and the {@code simpleca.keyPool.keyAlgorithms} have a bucket,
+ * keys of any other type are generated inline by the caller.
+ * A bucket is topped up to {@code simpleca.keyPool.capacity} by the refill threads whenever it
+ * drops below {@code simpleca.keyPool.lowWaterMark}; {@link #poll(KeyAlgorithm, int)} never waits for a key.
+ */
+@Component
+@Slf4j
+public class KeyPairPool {
+    @Autowired
+    SimpleCertAuthConfiguration configuration;
+
+    // by "RSA-2048", "EC_P256-256", ..., only filled at startup
+    private final Map<String, Bucket> buckets = new ConcurrentHashMap<>();
+    private final LongAdder generated = new LongAdder();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private ExecutorService refillExecutor;
+
+    @PostConstruct
+    public void setup() {
+        KeyPool keyPool = configuration.keyPool;
+        if (keyPool.capacity <= 0) {
+            log.info("key pool is disabled");
+            return;
+        }
+        AtomicInteger threadCount = new AtomicInteger();
+        refillExecutor = Executors.newFixedThreadPool(Math.max(1, keyPool.refillThreads), runnable -> {
+            Thread thread = new Thread(runnable, "key-pool-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        });
+        keyPool.keySizes.forEach(keySize -> addBucket(KeyAlgorithm.RSA, keySize));
+        keyPool.keyAlgorithms.forEach(keyAlgorithm -> addBucket(keyAlgorithm, 0));
+        buckets.values().forEach(Bucket::refillIfLow);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (refillExecutor != null) refillExecutor.shutdownNow();
+    }
+
+    // a pre-generated key pair, or empty if the bucket has run dry or the key type isn't pooled
+    public Optional<KeyPair> poll(KeyAlgorithm keyAlgorithm, int keySize) {
+        Bucket bucket = buckets.get(bucketName(keyAlgorithm, keySize));
+        if (bucket == null) return Optional.empty();
+        KeyPair keyPair = bucket.keyPairs.poll();
+        if (keyPair == null) misses.increment();
+        else hits.increment();
+        bucket.refillIfLow();
+        return Optional.ofNullable(keyPair);
+    }
+
+    public Map<String, Integer> getDepths() {
+        Map<String, Integer> depths = new TreeMap<>();
+        buckets.forEach((name, bucket) -> depths.put(name, bucket.keyPairs.size()));
+        return depths;
+    }
+
+    public int getDepth(KeyAlgorithm keyAlgorithm, int keySize) {
+        Bucket bucket = buckets.get(bucketName(keyAlgorithm, keySize));
+        return (bucket == null) ? 0 : bucket.keyPairs.size();
+    }
+
+    public long getGenerated() {
+        return generated.sum();
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    private void addBucket(KeyAlgorithm keyAlgorithm, int keySize) {
+        buckets.putIfAbsent(bucketName(keyAlgorithm, keySize), new Bucket(keyAlgorithm, keyAlgorithm.getKeySize(keySize)));
+    }
+
+    private static String bucketName(KeyAlgorithm keyAlgorithm, int keySize) {
+        return keyAlgorithm.name() + "-" + keyAlgorithm.getKeySize(keySize);
+    }
+
+    private class Bucket {
+        final KeyAlgorithm keyAlgorithm;
+        final int keySize;
+        final BlockingQueue<KeyPair> keyPairs = new LinkedBlockingQueue<>();
+        final AtomicInteger inFlight = new AtomicInteger();
+
+        Bucket(KeyAlgorithm keyAlgorithm, int keySize) {
+            this.keyAlgorithm = keyAlgorithm;
+            this.keySize = keySize;
+        }
+
+        // one task per missing key so several refill threads can work on the same bucket
+        void refillIfLow() {
+            KeyPool keyPool = configuration.keyPool;
+            if (keyPairs.size() >= keyPool.lowWaterMark) return;
+            while (keyPairs.size() + inFlight.get() < keyPool.capacity) {
+                inFlight.incrementAndGet();
+                try {
+                    refillExecutor.execute(this::generate);
+                } catch (RejectedExecutionException e) {
+                    inFlight.decrementAndGet();
+                    return;
+                }
+            }
+        }
+
+        void generate() {
+            try {
+                keyPairs.offer(keyAlgorithm.generateKeyPair(keySize));
+                generated.increment();
+            } catch (Throwable throwable) {
+                log.info("failed to generate a {} {} bits key pair", keyAlgorithm, keySize, throwable);
+            } finally {
+                inFlight.decrementAndGet();
+            }
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package com.youramaryllis.simpleca;
+
+import lombok.AllArgsConstructor;
+import lombok.SneakyThrows;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.KeyStore;
+import java.security.PrivateKey;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keystores and truststores assembled in memory when they are downloaded, instead of files in every cert directory.
+ * <p>
+ * Certs and chains come from the {@link ArtifactCache}; a PEM keystore is the encrypted key file as is, followed by
+ * the cert and its chain, so only PKCS#12 and JKS keystores decrypt the key. The truststore of each format is
+ * kept until the root cert changes.
+ */
+@Component
+public class KeyStoreAssembler {
+    @Autowired
+    CAPaths caPaths;
+    @Autowired
+    ArtifactCache artifactCache;
+
+    private final Map<Format, Assembled> trustStores = new ConcurrentHashMap<>();
+
+    public enum Format {
+        PKCS12("application/x-pkcs12", "p12"),
+        JKS("application/x-java-keystore", "jks"),
+        PEM("application/x-pem-file", "pem");
+
+        final String mediaType;
+        final String extension;
+
+        Format(String mediaType, String extension) {
+            this.mediaType = mediaType;
+            this.extension = extension;
+        }
+
+        // by extension (query param) or media type (Accept header), null if none matches
+        static Format of(String value) {
+            for (Format format : values()) {
+                if (format.extension.equalsIgnoreCase(value) || format.mediaType.equalsIgnoreCase(value)) return format;
+            }
+            return null;
+        }
+    }
+
+    // protected with the password of the cert, alias is the cert name
+    @SneakyThrows
+    public byte[] keyStore(Cert cert, Format format) {
+        assert cert.password != null;
+        Path workingDirectory = caPaths.getWorkingDirectory(cert);
+        Path keyFile = workingDirectory.resolve(cert.name + ".key");
+        Path chainFile = caPaths.getWorkingDirectory(cert.signingCA).resolve("certs").resolve("chain.crt");
+        byte[] certificate = read(workingDirectory.resolve(cert.name + ".crt"));
+        byte[] chain = read(chainFile);
+        if (format == Format.PEM) {
+            ByteArrayOutputStream bundle = new ByteArrayOutputStream();
+            bundle.write(Files.readAllBytes(keyFile));
+            bundle.write(certificate);
+            bundle.write(chain);
+            return bundle.toByteArray();
+        }
+        PrivateKey privateKey = PemFiles.readPrivateKey(keyFile, cert.password);
+        List<X509Certificate> caChain = PemFiles.readCertificates(chain);
+        List<X509Certificate> certChain = new ArrayList<>(PemFiles.readCertificates(certificate));
+        // chain.crt goes from the root down, a keystore chain from the cert up
+        for (int i = caChain.size() - 1; i >= 0; i--) certChain.add(caChain.get(i));
+        KeyStore keyStore = KeyStore.getInstance(format.name());
+        keyStore.load(null, null);
+        keyStore.setKeyEntry(cert.name, privateKey, cert.password.toCharArray(), certChain.toArray(new X509Certificate[0]));
+        return store(keyStore, cert.password);
+    }
+
+    // the root CA cert with alias "ca", protected with the password of the root CA
+    @SneakyThrows
+    public byte[] trustStore(CA rootCA, Format format) {
+        assert rootCA.password != null;
+        ArtifactCache.Artifact rootCert = artifactCache.get(caPaths.getWorkingDirectory(rootCA).resolve(rootCA.name + ".crt"))
+                .orElseThrow(() -> new AssertionError("no cert for " + rootCA.name));
+        Assembled assembled = trustStores.get(format);
+        if (assembled != null && assembled.etag.equals(rootCert.etag)) return assembled.content;
+        byte[] content;
+        if (format == Format.PEM) {
+            content = rootCert.getBytes();
+        } else {
+            KeyStore trustStore = KeyStore.getInstance(format.name());
+            trustStore.load(null, null);
+            trustStore.setCertificateEntry("ca", PemFiles.readCertificates(rootCert.getBytes()).get(0));
+            content = store(trustStore, rootCA.password);
+        }
+        trustStores.put(format, new Assembled(rootCert.etag, content));
+        return content;
+    }
+
+    private byte[] read(Path path) {
+        return artifactCache.get(path).orElseThrow(() -> new AssertionError(path.getFileName() + " not found")).getBytes();
+    }
+
+    @SneakyThrows
+    private static byte[] store(KeyStore keyStore, String password) {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        keyStore.store(outputStream, password.toCharArray());
+        return outputStream.toByteArray();
+    }
+
+    @AllArgsConstructor
+    private static class Assembled {
+        final String etag;
+        final byte[] content;
+    }
+}
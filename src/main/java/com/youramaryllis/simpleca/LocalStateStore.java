@@ -0,0 +1,33 @@
+package com.youramaryllis.simpleca;
+
+import java.util.List;
+
+/**
+ * {@link StateStore} of a single node, nothing is shared.
+ */
+class LocalStateStore implements StateStore {
+    private static final Lease LEASE = new Lease() {
+        @Override
+        public boolean isModifiedElsewhere() {
+            return false;
+        }
+
+        @Override
+        public void close() {
+        }
+    };
+
+    @Override
+    public Lease lease(String caName) {
+        return LEASE;
+    }
+
+    @Override
+    public void publish(String record) {
+    }
+
+    @Override
+    public List<String> poll() {
+        return List.of();
+    }
+}
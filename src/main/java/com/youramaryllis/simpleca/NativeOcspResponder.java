@@ -0,0 +1,346 @@
+package com.youramaryllis.simpleca;
+
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import lombok.AllArgsConstructor;
+import lombok.SneakyThrows;
+import lombok.extern.slf4j.Slf4j;
+import org.bouncycastle.asn1.nist.NISTObjectIdentifiers;
+import org.bouncycastle.asn1.ocsp.OCSPObjectIdentifiers;
+import org.bouncycastle.asn1.x509.AlgorithmIdentifier;
+import org.bouncycastle.asn1.x509.CRLReason;
+import org.bouncycastle.asn1.x509.Extension;
+import org.bouncycastle.asn1.x509.Extensions;
+import org.bouncycastle.cert.X509CertificateHolder;
+import org.bouncycastle.cert.jcajce.JcaX509CertificateHolder;
+import org.bouncycastle.cert.ocsp.BasicOCSPResp;
+import org.bouncycastle.cert.ocsp.BasicOCSPRespBuilder;
+import org.bouncycastle.cert.ocsp.CertificateID;
+import org.bouncycastle.cert.ocsp.CertificateStatus;
+import org.bouncycastle.cert.ocsp.OCSPReq;
+import org.bouncycastle.cert.ocsp.OCSPRespBuilder;
+import org.bouncycastle.cert.ocsp.Req;
+import org.bouncycastle.cert.ocsp.RespID;
+import org.bouncycastle.cert.ocsp.RevokedStatus;
+import org.bouncycastle.cert.ocsp.UnknownStatus;
+import org.bouncycastle.operator.DigestCalculatorProvider;
+import org.bouncycastle.operator.jcajce.JcaDigestCalculatorProviderBuilder;
+import org.bouncycastle.util.encoders.Hex;
+import org.reactivestreams.Publisher;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+import reactor.netty.DisposableServer;
+import reactor.netty.http.server.HttpServer;
+import reactor.netty.http.server.HttpServerRequest;
+import reactor.netty.http.server.HttpServerResponse;
+import reactor.netty.resources.LoopResources;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * OCSP responder (RFC 6960) served by reactor-netty on {@code simpleca.ocspPort}, in place of {@code openssl ocsp}.
+ * <p>
+ * Requests are answered from the {@link RevocationIndex} and signed with the {@code <ca>-ocsp-signer.key}
+ * of the CA that issued the cert. Both POST and the base64 encoded GET form are accepted. Single CertID
+ * requests without nonce are answered from the {@link OcspResponseCache} on the netty event loops,
+ * the signing (and the reload of the CA list for an unknown issuer) runs on the {@link BlockingScheduler}.
+ * A response is signed by the responder of the CA of its first CertID, the CertIDs of other CA are unknown to it.
+ */
+@Component
+@Slf4j
+public class NativeOcspResponder {
+    private static final String OCSP_RESPONSE = "application/ocsp-response";
+
+    @Autowired
+    SimpleCertAuthConfiguration configuration;
+    @Autowired
+    CAPaths caPaths;
+    @Autowired
+    SigningKeyCache signingKeyCache;
+    @Autowired
+    RevocationIndex revocationIndex;
+    @Autowired
+    OcspResponseCache responseCache;
+    @Autowired
+    CAMetrics caMetrics;
+    @Autowired
+    BlockingScheduler blockingScheduler;
+
+    // issuer name hash and key hash of every CA, for both sha1 and sha256 CertID
+    private volatile Map<String, Issuer> issuers = Map.of();
+    private volatile int caCount;
+    private Supplier<List<CA>> allCA;
+    private LoopResources loopResources;
+    private DisposableServer server;
+    private ScheduledExecutorService refresher;
+
+    public synchronized void start(Supplier<List<CA>> allCA) {
+        if (server != null) return;
+        this.allCA = allCA;
+        loadIssuers();
+        loopResources = LoopResources.create("ocsp");
+        server = HttpServer.create()
+                .port(configuration.ocspPort)
+                .runOn(loopResources)
+                .handle(this::handle)
+                .bindNow();
+        log.info("OCSP responder listening on port {}", configuration.ocspPort);
+        if (responseCache.isEnabled()) {
+            int interval = configuration.ocsp.refreshIntervalSeconds;
+            refresher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "ocsp-refresh");
+                thread.setDaemon(true);
+                return thread;
+            });
+            refresher.scheduleWithFixedDelay(this::refreshCache, interval, interval, TimeUnit.SECONDS);
+        }
+    }
+
+    @PreDestroy
+    public synchronized void stop() {
+        if (server == null) return;
+        if (refresher != null) refresher.shutdownNow();
+        server.disposeNow();
+        loopResources.dispose();
+        server = null;
+    }
+
+    // pick up CA created since the responder started
+    public synchronized void loadIssuers() {
+        List<CA> cas = allCA.get();
+        Map<String, Issuer> loaded = new HashMap<>();
+        DigestCalculatorProvider digestCalculatorProvider = digestCalculatorProvider();
+        for (CA ca : cas) {
+            Path workingDirectory = caPaths.getWorkingDirectory(ca);
+            Path signerCertPath = workingDirectory.resolve(ca.name + "-ocsp-signer.crt");
+            if (Files.notExists(signerCertPath)) {
+                log.info("{} has no OCSP signer cert, skipped", ca.name);
+                continue;
+            }
+            X509CertificateHolder caCert = toHolder(workingDirectory.resolve(ca.name + ".crt"));
+            Issuer issuer = new Issuer(ca, toHolder(signerCertPath));
+            for (AlgorithmIdentifier hashAlgorithm : List.of(CertificateID.HASH_SHA1, new AlgorithmIdentifier(NISTObjectIdentifiers.id_sha256))) {
+                loaded.put(toKey(certificateId(digestCalculatorProvider, hashAlgorithm, caCert)), issuer);
+            }
+        }
+        issuers = loaded;
+        caCount = cas.size();
+    }
+
+    private Publisher<Void> handle(HttpServerRequest request, HttpServerResponse response) {
+        Mono<byte[]> encodedRequest;
+        if (request.method().equals(HttpMethod.POST)) {
+            encodedRequest = request.receive().aggregate().asByteArray();
+        } else if (request.method().equals(HttpMethod.GET)) {
+            encodedRequest = Mono.fromCallable(() -> decodeGetRequest(request.uri()));
+        } else {
+            return response.status(HttpResponseStatus.METHOD_NOT_ALLOWED).send();
+        }
+        return encodedRequest
+                .flatMap(bytes -> {
+                    byte[] cached = fromCache(bytes);
+                    return (cached != null) ? Mono.just(cached) : blockingScheduler.call(() -> respond(bytes));
+                })
+                .onErrorResume(throwable -> {
+                    if (throwable instanceof RejectedExecutionException)
+                        return Mono.just(errorResponse(OCSPRespBuilder.TRY_LATER));
+                    log.info("failed to answer OCSP request", throwable);
+                    return Mono.just(errorResponse(OCSPRespBuilder.INTERNAL_ERROR));
+                })
+                .flatMap(encodedResponse -> response
+                        .header(HttpHeaderNames.CONTENT_TYPE, OCSP_RESPONSE)
+                        .sendByteArray(Mono.just(encodedResponse))
+                        .then());
+    }
+
+    // the cached response of a single CertID request of a known issuer, null if it has to be signed
+    private byte[] fromCache(byte[] encodedRequest) {
+        if (!responseCache.isEnabled()) return null;
+        OCSPReq request;
+        try {
+            request = new OCSPReq(encodedRequest);
+        } catch (IOException e) {
+            return null;
+        }
+        Req[] requests = request.getRequestList();
+        if (requests.length != 1 || request.getExtension(OCSPObjectIdentifiers.id_pkix_ocsp_nonce) != null) return null;
+        CertificateID certificateId = requests[0].getCertID();
+        Issuer issuer = issuers.get(toKey(certificateId));
+        if (issuer == null) return null;
+        byte[] response = responseCache.get(issuer.ca, certificateId).orElse(null);
+        if (response != null) caMetrics.ocspRequest("successful");
+        return response;
+    }
+
+    // blocking, signs unless the response is cached
+    byte[] respond(byte[] encodedRequest) {
+        OCSPReq request;
+        try {
+            request = new OCSPReq(encodedRequest);
+        } catch (IOException e) {
+            return errorResponse(OCSPRespBuilder.MALFORMED_REQUEST);
+        }
+        Req[] requests = request.getRequestList();
+        if (requests.length == 0) return errorResponse(OCSPRespBuilder.MALFORMED_REQUEST);
+        // one response is signed by one responder, that's the one of the first CertID
+        Issuer signer = findIssuer(requests[0].getCertID());
+        if (signer == null) return errorResponse(OCSPRespBuilder.UNAUTHORIZED);
+        Extension nonce = request.getExtension(OCSPObjectIdentifiers.id_pkix_ocsp_nonce);
+        if (requests.length == 1 && nonce == null && responseCache.isEnabled()) {
+            CertificateID certificateId = requests[0].getCertID();
+            byte[] response = responseCache.get(signer.ca, certificateId).orElseGet(() -> signAndCache(signer, certificateId));
+            caMetrics.ocspRequest("successful");
+            return response;
+        }
+        Map<CertificateID, CertificateStatus> statuses = new LinkedHashMap<>();
+        for (Req req : requests) {
+            CertificateID certificateId = req.getCertID();
+            Issuer issuer = findIssuer(certificateId);
+            // the signer isn't a responder of the other CA
+            statuses.put(certificateId, (issuer == null || !issuer.ca.name.equals(signer.ca.name)) ? new UnknownStatus() :
+                    toStatus(revocationIndex.lookup(issuer.ca, certificateId.getSerialNumber())));
+        }
+        byte[] response = sign(signer, statuses, nonce, Instant.now());
+        caMetrics.ocspRequest("successful");
+        return response;
+    }
+
+    // only certs known to the index are cached, an unknown serial may be issued any time
+    private byte[] signAndCache(Issuer issuer, CertificateID certificateId) {
+        BigInteger serial = certificateId.getSerialNumber();
+        Optional<RevocationIndex.Entry> entry = revocationIndex.lookup(issuer.ca, serial);
+        Instant now = Instant.now();
+        byte[] response = sign(issuer, Collections.singletonMap(certificateId, toStatus(entry)), null, now);
+        if (entry.isPresent()) {
+            OcspResponseCache.CachedResponse cachedResponse = new OcspResponseCache.CachedResponse(
+                    issuer.ca, certificateId, response, now, now.plus(configuration.ocsp.nextUpdateMinutes, ChronoUnit.MINUTES));
+            // the index entries are replaced on every reload, same instance means the status didn't change meanwhile
+            responseCache.put(cachedResponse, () -> revocationIndex.lookup(issuer.ca, serial).orElse(null) == entry.get());
+        }
+        return response;
+    }
+
+    // re-sign the cached responses before their nextUpdate
+    private void refreshCache() {
+        try {
+            Instant refreshBefore = Instant.now().plus(configuration.ocsp.refreshAheadMinutes, ChronoUnit.MINUTES);
+            List<OcspResponseCache.CachedResponse> expiring = responseCache.getExpiringBefore(refreshBefore);
+            for (OcspResponseCache.CachedResponse cachedResponse : expiring) {
+                Issuer issuer = findIssuer(cachedResponse.certificateId);
+                if (issuer != null) signAndCache(issuer, cachedResponse.certificateId);
+            }
+            if (!expiring.isEmpty()) log.info("{} cached OCSP response(s) refreshed", expiring.size());
+        } catch (Throwable throwable) {
+            log.info("failed to refresh the OCSP response cache", throwable);
+        }
+    }
+
+    @SneakyThrows
+    private byte[] sign(Issuer signer, Map<CertificateID, CertificateStatus> statuses, Extension nonce, Instant now) {
+        Date thisUpdate = Date.from(now);
+        Date nextUpdate = Date.from(now.plus(configuration.ocsp.nextUpdateMinutes, ChronoUnit.MINUTES));
+        BasicOCSPRespBuilder builder = new BasicOCSPRespBuilder(new RespID(signer.signerCert.getSubject()));
+        statuses.forEach((certificateId, status) -> builder.addResponse(certificateId, status, thisUpdate, nextUpdate, null));
+        if (nonce != null) builder.setResponseExtensions(new Extensions(nonce));
+        BasicOCSPResp basicResponse = builder.build(
+                JcaSigningEngine.contentSigner(signingKeyCache.getOcspSigningKey(signer.ca)),
+                new X509CertificateHolder[]{signer.signerCert},
+                thisUpdate);
+        return new OCSPRespBuilder().build(OCSPRespBuilder.SUCCESSFUL, basicResponse).getEncoded();
+    }
+
+    // GOOD is null, not to go through Optional.map
+    private static CertificateStatus toStatus(Optional<RevocationIndex.Entry> entry) {
+        if (entry.isEmpty()) return new UnknownStatus();
+        return entry.get().isRevoked() ?
+                new RevokedStatus(Date.from(entry.get().getRevocationDate()), CRLReason.unspecified) :
+                CertificateStatus.GOOD;
+    }
+
+    private Issuer findIssuer(CertificateID certificateId) {
+        String key = toKey(certificateId);
+        Issuer issuer = issuers.get(key);
+        if (issuer == null && allCA.get().size() != caCount) {
+            loadIssuers();
+            issuer = issuers.get(key);
+        }
+        return issuer;
+    }
+
+    // GET /{url encoded base64 of the DER request}, the path may have a prefix
+    private byte[] decodeGetRequest(String uri) {
+        String path = URLDecoder.decode(uri, StandardCharsets.UTF_8);
+        while (path.startsWith("/")) path = path.substring(1);
+        return Base64.getDecoder().decode(path);
+    }
+
+    @SneakyThrows
+    private byte[] errorResponse(int status) {
+        caMetrics.ocspRequest(toStatusName(status));
+        return new OCSPRespBuilder().build(status, null).getEncoded();
+    }
+
+    private static String toStatusName(int status) {
+        switch (status) {
+            case OCSPRespBuilder.MALFORMED_REQUEST:
+                return "malformedRequest";
+            case OCSPRespBuilder.INTERNAL_ERROR:
+                return "internalError";
+            case OCSPRespBuilder.UNAUTHORIZED:
+                return "unauthorized";
+            case OCSPRespBuilder.TRY_LATER:
+                return "tryLater";
+            default:
+                return String.valueOf(status);
+        }
+    }
+
+    private static String toKey(CertificateID certificateId) {
+        return certificateId.getHashAlgOID() + ":" + Hex.toHexString(certificateId.getIssuerNameHash())
+                + ":" + Hex.toHexString(certificateId.getIssuerKeyHash());
+    }
+
+    @SneakyThrows
+    private static CertificateID certificateId(DigestCalculatorProvider digestCalculatorProvider, AlgorithmIdentifier hashAlgorithm, X509CertificateHolder caCert) {
+        return new CertificateID(digestCalculatorProvider.get(hashAlgorithm), caCert, BigInteger.ONE);
+    }
+
+    @SneakyThrows
+    private static DigestCalculatorProvider digestCalculatorProvider() {
+        return new JcaDigestCalculatorProviderBuilder().build();
+    }
+
+    @SneakyThrows
+    private static X509CertificateHolder toHolder(Path certPath) {
+        return new JcaX509CertificateHolder(PemFiles.readCertificate(certPath));
+    }
+
+    @AllArgsConstructor
+    private static class Issuer {
+        final CA ca;
+        final X509CertificateHolder signerCert;
+    }
+}
@@ -1,5 +1,6 @@
 package com.youramaryllis.simpleca;
 
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.ApplicationListener;
 import org.springframework.context.annotation.DependsOn;
@@ -11,21 +12,39 @@ import java.util.concurrent.Executors;
 
 @Component
 @DependsOn("certCABuilder")
+@Slf4j
 public class OcspResponder implements ApplicationListener<ContextRefreshedEvent> {
+    @Autowired
+    SimpleCertAuthConfiguration configuration;
     @Autowired
     CertAuthDatabase database;
     @Autowired
     CertAuthority certAuthority;
+    @Autowired
+    NativeOcspResponder nativeOcspResponder;
     private ExecutorService executorService;
 
     @Override
     public void onApplicationEvent(ContextRefreshedEvent event) {
-        executorService = Executors.newSingleThreadExecutor();
-        executorService.submit(certAuthority.startOCSP(database.getAllCA()));
+        if (isOpenssl()) {
+            executorService = Executors.newSingleThreadExecutor();
+            executorService.submit(certAuthority.startOCSP(database.getAllCA()));
+        } else {
+            nativeOcspResponder.start(database::getAllCA);
+        }
     }
 
     public void restart() {
-        executorService.shutdownNow();
-        executorService.submit(certAuthority.startOCSP(database.getAllCA()));
+        if (isOpenssl()) {
+            executorService.shutdownNow();
+            executorService = Executors.newSingleThreadExecutor();
+            executorService.submit(certAuthority.startOCSP(database.getAllCA()));
+        } else {
+            nativeOcspResponder.loadIssuers();
+        }
+    }
+
+    private boolean isOpenssl() {
+        return "openssl".equalsIgnoreCase(configuration.ocsp.responder);
     }
 }
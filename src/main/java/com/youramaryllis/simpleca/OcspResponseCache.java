@@ -0,0 +1,116 @@
+package com.youramaryllis.simpleca;
+
+import lombok.AllArgsConstructor;
+import org.bouncycastle.cert.ocsp.CertificateID;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.math.BigInteger;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BooleanSupplier;
+import java.util.stream.Collectors;
+
+/**
+ * Signed OCSP responses for a single CertID without nonce, keyed by CA, serial and CertID hash algorithm.
+ * <p>
+ * A response is served until its nextUpdate, the least recently used ones are evicted beyond
+ * {@code simpleca.ocsp.cacheSize}. {@link NativeOcspResponder} re-signs the entries about to expire,
+ * {@link CertAuthority#revokeCert} drops the entries of a revoked cert.
+ */
+@Component
+public class OcspResponseCache {
+    @Autowired
+    SimpleCertAuthConfiguration configuration;
+
+    private Map<String, CachedResponse> responses;
+    // hash algorithms of the cached CertIDs, sha1 and sha256 in practice
+    private final Set<String> hashAlgorithms = ConcurrentHashMap.newKeySet();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    @PostConstruct
+    public void setup() {
+        int cacheSize = configuration.ocsp.cacheSize;
+        responses = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedResponse> eldest) {
+                return size() > cacheSize;
+            }
+        };
+    }
+
+    public boolean isEnabled() {
+        return configuration.ocsp.cacheSize > 0;
+    }
+
+    public Optional<byte[]> get(CA ca, CertificateID certificateId) {
+        CachedResponse cachedResponse;
+        synchronized (this) {
+            cachedResponse = responses.get(toKey(ca.name, certificateId.getSerialNumber(), certificateId.getHashAlgOID().getId()));
+        }
+        if (cachedResponse == null || !Instant.now().isBefore(cachedResponse.nextUpdate)) {
+            misses.increment();
+            return Optional.empty();
+        }
+        hits.increment();
+        return Optional.of(cachedResponse.response);
+    }
+
+    // stillValid is checked atomically with the insert, so a response signed before a revocation is never cached after it
+    public synchronized void put(CachedResponse cachedResponse, BooleanSupplier stillValid) {
+        if (!isEnabled() || !stillValid.getAsBoolean()) return;
+        CertificateID certificateId = cachedResponse.certificateId;
+        hashAlgorithms.add(certificateId.getHashAlgOID().getId());
+        responses.put(toKey(cachedResponse.ca.name, certificateId.getSerialNumber(), certificateId.getHashAlgOID().getId()), cachedResponse);
+    }
+
+    // the exact keys, a bulk revocation doesn't scan the cache once per cert
+    public synchronized void invalidate(CA ca, BigInteger serial) {
+        for (String hashAlgorithm : hashAlgorithms) responses.remove(toKey(ca.name, serial, hashAlgorithm));
+    }
+
+    public synchronized void invalidate(CA ca) {
+        String prefix = ca.name + "/";
+        responses.keySet().removeIf(key -> key.startsWith(prefix));
+    }
+
+    public synchronized List<CachedResponse> getExpiringBefore(Instant instant) {
+        return responses.values().stream()
+                .filter(cachedResponse -> cachedResponse.nextUpdate.isBefore(instant))
+                .collect(Collectors.toCollection(ArrayList::new));
+    }
+
+    public synchronized int size() {
+        return responses.size();
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    private static String toKey(String caName, BigInteger serial, String hashAlgorithm) {
+        return caName + "/" + serial.toString(16) + "/" + hashAlgorithm;
+    }
+
+    @AllArgsConstructor
+    static class CachedResponse {
+        final CA ca;
+        final CertificateID certificateId;
+        final byte[] response;
+        final Instant thisUpdate;
+        final Instant nextUpdate;
+    }
+}
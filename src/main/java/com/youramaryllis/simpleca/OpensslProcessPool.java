@@ -0,0 +1,216 @@
+package com.youramaryllis.simpleca;
+
+import lombok.SneakyThrows;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Long-lived {@code openssl} processes in interactive mode, fed one command per line on stdin, for
+ * {@link OpensslSigningEngine} to skip the exec, dynamic linking and config loading of a fork per command.
+ * <p>
+ * {@code ca.conf} points to {@code ./}, so processes are kept per working directory, up to
+ * {@code simpleca.opensslPool.processesPerDirectory} of them each taking one command at a time.
+ * A command is done when the {@code OpenSSL>} prompt comes back, it failed if openssl printed
+ * {@code error in <command>} before it. A process found dead before a command, or killed after
+ * {@code commandTimeoutSeconds}, is replaced by a new one.
+ * <p>
+ * OpenSSL 3.0 dropped the interactive mode, the binary is probed once and the engine keeps forking
+ * a process per command if it doesn't show the prompt.
+ */
+@Component
+@Slf4j
+public class OpensslProcessPool {
+    private static final String PROMPT = "OpenSSL> ";
+    // openssl reads the interactive commands into a 1k buffer
+    private static final int MAX_LINE = 1000;
+
+    @Autowired
+    SimpleCertAuthConfiguration configuration;
+
+    private final Map<Path, Directory> directories = new ConcurrentHashMap<>();
+    private volatile Boolean interactive;
+    private final AtomicInteger processCount = new AtomicInteger();
+    private final ScheduledExecutorService watchdog = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "openssl-watchdog");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public boolean isEnabled(String opensslBin) {
+        if (configuration.opensslPool.processesPerDirectory <= 0) return false;
+        if (interactive == null) probe(opensslBin);
+        return interactive;
+    }
+
+    private synchronized void probe(String opensslBin) {
+        if (interactive != null) return;
+        try {
+            new Worker(opensslBin, Paths.get(System.getProperty("java.io.tmpdir"))).destroy();
+            interactive = true;
+            log.info("running openssl commands in up to {} interactive process(es) per directory", configuration.opensslPool.processesPerDirectory);
+        } catch (IOException e) {
+            interactive = false;
+            log.info("{} has no interactive mode, forking a process per command", opensslBin);
+        }
+    }
+
+    // interactive openssl splits the line on blanks, only quotes group words, there's no escaping
+    public boolean canRun(List<String> args) {
+        int length = 0;
+        for (String arg : args) {
+            if (arg.isEmpty() || arg.contains("\n") || (arg.contains("'") && arg.contains("\""))) return false;
+            length += arg.length() + 3;
+        }
+        return length < MAX_LINE && !args.get(args.size() - 1).endsWith("\\");
+    }
+
+    /**
+     * Runs {@code openssl <args>} in one of the processes of the directory. Returns 0 if the command succeeded,
+     * 1 if openssl reported an error. stdout and stderr come merged, they go to error only when the command failed,
+     * and are traced otherwise as the stdout of a forked openssl is.
+     */
+    @SneakyThrows
+    public int execute(String opensslBin, Path directory, List<String> args, OutputStream error) {
+        Directory processes = directories.computeIfAbsent(directory, d -> new Directory());
+        processes.permits.acquire();
+        Worker worker = null;
+        try {
+            worker = processes.idle.poll();
+            if (worker == null || !worker.process.isAlive()) {
+                if (worker != null) {
+                    log.info("openssl process in {} died, replacing it", directory);
+                    worker.destroy();
+                }
+                worker = new Worker(opensslBin, directory);
+            }
+            String result = worker.run(toLine(args), configuration.opensslPool.commandTimeoutSeconds);
+            processes.idle.add(worker);
+            worker = null;
+            boolean failed = result.contains("error in " + args.get(0));
+            if (failed) error.write(result.getBytes(StandardCharsets.UTF_8));
+            else log.trace(result);
+            return failed ? 1 : 0;
+        } finally {
+            if (worker != null) worker.destroy(); // broken or timed out, the next command gets a new one
+            processes.permits.release();
+        }
+    }
+
+    public int getProcessCount() {
+        return processCount.get();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        watchdog.shutdownNow();
+        directories.values().forEach(processes -> {
+            Worker worker;
+            while ((worker = processes.idle.poll()) != null) worker.destroy();
+        });
+    }
+
+    private static String toLine(List<String> args) {
+        StringBuilder line = new StringBuilder();
+        for (String arg : args) {
+            if (line.length() > 0) line.append(' ');
+            boolean quote = arg.chars().anyMatch(Character::isWhitespace) || arg.startsWith("'") || arg.startsWith("\"");
+            char quoteChar = arg.contains("\"") ? '\'' : '"';
+            if (quote) line.append(quoteChar).append(arg).append(quoteChar);
+            else line.append(arg);
+        }
+        return line.append('\n').toString();
+    }
+
+    private class Directory {
+        final BlockingQueue<Worker> idle = new LinkedBlockingQueue<>();
+        final Semaphore permits = new Semaphore(Math.max(1, configuration.opensslPool.processesPerDirectory));
+    }
+
+    private class Worker {
+        final Process process;
+        final OutputStream stdin;
+        final InputStream stdout;
+
+        Worker(String opensslBin, Path directory) throws IOException {
+            process = new ProcessBuilder(opensslBin)
+                    .directory(directory.toFile())
+                    .redirectErrorStream(true) // keeps "error in" ahead of the next prompt
+                    .start();
+            processCount.incrementAndGet();
+            stdin = process.getOutputStream();
+            stdout = process.getInputStream();
+            try {
+                readUntilPrompt(configuration.opensslPool.commandTimeoutSeconds);
+            } catch (IOException e) {
+                destroy();
+                throw e;
+            }
+            log.info("openssl process started in {}", directory);
+        }
+
+        String run(String line, int timeoutSeconds) throws IOException {
+            stdin.write(line.getBytes(StandardCharsets.UTF_8));
+            stdin.flush();
+            return readUntilPrompt(timeoutSeconds);
+        }
+
+        // the process is killed if the prompt doesn't come back in time, which ends the read
+        private String readUntilPrompt(int timeoutSeconds) throws IOException {
+            ScheduledFuture<?> timeout = watchdog.schedule(process::destroyForcibly, timeoutSeconds, TimeUnit.SECONDS);
+            try {
+                return readUntilPrompt();
+            } finally {
+                timeout.cancel(false);
+            }
+        }
+
+        private String readUntilPrompt() throws IOException {
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            byte[] prompt = PROMPT.getBytes(StandardCharsets.UTF_8);
+            byte[] buffer = new byte[4096];
+            while (true) {
+                int read = stdout.read(buffer);
+                if (read < 0) throw new IOException("openssl process exited: " + output);
+                output.write(buffer, 0, read);
+                if (endsWith(output.toByteArray(), prompt)) {
+                    String content = output.toString(StandardCharsets.UTF_8);
+                    return content.substring(0, content.length() - PROMPT.length());
+                }
+            }
+        }
+
+        void destroy() {
+            process.destroyForcibly();
+            processCount.decrementAndGet();
+        }
+    }
+
+    private static boolean endsWith(byte[] content, byte[] suffix) {
+        if (content.length < suffix.length) return false;
+        for (int i = 0; i < suffix.length; i++) {
+            if (content[content.length - suffix.length + i] != suffix[i]) return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,368 @@
+package com.youramaryllis.simpleca;
+
+import lombok.SneakyThrows;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.logging.log4j.util.Strings;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.zeroturnaround.exec.ProcessExecutor;
+import org.zeroturnaround.exec.ProcessResult;
+import org.zeroturnaround.exec.stream.slf4j.Slf4jStream;
+
+import javax.annotation.PostConstruct;
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.stream.Collectors;
+
+/**
+ * {@link SigningEngine} running the openssl (and keytool) binaries for every operation, in the
+ * {@link OpensslProcessPool} when openssl has an interactive mode, forking otherwise.
+ */
+@Component
+@Slf4j
+public class OpensslSigningEngine implements SigningEngine {
+
+    @Autowired
+    SimpleCertAuthConfiguration configuration;
+    @Autowired
+    CAPaths caPaths;
+    @Autowired
+    CAMetrics caMetrics;
+    @Autowired
+    OpensslProcessPool processPool;
+
+    String opensslBin;
+
+    @PostConstruct
+    public void setup() {
+        opensslBin = Paths.get(configuration.opensslPath).resolve("openssl").toString();
+    }
+
+    //openssl genrsa -aes256 -passout pass:changeit -out rootca.key 8192
+    //openssl genpkey -algorithm EC -pkeyopt ec_paramgen_curve:P-256 -pkeyopt ec_param_enc:named_curve -aes256 -pass pass:changeit -out rootca.key
+    @Override
+    public boolean generatePrivateKey(CertCA certCA) {
+        assert Objects.nonNull(certCA.getPassword());
+        KeyAlgorithm keyAlgorithm = KeyAlgorithm.of(certCA);
+        String keyFile = getWorkingDirectory(certCA).resolve(certCA.getName() + ".key").toString();
+        List<String> cmd = new ArrayList<>(List.of(opensslBin));
+        if (keyAlgorithm == KeyAlgorithm.RSA) {
+            cmd.addAll(List.of(
+                    "genrsa", "-aes256",
+                    "-passout", "pass:" + certCA.getPassword(),
+                    "-out", keyFile,
+                    String.valueOf(certCA.getKeySize())
+            ));
+        } else {
+            cmd.addAll(List.of("genpkey", "-algorithm", keyAlgorithm.getAlgorithm().toUpperCase()));
+            cmd.addAll(curveOptions(keyAlgorithm));
+            cmd.addAll(List.of(
+                    "-aes256",
+                    "-pass", "pass:" + certCA.getPassword(),
+                    "-out", keyFile
+            ));
+        }
+        return executeAndExpectOutputFile(certCA, cmd, certCA.getName() + ".key");
+    }
+
+    //openssl req -sha256 -new -x509 -days 1826 -key rootca.key -out rootca.crt -subj '/C=US/ST=California/L=San Francisco/O=Test/CN=Root CA' -passin pass:changeit
+    @Override
+    public boolean generateCert(CA ca) {
+        assert Objects.nonNull(ca.password);
+        List<String> cmd = new ArrayList<>(List.of(opensslBin, "req"));
+        cmd.addAll(digestOption(KeyAlgorithm.of(ca)));
+        cmd.addAll(List.of(
+                "-new", "-x509",
+                "-days", String.valueOf(ca.days),
+                "-key", ca.name + ".key",
+                "-out", ca.name + ".crt",
+                "-subj", ca.subject,
+                "-passin", "pass:" + ca.password
+        ));
+        return executeAndExpectOutputFile(ca, cmd, ca.name + ".crt");
+    }
+
+    //openssl req -sha256 -new -key intermediate.key -out intermediate.csr -subj '/C=US/ST=California/L=San Francisco/O=Test/CN=Intermediate CA' -passin pass:changeit
+    @Override
+    public boolean generateCSR(CertCA certCA) {
+        assert Objects.nonNull(certCA.getPassword());
+        List<String> cmd = new ArrayList<>(List.of(opensslBin, "req"));
+        cmd.addAll(digestOption(KeyAlgorithm.of(certCA)));
+        cmd.addAll(List.of(
+                "-new",
+                "-key", getWorkingDirectory(certCA).resolve(certCA.getName() + ".key").toString(),
+                "-out", getWorkingDirectory(certCA).resolve(certCA.getName() + ".csr").toString(),
+                "-subj", certCA.getSubject(),
+                "-passin", "pass:" + certCA.getPassword()
+        ));
+        return executeAndExpectOutputFile(certCA, cmd, certCA.getName() + ".csr");
+    }
+
+    //openssl ca -batch -config ca.conf -notext -in intermediate.csr -out intermediate.crt -passin pass:changeit
+    @Override
+    public boolean signCert(CertCA certCA) {
+        CA parent = certCA.getSigningCA();
+        assert Objects.nonNull(certCA.getPassword());
+        Path certFilename = getWorkingDirectory(parent).resolve("certs").resolve(certCA.getName() + ".crt");
+        List<String> cmd = List.of(
+                opensslBin,
+                "ca", "-batch",
+                "-config", "ca.conf",
+                "-notext",
+                "-in", getWorkingDirectory(certCA).resolve(certCA.getName() + ".csr").toString(),
+                "-out", certFilename.toString(),
+                "-passin", "pass:" + certCA.getPassword()
+        );
+        return executeAndExpectOutputFile(parent, cmd, "certs/" + certCA.getName() + ".crt");
+    }
+
+    /*
+    openssl ca -config ca.conf -gencrl -keyfile rootca.key -cert rootca.crt -out rootca.crl.pem -passin pass:changeit
+    openssl crl -inform PEM -in rootca.crl.pem -outform DER -out rootca.crl
+     */
+    @Override
+    @SneakyThrows
+    public boolean generateCrl(CA ca) {
+        assert Objects.nonNull(ca.password);
+        boolean result = executeAndExpectOutputFile(ca, gencrl(ca, ca.name + ".crl.pem"), ca.name + ".crl.pem");
+        if (result) Files.deleteIfExists(getWorkingDirectory(ca).resolve(ca.name + ".crl"));
+        return executeAndExpectOutputFile(ca, toDer(ca.name + ".crl.pem", ca.name + ".crl"), ca.name + ".crl");
+    }
+
+    // same commands on temp files, renamed over the live ones
+    @Override
+    @SneakyThrows
+    public void replaceCrl(CA ca) {
+        assert Objects.nonNull(ca.password);
+        Path workingDirectory = getWorkingDirectory(ca);
+        String pemTempName = ca.name + ".crl.pem.new";
+        String derTempName = ca.name + ".crl.new";
+        execute(ca, gencrl(ca, pemTempName));
+        execute(ca, toDer(pemTempName, derTempName));
+        Files.move(workingDirectory.resolve(derTempName), workingDirectory.resolve(ca.name + ".crl"),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        Files.move(workingDirectory.resolve(pemTempName), workingDirectory.resolve(ca.name + ".crl.pem"),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        log.info("CRL of {} replaced", ca.name);
+    }
+
+    private List<String> gencrl(CA ca, String pemName) {
+        return List.of(
+                opensslBin, "ca",
+                "-config", "ca.conf",
+                "-gencrl",
+                "-keyfile", ca.name + ".key",
+                "-cert", ca.name + ".crt",
+                "-out", pemName,
+                "-passin", "pass:" + ca.password
+        );
+    }
+
+    private List<String> toDer(String pemName, String derName) {
+        return List.of(
+                opensslBin, "crl",
+                "-inform", "PEM",
+                "-in", pemName,
+                "-outform", "DER",
+                "-out", derName
+        );
+    }
+
+    //openssl verify -CAfile chain.crt server.crt
+    @Override
+    public void verifyCert(CA ca, Cert cert) {
+        Path certPath = getWorkingDirectory(cert).resolve(cert.name + ".crt");
+        assert Files.exists(certPath);
+        Path chainCertPath = getWorkingDirectory(ca).resolve("certs").resolve("chain.crt");
+        assert Files.exists(chainCertPath);
+        List<String> cmd = List.of(
+                opensslBin, "verify",
+                "-CAfile", chainCertPath.toString(),
+                certPath.toString()
+        );
+        execute(cert, cmd);
+    }
+
+    //openssl ca -config ca.conf -revoke client2.crt -keyfile intermediate.key -cert intermediate.crt -passin pass:changeit
+    @Override
+    public void revokeCert(CA ca, Cert cert) {
+        assert Objects.nonNull(ca.password);
+        Path workingDirectory = getWorkingDirectory(ca);
+        Path certDirectory = getWorkingDirectory(cert);
+        List<String> cmd = List.of(
+                opensslBin, "ca",
+                "-config", workingDirectory.resolve("ca.conf").toString(),
+                "-revoke", certDirectory.resolve(cert.name + ".crt").toString(),
+                "-keyfile", workingDirectory.resolve(ca.name + ".key").toString(),
+                "-cert", workingDirectory.resolve(ca.name + ".crt").toString(),
+                "-passin", "pass:" + ca.password
+        );
+        execute(ca, cmd);
+    }
+
+    //keytool -importcert -alias ca -file ../rootca/rootca.crt -keystore truststore.p12 -storepass:file changeit -noprompt
+    @Override
+    @SneakyThrows
+    public void generateTrustStore(CA ca) {
+        assert Objects.nonNull(ca.password);
+        Path workingDirectory = getWorkingDirectory(ca);
+        Path storepass = workingDirectory.resolve("storepass");
+        Files.writeString(storepass, ca.password);
+        List<String> cmd = List.of(
+                "keytool", "-importcert",
+                "-alias", "ca",
+                "-file", ca.name + ".crt",
+                "-keystore", "certs/truststore.p12",
+                "-storepass:file", "storepass",
+                "-noprompt"
+        );
+        executeAndExpectOutputFile(ca, cmd, "certs/truststore.p12");
+        Files.deleteIfExists(storepass);
+    }
+
+    //openssl req -new -nodes -out ocspSigning.csr -keyout ocspSigning.key
+    //openssl req -new -nodes -newkey ec -pkeyopt ec_paramgen_curve:P-256 -out ocspSigning.csr -keyout ocspSigning.key
+    @Override
+    public boolean generateOCSPPrivateKey(CA ca) {
+        assert Objects.nonNull(ca.getPassword());
+        String subject = Arrays.stream(ca.subject.split("/")).map(s -> (s.startsWith("CN=")) ? "CN=" + ca.name + " OCSP" : s).collect(Collectors.joining("/"));
+        // same key type as the CA, openssl's default RSA key otherwise
+        KeyAlgorithm keyAlgorithm = KeyAlgorithm.of(ca);
+        List<String> cmd = new ArrayList<>(List.of(opensslBin, "req"));
+        cmd.addAll(digestOption(keyAlgorithm));
+        cmd.addAll(List.of("-new", "-nodes"));
+        if (keyAlgorithm != KeyAlgorithm.RSA) {
+            cmd.addAll(List.of("-newkey", keyAlgorithm.getAlgorithm().toLowerCase()));
+            cmd.addAll(curveOptions(keyAlgorithm));
+        }
+        cmd.addAll(List.of(
+                "-subj", subject,
+                "-out", ca.getName() + "-ocsp-signer.csr",
+                "-keyout", ca.getName() + "-ocsp-signer.key"
+        ));
+        return executeAndExpectOutputFile(ca, cmd, ca.getName() + "-ocsp-signer.key", ca.getName() + "-ocsp-signer.csr");
+    }
+
+    //openssl ca -batch -keyfile rootCA.key -cert rootCA.crt -in ocspSigning.csr -out ocspSigning.crt -config validation.conf
+    @Override
+    public boolean generateOCSPCert(CA ca) {
+        assert Objects.nonNull(ca.getPassword());
+        List<String> cmd = List.of(
+                opensslBin, "ca", "-batch",
+                "-keyfile", ca.name + ".key",
+                "-cert", ca.name + ".crt",
+                "-in", ca.name + "-ocsp-signer.csr",
+                "-out", ca.name + "-ocsp-signer.crt",
+                "-passin", "pass:" + ca.password,
+                "-config", "ca.conf"
+        );
+        return executeAndExpectOutputFile(ca, cmd, ca.getName() + "-ocsp-signer.crt");
+    }
+
+    public Runnable startOCSP(List<CA> allCA) {
+        List<String> cmd = allCA.stream()
+                .flatMap(ca -> {
+                    Path caDirectory = getWorkingDirectory(ca);
+                    return List.of(
+                            "-index", caDirectory.resolve("certindex").toString(),
+                            "-CA", caDirectory.resolve(ca.name + ".crt").toString(),
+                            "-rsigner", caDirectory.resolve(ca.name + "-ocsp-signer.crt").toString(),
+                            "-rkey", caDirectory.resolve(ca.name + "-ocsp-signer.key").toString()
+                    ).stream();
+                }).collect(Collectors.toList());
+        cmd.add(0, opensslBin);
+        cmd.add(1, "ocsp");
+        cmd.add("-port");
+        cmd.add(String.valueOf(configuration.getOcspPort()));
+        cmd.add("-text");
+        return () -> executeNoTimeout(cmd);
+    }
+
+    // ed25519 has the digest built in, openssl rejects one
+    private static List<String> digestOption(KeyAlgorithm keyAlgorithm) {
+        return (keyAlgorithm.getDigest() == null) ? List.of() : List.of("-" + keyAlgorithm.getDigest());
+    }
+
+    private static List<String> curveOptions(KeyAlgorithm keyAlgorithm) {
+        if (keyAlgorithm.getCurve() == null) return List.of();
+        return List.of("-pkeyopt", "ec_paramgen_curve:" + keyAlgorithm.getCurve(), "-pkeyopt", "ec_param_enc:named_curve");
+    }
+
+    private Path getWorkingDirectory(CertCA certCA) {
+        return caPaths.getWorkingDirectory(certCA);
+    }
+
+    // the commands on a cert only use absolute paths, they run in its CA's directory to share its processes
+    private Path getProcessDirectory(CertCA certCA) {
+        return certCA instanceof Cert ? getWorkingDirectory(certCA.getSigningCA()) : getWorkingDirectory(certCA);
+    }
+
+    private boolean executeAndExpectOutputFile(CertCA certCA, List<String> cmd, String... outputName) {
+        Path workingDirectory = getWorkingDirectory(certCA);
+        Optional<Path> anyMissing = Arrays.stream(outputName)
+                .map(workingDirectory::resolve)
+                .filter(Files::notExists)
+                .findAny();
+        if (anyMissing.isPresent()) {
+            OutputStream error = new ByteArrayOutputStream();
+            int exitValue = spawn(cmd, getProcessDirectory(certCA), error, true);
+            String errorMsg = error.toString();
+            if (Strings.isNotEmpty(errorMsg)) {
+                log.info(errorMsg);
+            }
+            assert exitValue == 0 : error.toString();
+            List<Path> fileMissing = Arrays.stream(outputName)
+                    .map(workingDirectory::resolve)
+                    .filter(Files::notExists)
+                    .collect(Collectors.toList());
+            assert fileMissing.size() == 0 : "files are missing: " + fileMissing;
+            log.info(String.join(",", outputName) + " file(s) created");
+            return true;
+        } else {
+            log.info(String.join(",", outputName) + " already existed");
+            return false;
+        }
+    }
+
+    private void execute(CertCA certCA, List<String> cmd) {
+        OutputStream error = new ByteArrayOutputStream();
+        int exitValue = spawn(cmd, getProcessDirectory(certCA), error, true);
+        assert exitValue == 0 : error.toString();
+    }
+
+    private void executeNoTimeout(List<String> cmd) {
+        Path workingDirectory = Paths.get(configuration.caPath);
+        OutputStream error = new ByteArrayOutputStream();
+        int exitValue = spawn(cmd, workingDirectory, error, false);
+        String errorMsg = error.toString();
+        if (Strings.isNotEmpty(errorMsg))
+            log.info(errorMsg);
+        assert exitValue == 0 : error.toString();
+    }
+
+    // every process goes through here to be timed and counted by command (e.g. "openssl ca", "keytool")
+    private int spawn(List<String> cmd, Path workingDirectory, OutputStream error, boolean timeout) {
+        String binary = Paths.get(cmd.get(0)).getFileName().toString();
+        String command = binary.equals("openssl") ? binary + " " + cmd.get(1) : binary;
+        List<String> args = cmd.subList(1, cmd.size());
+        boolean pooled = timeout && binary.equals("openssl") && processPool.isEnabled(cmd.get(0)) && processPool.canRun(args);
+        return caMetrics.process(command, () -> {
+            if (pooled) return processPool.execute(cmd.get(0), workingDirectory, args, error);
+            ProcessExecutor executor = new ProcessExecutor().command(cmd)
+                    .directory(workingDirectory.toFile())
+                    .redirectOutput(Slf4jStream.ofCaller().asTrace())
+                    .redirectError(error);
+            ProcessResult result = timeout ? executor.execute() : executor.executeNoTimeout();
+            return result.getExitValue();
+        });
+    }
+}
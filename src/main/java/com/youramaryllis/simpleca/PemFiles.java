@@ -0,0 +1,161 @@
+package com.youramaryllis.simpleca;
+
+import lombok.SneakyThrows;
+import org.bouncycastle.asn1.nist.NISTObjectIdentifiers;
+import org.bouncycastle.asn1.pkcs.PrivateKeyInfo;
+import org.bouncycastle.jcajce.interfaces.EdDSAPrivateKey;
+import org.bouncycastle.jce.interfaces.ECPrivateKey;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.bouncycastle.jce.spec.ECParameterSpec;
+import org.bouncycastle.jce.spec.ECPublicKeySpec;
+import org.bouncycastle.openssl.PEMEncryptedKeyPair;
+import org.bouncycastle.openssl.PEMKeyPair;
+import org.bouncycastle.openssl.PEMParser;
+import org.bouncycastle.openssl.jcajce.JcaPEMKeyConverter;
+import org.bouncycastle.openssl.jcajce.JcaPEMWriter;
+import org.bouncycastle.openssl.jcajce.JcaPKCS8Generator;
+import org.bouncycastle.openssl.jcajce.JceOpenSSLPKCS8DecryptorProviderBuilder;
+import org.bouncycastle.openssl.jcajce.JcePEMDecryptorProviderBuilder;
+import org.bouncycastle.operator.OutputEncryptor;
+import org.bouncycastle.pkcs.PKCS10CertificationRequest;
+import org.bouncycastle.pkcs.PKCS8EncryptedPrivateKeyInfo;
+import org.bouncycastle.pkcs.jcajce.JcePKCSPBEOutputEncryptorBuilder;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.KeyFactory;
+import java.security.KeyPair;
+import java.security.PrivateKey;
+import java.security.Provider;
+import java.security.PublicKey;
+import java.security.Security;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.security.interfaces.RSAPrivateCrtKey;
+import java.security.spec.RSAPublicKeySpec;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Reads and writes the PEM files in the CA/cert working directories the same way openssl does,
+ * private keys are PKCS#8, encrypted with AES-256 when a password is given.
+ */
+final class PemFiles {
+    static final String PROVIDER = BouncyCastleProvider.PROVIDER_NAME;
+
+    static {
+        if (Security.getProvider(PROVIDER) == null)
+            Security.addProvider(new BouncyCastleProvider());
+    }
+
+    private PemFiles() {
+    }
+
+    // PROVIDER is inlined by the compiler, this makes sure it's registered
+    static Provider getProvider() {
+        return Security.getProvider(PROVIDER);
+    }
+
+    @SneakyThrows
+    static void writeObject(Path path, Object object) {
+        try (Writer writer = Files.newBufferedWriter(path); JcaPEMWriter pemWriter = new JcaPEMWriter(writer)) {
+            pemWriter.writeObject(object);
+        }
+    }
+
+    @SneakyThrows
+    static void writePrivateKey(Path path, PrivateKey privateKey, String password) {
+        OutputEncryptor encryptor = (password == null) ? null :
+                new JcePKCSPBEOutputEncryptorBuilder(NISTObjectIdentifiers.id_aes256_CBC)
+                        .setProvider(PROVIDER)
+                        .build(password.toCharArray());
+        writeObject(path, new JcaPKCS8Generator(privateKey, encryptor));
+    }
+
+    @SneakyThrows
+    static PrivateKey readPrivateKey(Path path, String password) {
+        JcaPEMKeyConverter converter = new JcaPEMKeyConverter().setProvider(PROVIDER);
+        Object object = readObject(path);
+        if (object instanceof PKCS8EncryptedPrivateKeyInfo) {
+            assert password != null : path + " is encrypted";
+            PrivateKeyInfo privateKeyInfo = ((PKCS8EncryptedPrivateKeyInfo) object).decryptPrivateKeyInfo(
+                    new JceOpenSSLPKCS8DecryptorProviderBuilder().setProvider(PROVIDER).build(password.toCharArray()));
+            return converter.getPrivateKey(privateKeyInfo);
+        } else if (object instanceof PEMEncryptedKeyPair) {
+            assert password != null : path + " is encrypted";
+            PEMKeyPair pemKeyPair = ((PEMEncryptedKeyPair) object).decryptKeyPair(
+                    new JcePEMDecryptorProviderBuilder().setProvider(PROVIDER).build(password.toCharArray()));
+            return converter.getKeyPair(pemKeyPair).getPrivate();
+        } else if (object instanceof PEMKeyPair) {
+            return converter.getKeyPair((PEMKeyPair) object).getPrivate();
+        } else if (object instanceof PrivateKeyInfo) {
+            return converter.getPrivateKey((PrivateKeyInfo) object);
+        }
+        throw new AssertionError(path + " is not a private key");
+    }
+
+    static KeyPair readKeyPair(Path path, String password) {
+        PrivateKey privateKey = readPrivateKey(path, password);
+        return new KeyPair(toPublicKey(privateKey), privateKey);
+    }
+
+    @SneakyThrows
+    static PublicKey toPublicKey(PrivateKey privateKey) {
+        if (privateKey instanceof RSAPrivateCrtKey) {
+            RSAPrivateCrtKey rsaPrivateKey = (RSAPrivateCrtKey) privateKey;
+            return KeyFactory.getInstance("RSA")
+                    .generatePublic(new RSAPublicKeySpec(rsaPrivateKey.getModulus(), rsaPrivateKey.getPublicExponent()));
+        } else if (privateKey instanceof ECPrivateKey) {
+            // Q = dG, the curve comes with the private key
+            ECPrivateKey ecPrivateKey = (ECPrivateKey) privateKey;
+            ECParameterSpec parameters = ecPrivateKey.getParameters();
+            return KeyFactory.getInstance("EC", PROVIDER)
+                    .generatePublic(new ECPublicKeySpec(parameters.getG().multiply(ecPrivateKey.getD()).normalize(), parameters));
+        } else if (privateKey instanceof EdDSAPrivateKey) {
+            return ((EdDSAPrivateKey) privateKey).getPublicKey();
+        }
+        throw new AssertionError("unsupported private key algorithm " + privateKey.getAlgorithm());
+    }
+
+    @SneakyThrows
+    static X509Certificate readCertificate(Path path) {
+        try (InputStream inputStream = Files.newInputStream(path)) {
+            return (X509Certificate) CertificateFactory.getInstance("X.509").generateCertificate(inputStream);
+        }
+    }
+
+    // all certs in a bundle like chain.crt, in file order
+    @SneakyThrows
+    static List<X509Certificate> readCertificates(Path path) {
+        try (InputStream inputStream = Files.newInputStream(path)) {
+            return CertificateFactory.getInstance("X.509").generateCertificates(inputStream).stream()
+                    .map(X509Certificate.class::cast)
+                    .collect(Collectors.toList());
+        }
+    }
+
+    @SneakyThrows
+    static List<X509Certificate> readCertificates(byte[] content) {
+        return CertificateFactory.getInstance("X.509").generateCertificates(new ByteArrayInputStream(content)).stream()
+                .map(X509Certificate.class::cast)
+                .collect(Collectors.toList());
+    }
+
+    static PKCS10CertificationRequest readCertificationRequest(Path path) {
+        Object object = readObject(path);
+        if (object instanceof PKCS10CertificationRequest)
+            return (PKCS10CertificationRequest) object;
+        throw new AssertionError(path + " is not a certificate request");
+    }
+
+    @SneakyThrows
+    private static Object readObject(Path path) {
+        try (Reader reader = Files.newBufferedReader(path); PEMParser parser = new PEMParser(reader)) {
+            return parser.readObject();
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package com.youramaryllis.simpleca;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.math.BigInteger;
+import java.security.cert.X509Certificate;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * In-memory copy of the certindex of each CA, keyed by serial.
+ * <p>
+ * The index of a CA is parsed once on first use, then {@link CertAuthority} updates it (under the CA lock)
+ * as certs are issued and revoked, so revocation checks, CRL generation and OCSP never read the disk.
+ * An entry is never modified, revoking replaces it. {@link #verify(CA)} compares it with the certindex file.
+ */
+@Component
+@Slf4j
+public class RevocationIndex {
+    @Autowired
+    CAPaths caPaths;
+
+    private final Map<String, CAIndex> indexes = new ConcurrentHashMap<>();
+
+    public Optional<Entry> lookup(CA ca, BigInteger serial) {
+        return Optional.ofNullable(getIndex(ca).entries.get(serial));
+    }
+
+    public boolean isRevoked(CA ca, Cert cert) {
+        return lookup(ca, getSerial(ca, cert)).map(Entry::isRevoked).orElse(false);
+    }
+
+    // serial of a cert issued by the CA, read from its crt once
+    public BigInteger getSerial(CA ca, Cert cert) {
+        return getIndex(ca).serials.computeIfAbsent(cert.name,
+                name -> PemFiles.readCertificate(caPaths.getWorkingDirectory(cert).resolve(name + ".crt")).getSerialNumber());
+    }
+
+    public Collection<Entry> getRevoked(CA ca) {
+        return getIndex(ca).revoked.values();
+    }
+
+    // certindex line appended by the signing engine
+    public void add(CA ca, String certName, X509Certificate certificate) {
+        BigInteger serial = certificate.getSerialNumber();
+        CAIndex index = getIndex(ca);
+        index.put(new Entry('V', certificate.getNotAfter().toInstant(), null, serial));
+        if (certName != null) index.serials.put(certName, serial);
+    }
+
+    // certindex keeps the revocation date to the second
+    public Entry revoke(CA ca, BigInteger serial, Instant revocationDate) {
+        CAIndex index = getIndex(ca);
+        Entry entry = index.entries.get(serial);
+        if (entry != null && entry.isRevoked()) return entry;
+        Instant expiry = (entry == null) ? revocationDate : entry.expiry;
+        Entry revoked = new Entry('R', expiry, revocationDate.truncatedTo(ChronoUnit.SECONDS), serial);
+        index.put(revoked);
+        return revoked;
+    }
+
+    // revocation date of every revoked entry of the certindex file
+    public Map<BigInteger, Instant> readRevocationDates(CA ca) {
+        Map<BigInteger, Instant> revocationDates = new HashMap<>();
+        for (String[] line : JcaSigningEngine.readIndex(caPaths.getWorkingDirectory(ca))) {
+            if (line.length > 3 && line[0].equals("R") && !line[2].isEmpty())
+                revocationDates.put(new BigInteger(line[3], 16), JcaSigningEngine.parseIndexDate(line[2].split(",")[0]));
+        }
+        return revocationDates;
+    }
+
+    public void reload(CA ca) {
+        indexes.put(ca.name, load(ca));
+    }
+
+    // startup check that the in-memory index matches certindex, the file wins
+    public boolean verify(CA ca) {
+        CAIndex loaded = indexes.get(ca.name);
+        CAIndex onDisk = load(ca);
+        if (loaded != null && !loaded.entries.equals(onDisk.entries)) {
+            log.info("revocation index of {} doesn't match its certindex, reloaded", ca.name);
+            indexes.put(ca.name, onDisk);
+            return false;
+        }
+        indexes.putIfAbsent(ca.name, onDisk);
+        return true;
+    }
+
+    private CAIndex getIndex(CA ca) {
+        return indexes.computeIfAbsent(ca.name, name -> load(ca));
+    }
+
+    private CAIndex load(CA ca) {
+        CAIndex index = new CAIndex();
+        List<String> malformed = new ArrayList<>();
+        for (String[] line : JcaSigningEngine.readIndex(caPaths.getWorkingDirectory(ca))) {
+            try {
+                BigInteger serial = new BigInteger(line[3], 16);
+                Instant revocationDate = line[2].isEmpty() ? null : JcaSigningEngine.parseIndexDate(line[2].split(",")[0]);
+                Entry entry = new Entry(line[0].charAt(0), JcaSigningEngine.parseIndexDate(line[1]), revocationDate, serial);
+                if (entry.isRevoked() && revocationDate == null) throw new IllegalArgumentException("no revocation date");
+                if (index.entries.containsKey(serial)) log.info("serial {} is listed more than once in the certindex of {}", line[3], ca.name);
+                index.put(entry);
+            } catch (RuntimeException e) {
+                malformed.add(String.join("\t", line));
+            }
+        }
+        if (!malformed.isEmpty()) log.info("{} malformed certindex line(s) of {} ignored: {}", malformed.size(), ca.name, malformed);
+        log.info("{} certindex entries loaded for {}", index.entries.size(), ca.name);
+        return index;
+    }
+
+    private static class CAIndex {
+        final Map<BigInteger, Entry> entries = new ConcurrentHashMap<>();
+        final Map<BigInteger, Entry> revoked = new ConcurrentHashMap<>();
+        final Map<String, BigInteger> serials = new ConcurrentHashMap<>();
+
+        void put(Entry entry) {
+            entries.put(entry.serial, entry);
+            if (entry.isRevoked()) revoked.put(entry.serial, entry);
+            else revoked.remove(entry.serial);
+        }
+    }
+
+    @Data
+    @AllArgsConstructor
+    static class Entry {
+        // V, R or E as in certindex
+        char status;
+        Instant expiry;
+        Instant revocationDate;
+        BigInteger serial;
+
+        boolean isRevoked() {
+            return status == 'R';
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package com.youramaryllis.simpleca;
+
+import lombok.SneakyThrows;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.SecureRandom;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Serial numbers of the certs issued by {@link JcaSigningEngine}.
+ * <p>
+ * Sequential serials are reserved from the certserial of the CA by blocks of {@code simpleca.serial.blockSize},
+ * with one write under a file lock (so several instances sharing the CA directory never hand out the same serial),
+ * then handed out from memory. certserial always holds the end of the last reserved block, so openssl carries on
+ * from there; the unused part of a block is skipped on restart.
+ * <p>
+ * With {@code simpleca.serial.random} serials are random 128-bit numbers, checked against the index of the CA.
+ */
+@Component
+@Slf4j
+public class SerialAllocator {
+    private static final int RANDOM_BITS = 128;
+    private static final int MAX_RANDOM_ATTEMPTS = 16;
+
+    @Autowired
+    SimpleCertAuthConfiguration configuration;
+    @Autowired
+    CAPaths caPaths;
+    @Autowired
+    RevocationIndex revocationIndex;
+
+    private final Map<String, Block> blocks = new ConcurrentHashMap<>();
+    private final SecureRandom secureRandom = new SecureRandom();
+
+    public BigInteger next(CA ca) {
+        return configuration.serial.random ? nextRandom(ca) : nextSequential(ca);
+    }
+
+    // certserial was reset, the reserved block doesn't belong to it anymore
+    public void reset(CA ca) {
+        blocks.remove(ca.name);
+    }
+
+    private BigInteger nextSequential(CA ca) {
+        while (true) {
+            Block block = blocks.get(ca.name);
+            if (block != null) {
+                BigInteger serial = block.next();
+                if (serial != null) return serial;
+            }
+            synchronized (this) {
+                // another thread may have reserved a block meanwhile
+                if (blocks.get(ca.name) == block) blocks.put(ca.name, reserve(ca));
+            }
+        }
+    }
+
+    // the signing engine issues under the CA lock, so no cert with the same serial can be added in between
+    private BigInteger nextRandom(CA ca) {
+        for (int attempt = 0; attempt < MAX_RANDOM_ATTEMPTS; attempt++) {
+            BigInteger serial = new BigInteger(RANDOM_BITS, secureRandom);
+            if (serial.signum() == 0) continue;
+            if (revocationIndex.lookup(ca, serial).isEmpty()) return serial;
+            log.info("serial {} is already used by {}, drawing another one", serial.toString(16), ca.name);
+        }
+        throw new IllegalStateException("no unused serial found for " + ca.name);
+    }
+
+    @SneakyThrows
+    private Block reserve(CA ca) {
+        int blockSize = Math.max(1, configuration.serial.blockSize);
+        Path certserial = caPaths.getWorkingDirectory(ca).resolve("certserial");
+        try (FileChannel channel = FileChannel.open(certserial, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            FileLock lock = channel.lock();
+            try {
+                return reserve(ca, channel, blockSize);
+            } finally {
+                lock.release();
+            }
+        }
+    }
+
+    // reads and advances certserial, the caller holding the lock of the file
+    private Block reserve(CA ca, FileChannel channel, int blockSize) throws IOException {
+        ByteBuffer content = ByteBuffer.allocate((int) channel.size());
+        while (content.hasRemaining() && channel.read(content) >= 0) ;
+        BigInteger start = new BigInteger(new String(content.array(), StandardCharsets.US_ASCII).trim(), 16);
+        BigInteger end = start.add(BigInteger.valueOf(blockSize));
+        channel.truncate(0);
+        channel.write(ByteBuffer.wrap((JcaSigningEngine.toHex(end) + "\n").getBytes(StandardCharsets.US_ASCII)), 0);
+        channel.force(true);
+        log.info("serials {} to {} reserved for {}", start.toString(16), end.subtract(BigInteger.ONE).toString(16), ca.name);
+        return new Block(start, blockSize);
+    }
+
+    private static class Block {
+        final BigInteger start;
+        final int size;
+        final AtomicLong used = new AtomicLong();
+
+        Block(BigInteger start, int size) {
+            this.start = start;
+            this.size = size;
+        }
+
+        // null once the block is used up
+        BigInteger next() {
+            long offset = used.getAndIncrement();
+            return (offset < size) ? start.add(BigInteger.valueOf(offset)) : null;
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package com.youramaryllis.simpleca;
+
+import java.util.List;
+
+/**
+ * Does the actual key, csr, cert, crl and keystore work for {@link CertAuthority}.
+ * <p>
+ * Every implementation reads and writes the same files in the CA/cert working directories
+ * (key, csr, crt, certindex, certserial, crlnumber, crl, p12), so the backend can be switched
+ * with {@code simpleca.signingEngine} without rebuilding the hierarchy.
+ * Methods returning boolean follow the openssl convention of {@link CertAuthority}:
+ * nothing is done if the output already exists, and true is returned only when it was created.
+ */
+interface SigningEngine {
+
+    boolean generatePrivateKey(CertCA certCA);
+
+    // self-signed cert of the root CA
+    boolean generateCert(CA ca);
+
+    boolean generateCSR(CertCA certCA);
+
+    // sign the csr with the signing CA, output goes to {signingCA}/certs/{name}.crt
+    boolean signCert(CertCA certCA);
+
+    // {name}.crl.pem and the DER encoded {name}.crl
+    boolean generateCrl(CA ca);
+
+    // regenerated into temp files renamed over the live ones, so a download never finds them missing or partial
+    void replaceCrl(CA ca);
+
+    void verifyCert(CA ca, Cert cert);
+
+    void revokeCert(CA ca, Cert cert);
+
+    // certs revoked in one go, engines that rewrite certindex do it once
+    default void revokeCerts(CA ca, List<Cert> certs) {
+        certs.forEach(cert -> revokeCert(ca, cert));
+    }
+
+    void generateTrustStore(CA ca);
+
+    boolean generateOCSPPrivateKey(CA ca);
+
+    boolean generateOCSPCert(CA ca);
+}
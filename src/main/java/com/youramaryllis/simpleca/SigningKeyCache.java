@@ -0,0 +1,144 @@
+package com.youramaryllis.simpleca;
+
+import lombok.SneakyThrows;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import javax.crypto.Cipher;
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import java.security.KeyFactory;
+import java.security.PrivateKey;
+import java.security.SecureRandom;
+import java.security.spec.PKCS8EncodedKeySpec;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * CA private keys (and the OCSP signer keys), keyed by CA name.
+ * <p>
+ * {@code <ca>.key} is read and decrypted once, then kept sealed under an AES key generated for this process.
+ * Each call unseals it into a new {@link PrivateKey} for the one signing it's handed to, which is never cached,
+ * serialized or logged.
+ * It must be invalidated whenever the key file of a CA is regenerated.
+ */
+@Component
+@Slf4j
+public class SigningKeyCache {
+    private static final String OCSP_SIGNER = "-ocsp-signer";
+    private static final String CIPHER = "AES/GCM/NoPadding";
+    private static final int IV_LENGTH = 12;
+    private static final int TAG_LENGTH = 128;
+
+    @Autowired
+    CAPaths caPaths;
+
+    private final Map<String, SealedKey> keys = new ConcurrentHashMap<>();
+    private final SecureRandom random = new SecureRandom();
+    private final SecretKey sealingKey = generateSealingKey();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    public PrivateKey getPrivateKey(CA ca) {
+        return getPrivateKey(ca, ca.name, ca.password);
+    }
+
+    // <ca>-ocsp-signer.key is not encrypted
+    public PrivateKey getOcspSigningKey(CA ca) {
+        return getPrivateKey(ca, ca.name + OCSP_SIGNER, null);
+    }
+
+    public void invalidateOcspSigningKey(String caName) {
+        invalidate(caName + OCSP_SIGNER);
+    }
+
+    public void invalidate(String caName) {
+        SealedKey sealedKey = keys.remove(caName);
+        if (sealedKey != null) {
+            log.info("signing key of {} invalidated", caName);
+            Arrays.fill(sealedKey.sealed, (byte) 0);
+        }
+    }
+
+    private PrivateKey getPrivateKey(CA ca, String keyName, String password) {
+        SealedKey sealedKey = keys.get(keyName);
+        if (sealedKey != null) {
+            hits.increment();
+        } else {
+            sealedKey = keys.computeIfAbsent(keyName, name -> {
+                misses.increment();
+                log.info("loading signing key {}", name);
+                return seal(PemFiles.readPrivateKey(caPaths.getWorkingDirectory(ca).resolve(name + ".key"), password));
+            });
+        }
+        return unseal(sealedKey);
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public int size() {
+        return keys.size();
+    }
+
+    @PreDestroy
+    public void clear() {
+        keys.keySet().forEach(this::invalidate);
+    }
+
+    @SneakyThrows
+    private SealedKey seal(PrivateKey privateKey) {
+        byte[] iv = new byte[IV_LENGTH];
+        random.nextBytes(iv);
+        Cipher cipher = Cipher.getInstance(CIPHER);
+        cipher.init(Cipher.ENCRYPT_MODE, sealingKey, new GCMParameterSpec(TAG_LENGTH, iv));
+        byte[] encoded = privateKey.getEncoded();
+        try {
+            return new SealedKey(privateKey.getAlgorithm(), iv, cipher.doFinal(encoded));
+        } finally {
+            Arrays.fill(encoded, (byte) 0);
+        }
+    }
+
+    @SneakyThrows
+    private PrivateKey unseal(SealedKey sealedKey) {
+        Cipher cipher = Cipher.getInstance(CIPHER);
+        cipher.init(Cipher.DECRYPT_MODE, sealingKey, new GCMParameterSpec(TAG_LENGTH, sealedKey.iv));
+        byte[] encoded = cipher.doFinal(sealedKey.sealed);
+        try {
+            return KeyFactory.getInstance(sealedKey.algorithm, PemFiles.getProvider()).generatePrivate(new PKCS8EncodedKeySpec(encoded));
+        } finally {
+            Arrays.fill(encoded, (byte) 0);
+        }
+    }
+
+    @SneakyThrows
+    private static SecretKey generateSealingKey() {
+        KeyGenerator keyGenerator = KeyGenerator.getInstance("AES");
+        keyGenerator.init(256);
+        return keyGenerator.generateKey();
+    }
+
+    // the PKCS#8 encoding of a key, encrypted with the sealing key
+    private static class SealedKey {
+        final String algorithm;
+        final byte[] iv;
+        final byte[] sealed;
+
+        SealedKey(String algorithm, byte[] iv, byte[] sealed) {
+            this.algorithm = algorithm;
+            this.iv = iv;
+            this.sealed = sealed;
+        }
+    }
+}
@@ -3,11 +3,17 @@ package com.youramaryllis.simpleca;
 import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import groovy.text.SimpleTemplateEngine;
+import lombok.SneakyThrows;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.context.ApplicationContext;
 import org.springframework.context.annotation.Bean;
 
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.UUID;
+
 @SpringBootApplication
 public class SimpleCertAuthApplication {
     private static ApplicationContext applicationContext;
@@ -22,4 +28,31 @@ public class SimpleCertAuthApplication {
     public SimpleTemplateEngine simpleTemplateEngine() {
         return new SimpleTemplateEngine();
     }
+
+    @Bean
+    public StateStore stateStore(SimpleCertAuthConfiguration configuration, DatabaseJournal journal) {
+        Store store = configuration.store;
+        switch (store.type) {
+            case "local":
+                return new LocalStateStore();
+            case "file":
+                return new FileStateStore(Paths.get((store.path == null) ? configuration.caPath + "/.store" : store.path),
+                        nodeId(store, journal), store.compactThresholdBytes);
+            case "jdbc":
+                return new JdbcStateStore(store, nodeId(store, journal));
+            default:
+                throw new IllegalArgumentException("unknown simpleca.store.type " + store.type);
+        }
+    }
+
+    // the id has to survive restarts, or a node would take its own records for the ones of another node
+    @SneakyThrows
+    private static String nodeId(Store store, DatabaseJournal journal) {
+        if (store.nodeId != null) return store.nodeId;
+        Path nodeIdPath = Paths.get(journal.getSnapshotPath() + ".node");
+        if (Files.exists(nodeIdPath)) return Files.readString(nodeIdPath).trim();
+        String nodeId = UUID.randomUUID().toString();
+        Files.writeString(nodeIdPath, nodeId);
+        return nodeId;
+    }
 }
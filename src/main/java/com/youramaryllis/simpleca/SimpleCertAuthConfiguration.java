@@ -23,6 +23,111 @@ public class SimpleCertAuthConfiguration {
     CA rootca;
     boolean recreate;
     int ocspPort;
+    Ocsp ocsp = new Ocsp();
+    Crl crl = new Crl();
+    Serial serial = new Serial();
+    Store store = new Store();
+    String signingEngine;
+    OpensslPool opensslPool = new OpensslPool();
+    KeyPool keyPool = new KeyPool();
+    // certs of a batch issued at the same time
+    int batchParallelism = 4;
+    Journal journal = new Journal();
+    // number of locks the CA are striped over
+    int lockStripes = 64;
+    Blocking blocking = new Blocking();
+    // CA and certs built at the same time on startup, the number of CPUs unless set (it isn't in application.yaml)
+    int buildParallelism = Runtime.getRuntime().availableProcessors();
+}
+
+@Data
+class Crl {
+    // the full CRL is regenerated this often, revocations in between go to the delta CRL
+    int fullIntervalMinutes = 60;
+    // the delta CRL is published once no revocation came for this long, 0 publishes every revocation
+    int publishDelaySeconds = 2;
+    // ... but at the latest this long after the first unpublished revocation
+    int maxStalenessSeconds = 30;
+}
+
+@Data
+class Store {
+    // local (single node), file (shared directory) or jdbc (shared database)
+    String type = "local";
+    // directory of the file store, default {caPath}/.store
+    String path;
+    String jdbcUrl;
+    String user;
+    String password;
+    // id of this node, default a random one saved next to the db file ({db file}.node)
+    String nodeId;
+    // a lease not released after this long (crashed node) can be taken by another node
+    int leaseSeconds = 30;
+    // how long to wait for the lease of a CA held by another node
+    int leaseTimeoutSeconds = 30;
+    // how often the records of the other nodes are applied
+    int pollIntervalSeconds = 1;
+    // records.log of the file store is compacted once longer than this
+    long compactThresholdBytes = 64 * 1024 * 1024;
+}
+
+@Data
+class Serial {
+    // serials reserved from certserial at once
+    int blockSize = 100;
+    // random 128-bit serials instead of sequential ones
+    boolean random = false;
+}
+
+@Data
+class Ocsp {
+    // native (in-process) or openssl (forked `openssl ocsp`)
+    String responder = "native";
+    // nextUpdate of the responses
+    int nextUpdateMinutes = 60;
+    // signed responses kept in memory, 0 disables the cache
+    int cacheSize = 10000;
+    // cached responses are re-signed this long before their nextUpdate
+    int refreshAheadMinutes = 10;
+    int refreshIntervalSeconds = 60;
+}
+
+@Data
+class Blocking {
+    // blocking work (openssl, file I/O, signing) running at the same time
+    int threads = 16;
+    // requests waiting for a thread, beyond that they are rejected with 503
+    int queueSize = 1000;
+    // use virtual threads when the runtime has them (java 21+)
+    boolean virtualThreads = false;
+}
+
+@Data
+class Journal {
+    // rewrite the full db file once this many records are journaled
+    int compactThreshold = 1000;
+    int compactIntervalSeconds = 300;
+}
+
+@Data
+class OpensslPool {
+    // interactive openssl processes per CA directory, 0 (the default) forks openssl for every command
+    int processesPerDirectory = 0;
+    // a process not done with a command by then is killed and replaced
+    int commandTimeoutSeconds = 60;
+}
+
+@Data
+class KeyPool {
+    // RSA key sizes pre-generated, keys of other sizes are generated when needed
+    List<Integer> keySizes = new ArrayList<>(List.of(2048));
+    // EC and Ed25519 keys pre-generated at startup
+    List<KeyAlgorithm> keyAlgorithms = new ArrayList<>();
+    // key pairs kept per key size, 0 disables the pool
+    int capacity = 16;
+    // refill a bucket once it drops below this
+    int lowWaterMark = 4;
+    int refillThreads = 1;
 }
 
 interface CertCA {
@@ -32,6 +137,8 @@ interface CertCA {
 
     int getKeySize();
 
+    KeyAlgorithm getKeyAlgorithm();
+
     String getRelativePath();
 
     String getSubject();
@@ -68,6 +175,8 @@ class CA implements CertCA, Cloneable {
 
     @JsonProperty(index = 12)
     List<String> subjectAltName = new ArrayList<>();
+    @JsonProperty(index = 13)
+    KeyAlgorithm keyAlgorithm;
     @JsonProperty(index = 50)
     List<Cert> certs = new ArrayList<>();
     @JsonProperty(index = 60)
@@ -100,7 +209,7 @@ class CA implements CertCA, Cloneable {
         for (String altName : subjectAltName) {
             altNames.append(" ").append(altName).append("\n");
         }
-        return new HashMap<>(Map.of(
+        Map<String, Object> config = new HashMap<>(Map.of(
                 "name", name,
                 "host", host,
                 "port", port,
@@ -112,6 +221,10 @@ class CA implements CertCA, Cloneable {
                 "extendedKeyUsage", extendedKeyUsage.toString(),
                 "basicConstraints", basicConstraints.toString()
         ));
+        // ed25519 has no separate digest, openssl takes its default
+        String digest = KeyAlgorithm.of(this).getDigest();
+        config.put("defaultMd", (digest == null) ? "default" : digest);
+        return config;
     }
 
     public Object clone() throws CloneNotSupportedException {
@@ -124,6 +237,7 @@ class CA implements CertCA, Cloneable {
 class Cert implements CertCA {
     String name;
     int keySize;
+    KeyAlgorithm keyAlgorithm;
     String subject;
     String password;
     boolean revoked;
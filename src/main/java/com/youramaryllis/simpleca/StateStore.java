@@ -0,0 +1,39 @@
+package com.youramaryllis.simpleca;
+
+import java.util.List;
+
+/**
+ * State shared by the nodes issuing from the same CA directory, selected with {@code simpleca.store.type}.
+ * <p>
+ * A node takes the lease of a CA (through {@link CALocks}) before touching its openssl database, so only one node
+ * signs under a CA at a time. The database mutations of a node (journal records) are published to the store
+ * and {@link CertAuthDatabase} applies the ones of the other nodes.
+ * The CA directory itself ({@code simpleca.caPath}) has to be on storage shared by all nodes.
+ */
+interface StateStore extends AutoCloseable {
+
+    // blocks until this node holds the lease of the CA
+    Lease lease(String caName);
+
+    // json of a journal record
+    void publish(String record);
+
+    // records published by the other nodes since the last poll, from where the last acknowledge left off after a restart
+    List<String> poll();
+
+    // the records polled so far are durable in the database of this node, a restart doesn't return them again
+    default void acknowledge() {
+    }
+
+    @Override
+    default void close() {
+    }
+
+    interface Lease extends AutoCloseable {
+        // the CA was modified by another node since this node last held its lease
+        boolean isModifiedElsewhere();
+
+        @Override
+        void close();
+    }
+}
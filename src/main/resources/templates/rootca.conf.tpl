@@ -14,7 +14,7 @@ authorityKeyIdentifier=keyid:always
  private_key = \$dir/${name}.key
  serial = \$dir/certserial
  default_days = 730
- default_md = sha256
+ default_md = ${defaultMd}
  policy = myca_policy
  x509_extensions = myca_extensions
  crlnumber = \$dir/crlnumber
@@ -0,0 +1,53 @@
+package com.youramaryllis.simpleca;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BatchIssuanceTest {
+    private static final int BATCH_SIZE = 8;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void rejectedCertsAreReportedAndTheBatchIsFlushed() throws Exception {
+        // one thread and one queued task for a batch issuing 8 certs at a time
+        try (TestServer server = TestServer.start(directory, directory.resolve("ca"),
+                "--simpleca.blocking.threads=1", "--simpleca.blocking.queueSize=1", "--simpleca.batchParallelism=" + BATCH_SIZE)) {
+            CertAuthController controller = server.context.getBean(CertAuthController.class);
+            CA ca = server.getCA("ca1");
+            long flushes = flushCount(server);
+
+            List<CertResult> results = controller.createCerts(ca.name, batch(ca, "cert")).collectList().block();
+            assertEquals(BATCH_SIZE, results.size());
+            List<CertResult> rejected = results.stream().filter(result -> !result.issued).collect(Collectors.toList());
+            assertTrue(rejected.size() > 0 && rejected.size() < BATCH_SIZE, "some certs are rejected, not all");
+            rejected.forEach(result -> assertEquals("too many requests", result.error));
+            assertEquals(flushes + 1, flushCount(server));
+
+            // the client going away after the first result
+            controller.createCerts(ca.name, batch(ca, "cancelled")).take(1).blockLast();
+            long deadline = System.currentTimeMillis() + 10_000;
+            while (flushCount(server) < flushes + 2 && System.currentTimeMillis() < deadline) Thread.sleep(10);
+            assertEquals(flushes + 2, flushCount(server));
+        }
+    }
+
+    private static List<Cert> batch(CA ca, String prefix) {
+        return IntStream.range(0, BATCH_SIZE).mapToObj(i -> TestServer.newCert(ca, prefix + i)).collect(Collectors.toList());
+    }
+
+    private static long flushCount(TestServer server) {
+        return server.context.getBean(MeterRegistry.class).find(CAMetrics.FLUSH).timers().stream().mapToLong(Timer::count).sum();
+    }
+}
@@ -0,0 +1,70 @@
+package com.youramaryllis.simpleca;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.mock.http.server.reactive.MockServerHttpRequest;
+import org.springframework.mock.web.server.MockServerWebExchange;
+import reactor.core.publisher.Flux;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class CAControllerTest {
+    @TempDir
+    Path directory;
+
+    @Test
+    void conditionalAndRangeRequests() throws Exception {
+        try (TestServer server = TestServer.start(directory, directory.resolve("ca"))) {
+            CAController controller = server.context.getBean(CAController.class);
+            CA ca = server.getCA("ca1");
+            String fileName = ca.name + ".crt";
+            byte[] content = Files.readAllBytes(server.caPaths.getWorkingDirectory(ca).resolve(fileName));
+
+            ResponseEntity<Flux<DataBuffer>> full = get(controller, ca, fileName, MockServerHttpRequest.get("/"));
+            assertEquals(HttpStatus.OK, full.getStatusCode());
+            assertArrayEquals(content, body(full));
+
+            String etag = full.getHeaders().getETag();
+            ResponseEntity<Flux<DataBuffer>> notModified = get(controller, ca, fileName, MockServerHttpRequest.get("/").ifNoneMatch(etag));
+            assertEquals(HttpStatus.NOT_MODIFIED, notModified.getStatusCode());
+            assertNull(notModified.getBody());
+
+            ResponseEntity<Flux<DataBuffer>> range = get(controller, ca, fileName, MockServerHttpRequest.get("/").header(HttpHeaders.RANGE, "bytes=10-19"));
+            assertEquals(HttpStatus.PARTIAL_CONTENT, range.getStatusCode());
+            assertEquals("bytes 10-19/" + content.length, range.getHeaders().getFirst(HttpHeaders.CONTENT_RANGE));
+            assertArrayEquals(Arrays.copyOfRange(content, 10, 20), body(range));
+            // served again from the cached buffer, untouched by the range
+            assertArrayEquals(content, body(get(controller, ca, fileName, MockServerHttpRequest.get("/"))));
+
+            MeterRegistry registry = server.context.getBean(MeterRegistry.class);
+            for (String status : List.of("200", "304", "206")) {
+                assertEquals(status.equals("200") ? 2 : 1,
+                        registry.get(CAMetrics.DOWNLOADS).tag("type", "crt").tag("status", status).counter().count(), status);
+            }
+        }
+    }
+
+    private static ResponseEntity<Flux<DataBuffer>> get(CAController controller, CA ca, String fileName, MockServerHttpRequest.BaseBuilder<?> request) {
+        return controller.getCrl(ca.relativePath, fileName, MockServerWebExchange.from(request)).block();
+    }
+
+    private static byte[] body(ResponseEntity<Flux<DataBuffer>> response) {
+        DataBuffer buffer = DataBufferUtils.join(response.getBody()).block();
+        byte[] bytes = new byte[buffer.readableByteCount()];
+        buffer.read(bytes);
+        return bytes;
+    }
+}
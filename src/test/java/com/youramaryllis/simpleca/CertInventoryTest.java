@@ -0,0 +1,67 @@
+package com.youramaryllis.simpleca;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class CertInventoryTest {
+    @TempDir
+    Path directory;
+
+    @Test
+    void searchByStatusAndExpiry() throws Exception {
+        try (TestServer server = TestServer.start(directory, directory.resolve("ca"))) {
+            CertInventory inventory = server.context.getBean(CertInventory.class);
+            CA ca = server.getCA("ca1");
+            List<Cert> certs = new ArrayList<>();
+            for (int i = 0; i < 10; i++) certs.add(server.issue(ca, "cert" + i));
+            server.revoke(ca, certs.subList(0, 3));
+
+            assertEquals(Set.of("cert0", "cert1", "cert2"), names(inventory, query(CertInventory.Status.REVOKED, null, null), 2));
+            assertEquals(Set.of(), names(inventory, query(CertInventory.Status.EXPIRED, null, null), 100));
+            assertEquals(7, names(inventory, query(CertInventory.Status.VALID, null, null), 100).size());
+
+            Instant now = Instant.now();
+            assertEquals(Set.of(), names(inventory, query(null, now, null), 100));
+            assertEquals(10, names(inventory, query(null, null, now), 3).size());
+            // the few revoked ones are taken from their index, then filtered on expiry
+            assertEquals(3, names(inventory, query(CertInventory.Status.REVOKED, now.plus(Duration.ofDays(3650)), now), 100).size());
+
+            // a cursor outside the CA of the query
+            assertEquals(List.of(), inventory.search(query(CertInventory.Status.REVOKED, null, null), "ca2/cert0", 10));
+            assertEquals(3, inventory.search(query(CertInventory.Status.REVOKED, null, null), "ca0/cert0", 10).size());
+        }
+    }
+
+    private static CertInventory.Query query(CertInventory.Status status, Instant expiresBefore, Instant expiresAfter) {
+        CertInventory.Query query = new CertInventory.Query();
+        query.ca = "ca1";
+        query.status = status;
+        query.expiresBefore = expiresBefore;
+        query.expiresAfter = expiresAfter;
+        return query;
+    }
+
+    // names of all the matching entries, paging limit entries at a time
+    private static Set<String> names(CertInventory inventory, CertInventory.Query query, int limit) {
+        List<CertInventory.Entry> all = new ArrayList<>();
+        String cursor = null;
+        while (true) {
+            List<CertInventory.Entry> page = inventory.search(query, cursor, limit);
+            all.addAll(page);
+            if (page.size() < limit) break;
+            cursor = page.get(page.size() - 1).getKey();
+        }
+        assertEquals(all.size(), all.stream().map(CertInventory.Entry::getKey).distinct().count(), "entry on two pages");
+        return all.stream().map(CertInventory.Entry::getName).collect(Collectors.toSet());
+    }
+}
@@ -0,0 +1,94 @@
+package com.youramaryllis.simpleca;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.math.BigInteger;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Issues and revokes under two CA from many threads at once, then checks the openssl database of each CA:
+ * serials are unique in its certindex, certserial is past all of them and the {@link RevocationIndex} matches the disk.
+ */
+class ConcurrentIssuanceTest {
+    private static final int THREADS = 16;
+    private static final int CERTS_PER_CA = 48;
+    // a small block so threads keep reserving new ones from certserial
+    private static final int SERIAL_BLOCK_SIZE = 5;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void issueAndRevokeUnderSeveralCA() throws Exception {
+        try (TestServer server = TestServer.start(directory, directory.resolve("ca"),
+                "--simpleca.serial.blockSize=" + SERIAL_BLOCK_SIZE)) {
+            List<CA> cas = List.of(server.getCA("ca1"), server.getCA("ca2"));
+            Map<String, List<Cert>> issued = new ConcurrentHashMap<>();
+            Map<String, List<Cert>> revoked = new ConcurrentHashMap<>();
+            cas.forEach(ca -> {
+                issued.put(ca.name, Collections.synchronizedList(new ArrayList<>()));
+                revoked.put(ca.name, Collections.synchronizedList(new ArrayList<>()));
+            });
+
+            ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < CERTS_PER_CA; i++) {
+                for (CA ca : cas) {
+                    int n = i;
+                    futures.add(executor.submit(() -> {
+                        start.await();
+                        Cert cert = server.issue(ca, ca.name + "-cert" + n);
+                        issued.get(ca.name).add(cert);
+                        // every third cert is revoked right away, while the others are still being issued
+                        if (n % 3 == 0) {
+                            server.revoke(ca, List.of(cert));
+                            revoked.get(ca.name).add(cert);
+                        }
+                        return null;
+                    }));
+                }
+            }
+            start.countDown();
+            for (Future<?> future : futures) future.get(2, TimeUnit.MINUTES);
+            executor.shutdown();
+
+            for (CA ca : cas) {
+                List<BigInteger> indexSerials = server.indexSerials(ca);
+                assertEquals(indexSerials.size(), new HashSet<>(indexSerials).size(), "duplicated serial in the certindex of " + ca.name);
+
+                Set<BigInteger> issuedSerials = issued.get(ca.name).stream().map(server::serialOf).collect(Collectors.toSet());
+                assertEquals(CERTS_PER_CA, issuedSerials.size(), "duplicated serial issued by " + ca.name);
+                assertTrue(indexSerials.containsAll(issuedSerials), "issued certs missing from the certindex of " + ca.name);
+
+                BigInteger highest = Collections.max(indexSerials);
+                assertTrue(server.certserial(ca).compareTo(highest) > 0,
+                        "certserial of " + ca.name + " isn't past its highest serial " + highest.toString(16));
+
+                assertTrue(server.revocationIndex.verify(ca), "revocation index of " + ca.name + " doesn't match its certindex");
+                Set<BigInteger> revokedSerials = revoked.get(ca.name).stream().map(server::serialOf).collect(Collectors.toSet());
+                Set<BigInteger> indexRevoked = server.revocationIndex.getRevoked(ca).stream()
+                        .map(RevocationIndex.Entry::getSerial)
+                        .collect(Collectors.toSet());
+                assertEquals(revokedSerials, indexRevoked, "revoked serials of " + ca.name);
+            }
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package com.youramaryllis.simpleca;
+
+import org.bouncycastle.cert.X509CRLHolder;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * The full CRL, its PEM and crl-chain.crt are regenerated the way the scheduled publication does while they are
+ * being read: they're always there and complete.
+ */
+class CrlReplacementTest {
+    @TempDir
+    Path directory;
+
+    @ParameterizedTest
+    @ValueSource(strings = {"jvm", "openssl"})
+    void crlIsNeverMissingOrPartial(String signingEngine) throws Exception {
+        try (TestServer server = TestServer.start(directory, directory.resolve("ca"), "--simpleca.signingEngine=" + signingEngine)) {
+            CA ca = server.getCA("ca1");
+            Path workingDirectory = server.caPaths.getWorkingDirectory(ca);
+            List<Path> files = List.of(workingDirectory.resolve(ca.name + ".crl"), workingDirectory.resolve(ca.name + ".crl.pem"),
+                    workingDirectory.resolve("certs").resolve("crl-chain.crt"));
+            AtomicBoolean done = new AtomicBoolean();
+            ExecutorService executor = Executors.newSingleThreadExecutor();
+            Future<Integer> reads = executor.submit(() -> {
+                int count = 0;
+                while (!done.get()) {
+                    new X509CRLHolder(Files.readAllBytes(files.get(0)));
+                    assertTrue(Files.readString(files.get(1)).trim().endsWith("-----END X509 CRL-----"), "partial crl.pem");
+                    assertTrue(Files.readString(files.get(2)).trim().endsWith("-----END CERTIFICATE-----"), "partial crl-chain.crt");
+                    count++;
+                }
+                return count;
+            });
+            try {
+                for (int i = 0; i < 20; i++) {
+                    server.certAuthority.generateCrl(ca, true);
+                    server.certAuthority.generateCrlChainCert(ca, true);
+                }
+            } finally {
+                done.set(true);
+            }
+            assertTrue(reads.get(1, TimeUnit.MINUTES) > 0);
+            executor.shutdown();
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package com.youramaryllis.simpleca;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FileStateStoreTest {
+    @TempDir
+    Path directory;
+
+    @Test
+    void restartedNodeResumesWhereItAcknowledged() {
+        FileStateStore a = new FileStateStore(directory, "a", Long.MAX_VALUE);
+        FileStateStore b = new FileStateStore(directory, "b", Long.MAX_VALUE);
+        a.publish("{\"n\":1}");
+        b.publish("{\"n\":2}");
+        assertEquals(List.of("{\"n\":2}"), a.poll());
+        a.acknowledge();
+        a.publish("{\"n\":3}");
+        b.publish("{\"n\":4}");
+
+        // neither its own records nor the acknowledged ones come back
+        FileStateStore restarted = new FileStateStore(directory, "a", Long.MAX_VALUE);
+        assertEquals(List.of("{\"n\":4}"), restarted.poll());
+        assertEquals(List.of("{\"n\":1}", "{\"n\":3}"), b.poll());
+    }
+
+    @Test
+    void logIsCompactedUpToWhatEveryNodeApplied() throws Exception {
+        FileStateStore a = new FileStateStore(directory, "a", 1024);
+        FileStateStore b = new FileStateStore(directory, "b", 1024);
+        List<String> records = IntStream.range(0, 100).mapToObj(i -> "{\"n\":" + i + "}").collect(Collectors.toList());
+        records.forEach(a::publish);
+        long size = Files.size(directory.resolve("records.log"));
+
+        // b hasn't applied anything yet, nothing can go
+        a.poll();
+        a.acknowledge();
+        assertEquals(size, Files.size(directory.resolve("records.log")));
+
+        assertEquals(records, b.poll());
+        b.publish("{\"n\":100}");
+        b.poll();
+        b.acknowledge();
+        assertEquals(List.of("{\"n\":100}"), a.poll());
+        a.acknowledge();
+        assertTrue(Files.size(directory.resolve("records.log")) < size, "records.log not compacted");
+
+        // positions stay valid across the compaction
+        b.publish("{\"n\":101}");
+        a.publish("{\"n\":102}");
+        assertEquals(List.of("{\"n\":101}"), a.poll());
+        assertEquals(List.of("{\"n\":102}"), b.poll());
+        // a node joining later only gets what wasn't compacted
+        FileStateStore c = new FileStateStore(directory, "c", 1024);
+        assertEquals(List.of("{\"n\":100}", "{\"n\":101}", "{\"n\":102}"), c.poll());
+    }
+}
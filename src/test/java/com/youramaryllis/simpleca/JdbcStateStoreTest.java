@@ -0,0 +1,96 @@
+package com.youramaryllis.simpleca;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.Statement;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class JdbcStateStoreTest {
+    @TempDir
+    Path directory;
+    Store store;
+    Connection connection;
+
+    @BeforeEach
+    void setup() throws Exception {
+        store = new Store();
+        store.type = "jdbc";
+        store.jdbcUrl = "jdbc:h2:file:" + directory.resolve("store");
+        store.leaseSeconds = 1;
+        store.leaseTimeoutSeconds = 0;
+        connection = DriverManager.getConnection(store.jdbcUrl);
+    }
+
+    @AfterEach
+    void close() throws Exception {
+        connection.close();
+    }
+
+    @Test
+    void recordsCommittedOutOfIdOrderAreNotLost() throws Exception {
+        try (JdbcStateStore a = new JdbcStateStore(store, "a")) {
+            // id 2 commits before id 1
+            execute("insert into ca_record (id, node, record) values (2, 'b', 'two')");
+            assertEquals(List.of("two"), a.poll());
+            execute("insert into ca_record (id, node, record) values (1, 'b', 'one')");
+            assertEquals(List.of("one"), a.poll());
+            assertEquals(List.of(), a.poll());
+        }
+    }
+
+    @Test
+    void restartedNodeResumesWhereItAcknowledged() {
+        try (JdbcStateStore a = new JdbcStateStore(store, "a"); JdbcStateStore b = new JdbcStateStore(store, "b")) {
+            b.publish("one");
+            a.publish("two");
+            assertEquals(List.of("one"), a.poll());
+            a.acknowledge();
+        }
+        try (JdbcStateStore a = new JdbcStateStore(store, "a"); JdbcStateStore b = new JdbcStateStore(store, "b")) {
+            b.publish("three");
+            assertEquals(List.of("three"), a.poll());
+        }
+    }
+
+    @Test
+    void heldLeaseIsRenewed() throws Exception {
+        try (JdbcStateStore a = new JdbcStateStore(store, "a"); JdbcStateStore b = new JdbcStateStore(store, "b")) {
+            StateStore.Lease lease = a.lease("ca1");
+            // held three times leaseSeconds
+            Thread.sleep(3000);
+            assertThrows(IllegalStateException.class, () -> b.lease("ca1"));
+            lease.close();
+            try (StateStore.Lease taken = b.lease("ca1")) {
+                assertTrue(taken.isModifiedElsewhere());
+            }
+        }
+    }
+
+    @Test
+    void lostLeaseFailsOnRelease() throws Exception {
+        try (JdbcStateStore a = new JdbcStateStore(store, "a")) {
+            StateStore.Lease lease = a.lease("ca1");
+            assertFalse(lease.isModifiedElsewhere());
+            // another node took it over, e.g. after a long pause of this one
+            execute("update ca_lease set owner = 'b' where ca_name = 'ca1'");
+            assertThrows(IllegalStateException.class, lease::close);
+        }
+    }
+
+    private void execute(String sql) throws Exception {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute(sql);
+        }
+    }
+}
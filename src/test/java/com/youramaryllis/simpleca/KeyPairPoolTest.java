@@ -0,0 +1,40 @@
+package com.youramaryllis.simpleca;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class KeyPairPoolTest {
+    KeyPairPool pool = new KeyPairPool();
+
+    @AfterEach
+    void shutdown() {
+        pool.shutdown();
+    }
+
+    @Test
+    void onlyConfiguredKeyTypesArePooled() throws Exception {
+        pool.configuration = new SimpleCertAuthConfiguration();
+        KeyPool keyPool = pool.configuration.keyPool;
+        keyPool.keySizes = List.of();
+        keyPool.keyAlgorithms = List.of(KeyAlgorithm.EC_P256);
+        keyPool.capacity = 2;
+        keyPool.lowWaterMark = 1;
+        pool.setup();
+
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (pool.getDepth(KeyAlgorithm.EC_P256, 0) < 2 && System.currentTimeMillis() < deadline) Thread.sleep(10);
+        assertTrue(pool.poll(KeyAlgorithm.EC_P256, 0).isPresent());
+
+        // other types are left to the caller, without a bucket being created for them
+        assertTrue(pool.poll(KeyAlgorithm.RSA, 2048).isEmpty());
+        assertTrue(pool.poll(KeyAlgorithm.ED25519, 0).isEmpty());
+        assertEquals(Set.of("EC_P256-256"), pool.getDepths().keySet());
+        assertEquals(0, pool.getMisses());
+    }
+}
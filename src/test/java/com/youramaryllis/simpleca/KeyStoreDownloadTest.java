@@ -0,0 +1,53 @@
+package com.youramaryllis.simpleca;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.core.io.Resource;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.security.KeyStore;
+import java.security.cert.X509Certificate;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class KeyStoreDownloadTest {
+    @TempDir
+    Path directory;
+
+    @Test
+    void certsOfTheSameNameUnderTwoCA() throws Exception {
+        try (TestServer server = TestServer.start(directory, directory.resolve("ca"))) {
+            CertAuthController controller = server.context.getBean(CertAuthController.class);
+            Cert cert1 = server.issue(server.getCA("ca1"), "server");
+            Cert cert2 = server.issue(server.getCA("ca2"), "server");
+
+            for (Cert cert : new Cert[]{cert1, cert2}) {
+                KeyStore keyStore = load(controller.getKeystore(cert.signingCA.name, "server", null, new HttpHeaders()).block());
+                X509Certificate certificate = (X509Certificate) keyStore.getCertificate("server");
+                assertEquals(server.serialOf(cert), certificate.getSerialNumber());
+                CA ca = cert.signingCA;
+                assertEquals(PemFiles.readCertificate(server.caPaths.getWorkingDirectory(ca).resolve(ca.name + ".crt")).getSubjectX500Principal(),
+                        certificate.getIssuerX500Principal());
+            }
+            assertEquals(HttpStatus.NOT_FOUND, controller.getKeystore("ca1", "unknown", null, new HttpHeaders()).block().getStatusCode());
+            assertEquals(HttpStatus.NOT_FOUND, controller.getKeystore("unknown", "server", null, new HttpHeaders()).block().getStatusCode());
+
+            // the deprecated path form names the cert by its relativePath
+            KeyStore byPath = load(controller.getKeystoreByPath(cert2.relativePath, null, new HttpHeaders()).block());
+            assertEquals(server.serialOf(cert2), ((X509Certificate) byPath.getCertificate("server")).getSerialNumber());
+        }
+    }
+
+    private static KeyStore load(ResponseEntity<Resource> response) throws Exception {
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        KeyStore keyStore = KeyStore.getInstance("PKCS12");
+        try (InputStream inputStream = response.getBody().getInputStream()) {
+            keyStore.load(inputStream, "changeit".toCharArray());
+        }
+        return keyStore;
+    }
+}
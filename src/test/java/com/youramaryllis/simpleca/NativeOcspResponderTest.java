@@ -0,0 +1,100 @@
+package com.youramaryllis.simpleca;
+
+import org.bouncycastle.asn1.nist.NISTObjectIdentifiers;
+import org.bouncycastle.asn1.x509.AlgorithmIdentifier;
+import org.bouncycastle.cert.X509CertificateHolder;
+import org.bouncycastle.cert.jcajce.JcaX509CertificateHolder;
+import org.bouncycastle.cert.ocsp.BasicOCSPResp;
+import org.bouncycastle.cert.ocsp.CertificateID;
+import org.bouncycastle.cert.ocsp.CertificateStatus;
+import org.bouncycastle.cert.ocsp.OCSPReqBuilder;
+import org.bouncycastle.cert.ocsp.OCSPResp;
+import org.bouncycastle.cert.ocsp.RevokedStatus;
+import org.bouncycastle.cert.ocsp.SingleResp;
+import org.bouncycastle.cert.ocsp.UnknownStatus;
+import org.bouncycastle.operator.jcajce.JcaDigestCalculatorProviderBuilder;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+
+class NativeOcspResponderTest {
+    @TempDir
+    Path directory;
+
+    @Test
+    void certOfAnotherCAIsUnknownToTheSigner() throws Exception {
+        try (TestServer server = TestServer.start(directory, directory.resolve("ca"))) {
+            NativeOcspResponder responder = server.context.getBean(NativeOcspResponder.class);
+            CA ca1 = server.getCA("ca1");
+            CA ca2 = server.getCA("ca2");
+            Cert good = server.issue(ca1, "good");
+            Cert revoked = server.issue(ca1, "revoked");
+            server.revoke(ca1, List.of(revoked));
+            Cert other = server.issue(ca2, "other");
+
+            byte[] request = new OCSPReqBuilder()
+                    .addRequest(certificateId(server, ca1, good))
+                    .addRequest(certificateId(server, ca1, revoked))
+                    .addRequest(certificateId(server, ca2, other))
+                    .build().getEncoded();
+            OCSPResp response = new OCSPResp(responder.respond(request));
+            assertEquals(OCSPResp.SUCCESSFUL, response.getStatus());
+            BasicOCSPResp basicResponse = (BasicOCSPResp) response.getResponseObject();
+            assertEquals(toHolder(server, ca1, ca1.name + "-ocsp-signer").getSubject(), basicResponse.getCerts()[0].getSubject());
+
+            SingleResp[] responses = basicResponse.getResponses();
+            assertEquals(3, responses.length);
+            assertEquals(CertificateStatus.GOOD, responses[0].getCertStatus());
+            assertInstanceOf(RevokedStatus.class, responses[1].getCertStatus());
+            assertInstanceOf(UnknownStatus.class, responses[2].getCertStatus());
+
+            // a single CertID, signed then cached
+            byte[] single = new OCSPReqBuilder().addRequest(certificateId(server, ca2, other)).build().getEncoded();
+            for (int i = 0; i < 2; i++) {
+                BasicOCSPResp singleResponse = (BasicOCSPResp) new OCSPResp(responder.respond(single)).getResponseObject();
+                assertEquals(CertificateStatus.GOOD, singleResponse.getResponses()[0].getCertStatus());
+                assertEquals(toHolder(server, ca2, ca2.name + "-ocsp-signer").getSubject(), singleResponse.getCerts()[0].getSubject());
+            }
+        }
+    }
+
+    @Test
+    void revocationDropsTheCachedResponsesOfEveryHashAlgorithm() throws Exception {
+        try (TestServer server = TestServer.start(directory, directory.resolve("ca"))) {
+            NativeOcspResponder responder = server.context.getBean(NativeOcspResponder.class);
+            CA ca = server.getCA("ca1");
+            Cert cert = server.issue(ca, "cached");
+            List<AlgorithmIdentifier> hashAlgorithms = List.of(CertificateID.HASH_SHA1, new AlgorithmIdentifier(NISTObjectIdentifiers.id_sha256));
+            for (AlgorithmIdentifier hashAlgorithm : hashAlgorithms) {
+                assertEquals(CertificateStatus.GOOD, singleStatus(responder, certificateId(server, ca, cert, hashAlgorithm)));
+            }
+            server.revoke(ca, List.of(cert));
+            for (AlgorithmIdentifier hashAlgorithm : hashAlgorithms) {
+                assertInstanceOf(RevokedStatus.class, singleStatus(responder, certificateId(server, ca, cert, hashAlgorithm)));
+            }
+        }
+    }
+
+    private static CertificateStatus singleStatus(NativeOcspResponder responder, CertificateID certificateId) throws Exception {
+        byte[] request = new OCSPReqBuilder().addRequest(certificateId).build().getEncoded();
+        return ((BasicOCSPResp) new OCSPResp(responder.respond(request)).getResponseObject()).getResponses()[0].getCertStatus();
+    }
+
+    private static CertificateID certificateId(TestServer server, CA ca, Cert cert) throws Exception {
+        return certificateId(server, ca, cert, CertificateID.HASH_SHA1);
+    }
+
+    private static CertificateID certificateId(TestServer server, CA ca, Cert cert, AlgorithmIdentifier hashAlgorithm) throws Exception {
+        return new CertificateID(new JcaDigestCalculatorProviderBuilder().build().get(hashAlgorithm),
+                toHolder(server, ca, ca.name), server.serialOf(cert));
+    }
+
+    private static X509CertificateHolder toHolder(TestServer server, CA ca, String fileName) throws Exception {
+        return new JcaX509CertificateHolder(PemFiles.readCertificate(server.caPaths.getWorkingDirectory(ca).resolve(fileName + ".crt")));
+    }
+}
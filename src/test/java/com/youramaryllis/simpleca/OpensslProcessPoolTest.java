@@ -0,0 +1,107 @@
+package com.youramaryllis.simpleca;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * The pool driven by a stub of interactive openssl: it prompts, answers a command per line, and reports
+ * {@code fail} as openssl reports a failed command, on stderr.
+ */
+class OpensslProcessPoolTest {
+    private static final String STUB = "#!/bin/sh\n"
+            + "printf 'OpenSSL> '\n"
+            + "while read -r command args; do\n"
+            + "  case \"$command\" in\n"
+            + "    fail) echo \"$args\"; echo \"error in $command\" >&2 ;;\n"
+            + "    hang) exec sleep 60 ;;\n"
+            + "    pid) echo $$ > pid ;;\n"
+            + "    *) echo \"$command $args\" ;;\n"
+            + "  esac\n"
+            + "  printf 'OpenSSL> '\n"
+            + "done\n";
+
+    @TempDir
+    Path directory;
+
+    OpensslProcessPool pool = new OpensslProcessPool();
+    String stub;
+
+    @BeforeEach
+    void setup() throws IOException {
+        pool.configuration = new SimpleCertAuthConfiguration();
+        pool.configuration.opensslPool.processesPerDirectory = 1;
+        pool.configuration.opensslPool.commandTimeoutSeconds = 1;
+        Path stubFile = directory.resolve("openssl");
+        Files.writeString(stubFile, STUB);
+        assertTrue(stubFile.toFile().setExecutable(true));
+        stub = stubFile.toString();
+        assertTrue(pool.isEnabled(stub));
+    }
+
+    @AfterEach
+    void shutdown() {
+        pool.shutdown();
+    }
+
+    @Test
+    void commandsShareTheProcess() {
+        ByteArrayOutputStream error = new ByteArrayOutputStream();
+        assertEquals(0, pool.execute(stub, directory, List.of("verify", "-CAfile", "ca chain.crt"), error));
+        assertEquals(0, pool.execute(stub, directory, List.of("crl", "-in", "ca1.crl"), error));
+        assertEquals(0, error.size());
+        assertEquals(1, pool.getProcessCount());
+    }
+
+    @Test
+    void errorInCommandFails() {
+        ByteArrayOutputStream error = new ByteArrayOutputStream();
+        assertEquals(1, pool.execute(stub, directory, List.of("fail", "bad", "argument"), error));
+        String output = error.toString(StandardCharsets.UTF_8);
+        assertTrue(output.contains("bad argument") && output.contains("error in fail"), output);
+        // the process is still good for the next command
+        assertEquals(0, pool.execute(stub, directory, List.of("verify"), new ByteArrayOutputStream()));
+        assertEquals(1, pool.getProcessCount());
+    }
+
+    @Test
+    void hungProcessIsKilledAndReplaced() {
+        long start = System.nanoTime();
+        assertThrows(IOException.class, () -> pool.execute(stub, directory, List.of("hang"), new ByteArrayOutputStream()));
+        assertTrue(TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - start) < 10);
+        assertEquals(0, pool.getProcessCount());
+        assertEquals(0, pool.execute(stub, directory, List.of("verify"), new ByteArrayOutputStream()));
+        assertEquals(1, pool.getProcessCount());
+    }
+
+    @Test
+    void deadProcessIsReplaced() throws Exception {
+        long pid = pid();
+        ProcessHandle process = ProcessHandle.of(pid).orElseThrow();
+        process.destroyForcibly();
+        process.onExit().get(10, TimeUnit.SECONDS);
+
+        assertNotEquals(pid, pid());
+        assertEquals(1, pool.getProcessCount());
+    }
+
+    // of the process that ran the command
+    private long pid() throws IOException {
+        assertEquals(0, pool.execute(stub, directory, List.of("pid"), new ByteArrayOutputStream()));
+        return Long.parseLong(Files.readString(directory.resolve("pid")).trim());
+    }
+}
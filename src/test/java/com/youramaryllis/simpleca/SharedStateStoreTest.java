@@ -0,0 +1,112 @@
+package com.youramaryllis.simpleca;
+
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.math.BigInteger;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Two nodes in one JVM sharing the CA directory and a state store: both issue and revoke under the same CA at once,
+ * no serial is given twice and each node ends up with the certs and revocations of the other.
+ */
+class SharedStateStoreTest {
+    private static final int CERTS_PER_NODE = 12;
+    private static final long SYNC_TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(30);
+
+    @TempDir
+    Path directory;
+
+    @ParameterizedTest
+    @ValueSource(strings = {"file", "jdbc"})
+    void nodesApplyTheRecordsOfEachOther(String storeType) throws Exception {
+        Path caPath = directory.resolve("ca");
+        String[] properties = {
+                "--simpleca.store.type=" + storeType,
+                "--simpleca.store.jdbcUrl=jdbc:h2:file:" + directory.resolve("store") + ";AUTO_SERVER=TRUE",
+                "--simpleca.store.pollIntervalSeconds=1",
+                "--simpleca.serial.blockSize=3"};
+        try (TestServer a = TestServer.start(directory.resolve("a"), caPath, properties);
+             TestServer b = TestServer.start(directory.resolve("b"), caPath, properties)) {
+            ExecutorService executor = Executors.newFixedThreadPool(8);
+            List<Future<?>> futures = new ArrayList<>();
+            for (String caName : List.of("ca1", "ca2")) {
+                for (int i = 0; i < CERTS_PER_NODE; i++) {
+                    futures.add(executor.submit(issueAndMaybeRevoke(a, caName, "a-cert" + i, i % 4 == 0)));
+                    futures.add(executor.submit(issueAndMaybeRevoke(b, caName, "b-cert" + i, i % 4 == 0)));
+                }
+            }
+            for (Future<?> future : futures) future.get(2, TimeUnit.MINUTES);
+            executor.shutdown();
+
+            for (String caName : List.of("ca1", "ca2")) {
+                List<BigInteger> indexSerials = a.indexSerials(a.getCA(caName));
+                assertEquals(indexSerials.size(), new HashSet<>(indexSerials).size(), "duplicated serial in the certindex of " + caName);
+
+                Set<BigInteger> serials = new HashSet<>();
+                for (int i = 0; i < CERTS_PER_NODE; i++) {
+                    serials.add(a.serialOf(a.database.getCert(a.getCA(caName), "a-cert" + i).orElseThrow()));
+                    serials.add(b.serialOf(b.database.getCert(b.getCA(caName), "b-cert" + i).orElseThrow()));
+                }
+                assertEquals(2 * CERTS_PER_NODE, serials.size(), "serial issued twice under " + caName);
+                assertTrue(indexSerials.containsAll(serials), "issued certs missing from the certindex of " + caName);
+                assertTrue(a.certserial(a.getCA(caName)).compareTo(indexSerials.stream().max(BigInteger::compareTo).orElseThrow()) > 0);
+
+                for (int i = 0; i < CERTS_PER_NODE; i++) {
+                    boolean revoked = i % 4 == 0;
+                    awaitCert(b, caName, "a-cert" + i, revoked);
+                    awaitCert(a, caName, "b-cert" + i, revoked);
+                }
+            }
+
+            // a revocation of a cert issued by the other node
+            CA ca1 = b.getCA("ca1");
+            b.revoke(ca1, List.of(b.database.getCert(ca1, "a-cert1").orElseThrow()));
+            awaitCert(a, "ca1", "a-cert1", true);
+            for (TestServer node : List.of(a, b)) {
+                for (String caName : List.of("ca1", "ca2")) {
+                    assertTrue(node.revocationIndex.verify(node.getCA(caName)), "revocation index of " + caName);
+                }
+            }
+        }
+    }
+
+    private static Callable<Void> issueAndMaybeRevoke(TestServer node, String caName, String certName, boolean revoke) {
+        return () -> {
+            CA ca = node.getCA(caName);
+            Cert cert = node.issue(ca, certName);
+            if (revoke) node.revoke(ca, List.of(cert));
+            return null;
+        };
+    }
+
+    private static void awaitCert(TestServer node, String caName, String certName, boolean revoked) throws InterruptedException {
+        await(() -> {
+            Optional<Cert> cert = node.database.getCert(node.getCA(caName), certName);
+            return cert.isPresent() && cert.get().revoked == revoked;
+        }, certName + " of " + caName + " not applied" + (revoked ? " as revoked" : ""));
+    }
+
+    private static void await(BooleanSupplier condition, String message) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + SYNC_TIMEOUT_MILLIS;
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.currentTimeMillis() < deadline, message);
+            Thread.sleep(100);
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package com.youramaryllis.simpleca;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.security.PrivateKey;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+
+class SigningKeyCacheTest {
+    @TempDir
+    Path directory;
+
+    @Test
+    void everyCallUnsealsANewKey() throws Exception {
+        try (TestServer server = TestServer.start(directory, directory.resolve("ca"))) {
+            SigningKeyCache cache = server.context.getBean(SigningKeyCache.class);
+            CA ca = server.getCA("ca1");
+            Path workingDirectory = server.caPaths.getWorkingDirectory(ca);
+            cache.clear();
+            long misses = cache.getMisses();
+
+            PrivateKey first = cache.getPrivateKey(ca);
+            PrivateKey second = cache.getPrivateKey(ca);
+            assertNotSame(first, second);
+            assertArrayEquals(PemFiles.readPrivateKey(workingDirectory.resolve(ca.name + ".key"), ca.password).getEncoded(), second.getEncoded());
+            assertArrayEquals(PemFiles.readPrivateKey(workingDirectory.resolve(ca.name + "-ocsp-signer.key"), null).getEncoded(),
+                    cache.getOcspSigningKey(ca).getEncoded());
+            // read from the files once each
+            assertEquals(misses + 2, cache.getMisses());
+            assertEquals(2, cache.size());
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package com.youramaryllis.simpleca;
+
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * The CA server without its web server, started on the CA of {@code issuing.yaml} (rootca, ca1 and ca2);
+ * the tests call its beans the way the controllers do.
+ */
+class TestServer implements AutoCloseable {
+    final ConfigurableApplicationContext context;
+    final CertAuthDatabase database;
+    final CertCABuilder certCABuilder;
+    final CertAuthority certAuthority;
+    final RevocationIndex revocationIndex;
+    final CAPaths caPaths;
+
+    private TestServer(ConfigurableApplicationContext context) {
+        this.context = context;
+        database = context.getBean(CertAuthDatabase.class);
+        certCABuilder = context.getBean(CertCABuilder.class);
+        certAuthority = context.getBean(CertAuthority.class);
+        revocationIndex = context.getBean(RevocationIndex.class);
+        caPaths = context.getBean(CAPaths.class);
+    }
+
+    // the db file goes to databaseDirectory, the CA files to caPath, which nodes of one hierarchy share
+    static TestServer start(Path databaseDirectory, Path caPath, String... properties) throws IOException {
+        Files.createDirectories(databaseDirectory);
+        Path databaseFile = databaseDirectory.resolve("simpleca.yaml");
+        if (Files.notExists(databaseFile)) {
+            try (InputStream yaml = TestServer.class.getResourceAsStream("/issuing.yaml")) {
+                Files.copy(yaml, databaseFile);
+            }
+        }
+        List<String> args = new ArrayList<>(List.of(
+                "--spring.config.location=classpath:/application.yaml," + databaseFile,
+                "--simpleca.caPath=" + caPath,
+                "--simpleca.ocspPort=0",
+                "--simpleca.keyPool.capacity=0"));
+        args.addAll(List.of(properties));
+        return new TestServer(new SpringApplicationBuilder(SimpleCertAuthApplication.class)
+                .web(WebApplicationType.NONE)
+                .run(args.toArray(String[]::new)));
+    }
+
+    CA getCA(String name) {
+        return database.getCA(name);
+    }
+
+    // what POST /api/cert/{signingCaName} takes
+    static Cert newCert(CA ca, String name) {
+        Cert cert = new Cert();
+        cert.name = name;
+        cert.keyAlgorithm = KeyAlgorithm.EC_P256; // the key doesn't matter here, and is the fastest
+        cert.subject = "/C=US/ST=California/L=San Francisco/O=Youramaryllis/CN=" + name;
+        cert.relativePath = "issued/" + ca.name + "/" + name;
+        cert.password = "changeit";
+        return cert;
+    }
+
+    // POST /api/cert/{signingCaName}
+    Cert issue(CA ca, String name) {
+        Cert cert = newCert(ca, name);
+        cert.signingCA = ca;
+        certCABuilder.buildCert(ca, cert);
+        database.addCert(ca, cert);
+        return cert;
+    }
+
+    // POST /api/cert/{signingCaName}/revoke
+    void revoke(CA ca, List<Cert> certs) {
+        certs.forEach(cert -> database.revokeCert(ca, cert));
+        certCABuilder.revokeCerts(ca, certs);
+    }
+
+    BigInteger serialOf(Cert cert) {
+        return PemFiles.readCertificate(caPaths.getWorkingDirectory(cert).resolve(cert.name + ".crt")).getSerialNumber();
+    }
+
+    // serials of the certindex of the CA, in file order
+    List<BigInteger> indexSerials(CA ca) {
+        return JcaSigningEngine.readIndex(caPaths.getWorkingDirectory(ca)).stream()
+                .map(entry -> new BigInteger(entry[3], 16))
+                .collect(Collectors.toList());
+    }
+
+    // next serial openssl would issue
+    BigInteger certserial(CA ca) throws IOException {
+        return new BigInteger(Files.readString(caPaths.getWorkingDirectory(ca).resolve("certserial")).trim(), 16);
+    }
+
+    @Override
+    public void close() {
+        context.close();
+    }
+}